@@ -0,0 +1,59 @@
+package com.sahilbondre.fireflydb.jmh;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import com.sahilbondre.firefly.filetable.FileTableType;
+import com.sahilbondre.firefly.filetable.OffHeapPersistableFileTable;
+import com.sahilbondre.firefly.filetable.PersistableFileTable;
+import com.sahilbondre.firefly.filetable.SerializedPersistableFileTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts and gets of both file-table implementations, shared by all benchmark threads like in the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTableBenchmark {
+    @Param({"SERIALIZED", "OFF_HEAP"})
+    private FileTableType type;
+
+    @Param({"8", "64"})
+    private int keySize;
+
+    @Param({"1000000"})
+    private int keyCount;
+
+    private PersistableFileTable fileTable;
+    private byte[][] keys;
+
+    @Setup
+    public void setUp() {
+        fileTable = type == FileTableType.OFF_HEAP ? OffHeapPersistableFileTable.fromEmpty() :
+            SerializedPersistableFileTable.fromEmpty();
+        Random random = new Random(42);
+        keys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = new byte[keySize];
+            random.nextBytes(keys[i]);
+            fileTable.put(keys[i], new FilePointer(1, i * 128L, 128));
+        }
+    }
+
+    @Benchmark
+    public void put() {
+        int index = ThreadLocalRandom.current().nextInt(keyCount);
+        fileTable.put(keys[index], new FilePointer(2, index * 128L, 128));
+    }
+
+    @Benchmark
+    public FilePointer get() {
+        return fileTable.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
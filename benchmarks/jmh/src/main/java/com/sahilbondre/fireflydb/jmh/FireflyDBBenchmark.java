@@ -0,0 +1,75 @@
+package com.sahilbondre.fireflydb.jmh;
+
+import com.sahilbondre.firefly.FireflyConfig;
+import com.sahilbondre.firefly.FireflyDB;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end sets and gets of a database in a temporary folder, with the default configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FireflyDBBenchmark {
+    @Param({"8", "64"})
+    private int keySize;
+
+    @Param({"100", "4096"})
+    private int valueSize;
+
+    @Param({"100000"})
+    private int keyCount;
+
+    private Path folderPath;
+    private FireflyDB fireflyDB;
+    private byte[][] keys;
+    private byte[] value;
+
+    @Setup
+    public void setUp() throws IOException {
+        folderPath = Files.createTempDirectory("firefly-jmh");
+        fireflyDB = FireflyDB.getInstance(folderPath.toString(), new FireflyConfig());
+        fireflyDB.start();
+        Random random = new Random(42);
+        value = new byte[valueSize];
+        random.nextBytes(value);
+        keys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = new byte[keySize];
+            random.nextBytes(keys[i]);
+            fireflyDB.set(keys[i], value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fireflyDB.stop();
+        try (Stream<Path> paths = Files.walk(folderPath)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void set() throws IOException {
+        fireflyDB.set(keys[ThreadLocalRandom.current().nextInt(keyCount)], value);
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException {
+        return fireflyDB.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
@@ -0,0 +1,29 @@
+package com.sahilbondre.fireflydb.jmh;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count of the {@code threads} system property, e.g. {@code -Dthreads=1,4,16}.
+ * All arguments are passed to JMH as they are, without the property its own {@code -t} applies.
+ */
+public class Main {
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        String threadCounts = System.getProperty("threads");
+        if (threadCounts == null) {
+            new Runner(options).run();
+            return;
+        }
+        for (String threads : threadCounts.split(",")) {
+            new Runner(new OptionsBuilder()
+                .parent(options)
+                .threads(Integer.parseInt(threads.trim()))
+                .build())
+                .run();
+        }
+    }
+}
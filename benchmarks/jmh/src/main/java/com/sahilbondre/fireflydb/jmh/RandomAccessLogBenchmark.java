@@ -0,0 +1,117 @@
+package com.sahilbondre.fireflydb.jmh;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import com.sahilbondre.firefly.log.FileChannelRandomAccessLog;
+import com.sahilbondre.firefly.log.RandomAccessLog;
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends to and positional reads from a log on the file channel, through the page cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RandomAccessLogBenchmark {
+    private static final int READ_SEGMENT_COUNT = 100_000;
+
+    private static byte[] newSegment(int keySize, int valueSize, Random random) {
+        byte[] key = new byte[keySize];
+        byte[] value = new byte[valueSize];
+        random.nextBytes(key);
+        random.nextBytes(value);
+        return Segment.fromKeyValuePair(key, value, SegmentFormat.LATEST).getBytes();
+    }
+
+    /**
+     * One log per thread, appends to a log are serialized by the database.
+     */
+    @State(Scope.Thread)
+    public static class AppendState {
+        @Param({"8", "64"})
+        private int keySize;
+
+        @Param({"100", "4096"})
+        private int valueSize;
+
+        private Path filePath;
+        private RandomAccessLog log;
+        private byte[] segment;
+
+        @Setup
+        public void setUp() throws IOException {
+            filePath = Files.createTempFile("firefly-jmh-append", ".log");
+            log = new FileChannelRandomAccessLog(filePath.toString(), 1);
+            log.writeHeader(SegmentFormat.LATEST);
+            segment = newSegment(keySize, valueSize, new Random(42));
+        }
+
+        /**
+         * Keeps the log from growing across iterations.
+         */
+        @TearDown(Level.Iteration)
+        public void truncate() throws IOException {
+            log.truncate(SegmentFormat.LATEST.getLogHeaderLength());
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            log.close();
+            Files.deleteIfExists(filePath);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReadState {
+        @Param({"8", "64"})
+        private int keySize;
+
+        @Param({"100", "4096"})
+        private int valueSize;
+
+        private Path filePath;
+        private RandomAccessLog log;
+        private final List<FilePointer> filePointers = new ArrayList<>();
+
+        @Setup
+        public void setUp() throws IOException {
+            filePath = Files.createTempFile("firefly-jmh-read", ".log");
+            log = new FileChannelRandomAccessLog(filePath.toString(), 1);
+            log.writeHeader(SegmentFormat.LATEST);
+            Random random = new Random(42);
+            for (int i = 0; i < READ_SEGMENT_COUNT; i++) {
+                filePointers.add(log.append(newSegment(keySize, valueSize, random)));
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            log.close();
+            Files.deleteIfExists(filePath);
+        }
+    }
+
+    @Benchmark
+    public FilePointer append(AppendState state) throws IOException {
+        return state.log.append(state.segment);
+    }
+
+    @Benchmark
+    public Segment readSegment(ReadState state) throws IOException {
+        FilePointer filePointer = state.filePointers.get(
+            ThreadLocalRandom.current().nextInt(state.filePointers.size()));
+        return state.log.readSegment(filePointer.getOffset(), filePointer.getLength());
+    }
+}
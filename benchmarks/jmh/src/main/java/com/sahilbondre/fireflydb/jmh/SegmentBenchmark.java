@@ -0,0 +1,52 @@
+package com.sahilbondre.fireflydb.jmh;
+
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and checksum validation of segments, without any I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentBenchmark {
+    @Param({"8", "64"})
+    private int keySize;
+
+    @Param({"100", "4096"})
+    private int valueSize;
+
+    @Param({"V1", "V2"})
+    private SegmentFormat format;
+
+    private byte[] key;
+    private byte[] value;
+    private Segment segment;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        key = new byte[keySize];
+        value = new byte[valueSize];
+        random.nextBytes(key);
+        random.nextBytes(value);
+        segment = Segment.fromKeyValuePair(key, value, format);
+    }
+
+    @Benchmark
+    public Segment fromKeyValuePair() {
+        return Segment.fromKeyValuePair(key, value, format);
+    }
+
+    @Benchmark
+    public boolean isSegmentValid() {
+        return segment.isSegmentValid();
+    }
+}
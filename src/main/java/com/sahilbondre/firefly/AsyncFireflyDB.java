@@ -0,0 +1,186 @@
+package com.sahilbondre.firefly;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking facade of a started FireflyDB.
+ * <p>
+ * Reads run on a dedicated pool of I/O threads. Writes are queued for the group commit of the database and complete
+ * once their batch is committed, so a pending write takes no thread. Futures complete on the I/O threads, never on
+ * the committer thread.
+ * <p>
+ * At most {@link FireflyConfig#getMaxInFlightRequests()} requests are queued or running at a time, the
+ * {@link OverloadPolicy} decides what happens to further requests. Writes stay in flight until they are committed,
+ * so callers are held back once the disk falls behind.
+ */
+public class AsyncFireflyDB implements Closeable {
+    private final FireflyDB fireflyDB;
+    private final ExecutorService ioExecutor;
+    private final Semaphore inFlight;
+    private final int maxInFlightRequests;
+    private final OverloadPolicy overloadPolicy;
+    private volatile boolean closed = false;
+
+    public AsyncFireflyDB(FireflyDB fireflyDB) {
+        FireflyConfig config = fireflyDB.getConfig();
+        this.fireflyDB = fireflyDB;
+        this.ioExecutor = Executors.newFixedThreadPool(config.getIoThreads(), new IoThreadFactory());
+        this.maxInFlightRequests = config.getMaxInFlightRequests();
+        this.inFlight = new Semaphore(maxInFlightRequests);
+        this.overloadPolicy = config.getOverloadPolicy();
+    }
+
+    public CompletableFuture<byte[]> get(byte[] key) {
+        return read(() -> fireflyDB.get(key));
+    }
+
+    public CompletableFuture<List<Optional<byte[]>>> multiGet(List<byte[]> keys) {
+        return read(() -> fireflyDB.multiGet(keys));
+    }
+
+    public CompletableFuture<Void> set(byte[] key, byte[] value) {
+        return write(() -> fireflyDB.setAsync(key, value));
+    }
+
+    public CompletableFuture<Void> set(byte[] key, byte[] value, Duration ttl) {
+        return write(() -> fireflyDB.setAsync(key, value, ttl));
+    }
+
+    public CompletableFuture<Void> delete(byte[] key) {
+        return write(() -> fireflyDB.deleteAsync(key));
+    }
+
+    public CompletableFuture<Void> write(WriteBatch batch) {
+        return write(() -> fireflyDB.writeAsync(batch));
+    }
+
+    /**
+     * Requests that are queued or running.
+     */
+    public int getInFlightRequests() {
+        return maxInFlightRequests - inFlight.availablePermits();
+    }
+
+    /**
+     * Stops the I/O threads once queued reads are done. The database itself stays started.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    <T> CompletableFuture<T> read(Callable<T> reader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!acquire(future)) {
+            return future;
+        }
+
+        try {
+            ioExecutor.execute(() -> {
+                T result;
+                try {
+                    result = reader.call();
+                } catch (Exception e) {
+                    inFlight.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                inFlight.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> write(Supplier<CompletableFuture<Void>> writer) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!acquire(future)) {
+            return future;
+        }
+
+        CompletableFuture<Void> committed;
+        try {
+            committed = writer.get();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            future.completeExceptionally(e);
+            return future;
+        }
+        committed.whenComplete((ignored, exception) -> {
+            inFlight.release();
+            // Keep continuations of callers off the committer thread
+            Runnable completion = () -> {
+                if (exception == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(exception);
+                }
+            };
+            try {
+                ioExecutor.execute(completion);
+            } catch (RejectedExecutionException e) {
+                completion.run();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Takes a slot for a request, or fails its future if none is available as dictated by the overload policy.
+     */
+    private boolean acquire(CompletableFuture<?> future) {
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("AsyncFireflyDB is closed."));
+            return false;
+        }
+        if (overloadPolicy == OverloadPolicy.REJECT) {
+            if (!inFlight.tryAcquire()) {
+                future.completeExceptionally(new RejectedExecutionException("Too many requests in flight."));
+                return false;
+            }
+            return true;
+        }
+        try {
+            inFlight.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new InterruptedIOException("Interrupted while waiting for a free slot."));
+            return false;
+        }
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "firefly-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sahilbondre.firefly;
+
+/**
+ * When appended segments are forced to the storage device.
+ * <p>
+ * NONE: Never fsync, rely on the OS to flush the page cache.
+ * INTERVAL: Fsync at most once every configured interval.
+ * BATCH: Fsync every group-commit batch before acknowledging the writers.
+ */
+public enum Durability {
+    NONE,
+    INTERVAL,
+    BATCH
+}
@@ -0,0 +1,166 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.filetable.ExpiryLookup;
+import com.sahilbondre.firefly.filetable.FilePointer;
+import com.sahilbondre.firefly.filetable.FileTableDelta;
+import com.sahilbondre.firefly.filetable.FileTableSnapshot;
+import com.sahilbondre.firefly.filetable.InvalidFileTableException;
+import com.sahilbondre.firefly.filetable.LogPosition;
+import com.sahilbondre.firefly.filetable.PersistableFileTable;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+/**
+ * Saved file-table of a database: a base snapshot and a delta of the changes since, consistent with the logs up to
+ * a log position.
+ * <p>
+ * Checkpoints append the keys changed since the last one to the delta, which is small and quick to write. Once the
+ * delta grows too large compared to the base, it is folded into a new base. Recovery loads the base, replays the
+ * delta and then only the logs written after the position. Both store the expiry of values that expire, which the
+ * file-table does not keep itself.
+ * <p>
+ * Keys are saved with their current file-pointers, which may point past the position. The logs written since the
+ * position are forced before a checkpoint is committed, so that it never points past what a crash of the machine
+ * leaves of the logs.
+ * <p>
+ * Not thread-safe, checkpoints run one at a time on the background thread.
+ */
+class FileTableCheckpoint implements Closeable {
+    // A delta this many times smaller than the base is folded into it
+    private static final int FOLD_RATIO = 2;
+    // A new base is saved here first, and replaces the base once the logs are forced
+    private static final String NEW_BASE_EXTENSION = ".new";
+
+    private final String basePath;
+    private final String deltaPath;
+    private final LogForcer logForcer;
+    // Null until the base is written or the delta is replayed, and after a failed checkpoint
+    private FileTableDelta.Writer deltaWriter;
+
+    FileTableCheckpoint(String basePath, String deltaPath, LogForcer logForcer) {
+        this.basePath = basePath;
+        this.deltaPath = deltaPath;
+        this.logForcer = logForcer;
+    }
+
+    /**
+     * Applies the delta on top of a loaded base and continues appending to it.
+     *
+     * @param expiringEntries receives the puts of values that expire
+     * @return position the file-table is consistent with, the base position if the delta is missing or invalid
+     */
+    LogPosition replayDelta(PersistableFileTable fileTable, LogPosition basePosition,
+        FileTableSnapshot.ExpiringEntryConsumer expiringEntries) throws IOException {
+        FileTableDelta.Replay replay;
+        try {
+            replay = FileTableDelta.read(deltaPath, basePosition, (key, filePointer, expiresAt) -> {
+                if (filePointer == null) {
+                    fileTable.remove(key);
+                } else {
+                    fileTable.put(key, filePointer);
+                    if (expiresAt != 0) {
+                        expiringEntries.accept(key, filePointer, expiresAt);
+                    }
+                }
+            });
+        } catch (FileNotFoundException | InvalidFileTableException e) {
+            // A crash right after writing the base left the delta of the previous one behind
+            deltaWriter = FileTableDelta.create(deltaPath, basePosition);
+            return basePosition;
+        }
+        deltaWriter = FileTableDelta.append(deltaPath, replay);
+        return replay.getPosition();
+    }
+
+    /**
+     * Whether the next checkpoint needs to save a new base, because the delta grew too large or cannot be appended to.
+     */
+    boolean needsFold() throws IOException {
+        return deltaWriter == null || deltaWriter.size() * FOLD_RATIO > Files.size(Paths.get(basePath));
+    }
+
+    /**
+     * Appends the changed keys to the delta, unless {@link #needsFold()}.
+     *
+     * @param changedKeys keys changed since the last checkpoint, all changes up to {@code position} among them
+     * @param expiries    expiry of the values the changed keys point to
+     */
+    void checkpoint(PersistableFileTable fileTable, Set<ByteBuffer> changedKeys, ExpiryLookup expiries,
+        LogPosition position) throws IOException {
+        if (changedKeys.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (ByteBuffer key : changedKeys) {
+                // The current value may be newer than the position, replaying the logs after it reaches it again
+                FilePointer filePointer = fileTable.get(key.array());
+                if (filePointer == null) {
+                    deltaWriter.remove(key.array());
+                } else {
+                    deltaWriter.put(key.array(), filePointer, expiries.getExpiresAt(key.array(),
+                        filePointer.packLogIdAndLength(), filePointer.getOffset()));
+                }
+            }
+            logForcer.forceSince(position);
+            deltaWriter.endBatch(position);
+        } catch (IOException | RuntimeException e) {
+            closeDelta();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the whole file-table as the new base and starts an empty delta on top of it.
+     */
+    void fold(PersistableFileTable fileTable, LogPosition position, ExpiryLookup expiries) throws IOException {
+        closeDelta();
+        String newBasePath = basePath + NEW_BASE_EXTENSION;
+        fileTable.saveToDisk(newBasePath, position, expiries);
+        logForcer.forceSince(position);
+        Files.move(Paths.get(newBasePath), Paths.get(basePath), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        deltaWriter = FileTableDelta.create(deltaPath, position);
+    }
+
+    /**
+     * Deletes the checkpoint, before logs that it may point into are rewritten.
+     */
+    void invalidate() throws IOException {
+        closeDelta();
+        Files.deleteIfExists(Paths.get(basePath));
+        Files.deleteIfExists(Paths.get(basePath + NEW_BASE_EXTENSION));
+        Files.deleteIfExists(Paths.get(deltaPath));
+    }
+
+    boolean isValid() {
+        return Files.exists(Paths.get(basePath));
+    }
+
+    private void closeDelta() throws IOException {
+        if (deltaWriter != null) {
+            FileTableDelta.Writer writer = deltaWriter;
+            deltaWriter = null;
+            writer.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeDelta();
+    }
+
+    interface LogForcer {
+        /**
+         * Forces the logs written since the position to disk.
+         */
+        void forceSince(LogPosition position) throws IOException;
+    }
+}
@@ -0,0 +1,209 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.compression.Codec;
+import com.sahilbondre.firefly.filetable.FileTableType;
+import com.sahilbondre.firefly.log.LogType;
+
+public class FireflyConfig {
+    private Durability durability = Durability.NONE;
+    private long fsyncIntervalMillis = 1000;
+    // 4 GB
+    private long maxLogSize = 4 * 1024 * 1024 * 1024L;
+    private FileTableType fileTableType = FileTableType.SERIALIZED;
+    private LogType logType = LogType.FILE_CHANNEL;
+    // Bytes of values cached in memory, 0 disables the cache
+    private long valueCacheSize = 0;
+    // Threads reading logs in parallel for multiGet and recovery, and loading the saved file-table
+    private int readThreads = Runtime.getRuntime().availableProcessors();
+    // Threads serving reads of AsyncFireflyDB
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    // Requests of AsyncFireflyDB that are queued or running at a time
+    private int maxInFlightRequests = 1024;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    // Codec of values of at least compressionThreshold bytes, null disables compression
+    private Codec compressionCodec = null;
+    private int compressionThreshold = 512;
+    // Saves the keys changed since the last checkpoint, 0 saves the file-table only on stop and after compaction
+    private long checkpointIntervalMillis = 60 * 1000;
+    // Compacts sealed logs picked by garbage ratio and max logs periodically, 0 only compacts when asked to
+    private long compactionIntervalMillis = 60 * 1000;
+    // Share of a log's size that must be reclaimable for it to be picked, 0 picks every log with garbage
+    private double compactionGarbageRatio = 0.5;
+    // Picked logs with the most reclaimable bytes compacted at a time, 0 compacts all picked logs
+    private int compactionMaxLogs = 0;
+    // Registers the metrics of the database as an MBean while it is started
+    private boolean jmxEnabled = true;
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        if (fsyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Fsync interval must be positive.");
+        }
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    public long getMaxLogSize() {
+        return maxLogSize;
+    }
+
+    public void setMaxLogSize(long maxLogSize) {
+        if (maxLogSize <= 0) {
+            throw new IllegalArgumentException("Max log size must be positive.");
+        }
+        this.maxLogSize = maxLogSize;
+    }
+
+    public FileTableType getFileTableType() {
+        return fileTableType;
+    }
+
+    public void setFileTableType(FileTableType fileTableType) {
+        this.fileTableType = fileTableType;
+    }
+
+    public LogType getLogType() {
+        return logType;
+    }
+
+    public void setLogType(LogType logType) {
+        this.logType = logType;
+    }
+
+    public long getValueCacheSize() {
+        return valueCacheSize;
+    }
+
+    public void setValueCacheSize(long valueCacheSize) {
+        if (valueCacheSize < 0) {
+            throw new IllegalArgumentException("Value cache size must not be negative.");
+        }
+        this.valueCacheSize = valueCacheSize;
+    }
+
+    public int getReadThreads() {
+        return readThreads;
+    }
+
+    public void setReadThreads(int readThreads) {
+        if (readThreads <= 0) {
+            throw new IllegalArgumentException("Read threads must be positive.");
+        }
+        this.readThreads = readThreads;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("I/O threads must be positive.");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        if (maxInFlightRequests <= 0) {
+            throw new IllegalArgumentException("Max in-flight requests must be positive.");
+        }
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public Codec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Codecs other than those of {@link com.sahilbondre.firefly.compression.Codecs} must be registered there as well,
+     * so that their values can be read.
+     */
+    public void setCompressionCodec(Codec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("Compression threshold must not be negative.");
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative.");
+        }
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+        if (compactionIntervalMillis < 0) {
+            throw new IllegalArgumentException("Compaction interval must not be negative.");
+        }
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+
+    public double getCompactionGarbageRatio() {
+        return compactionGarbageRatio;
+    }
+
+    public void setCompactionGarbageRatio(double compactionGarbageRatio) {
+        if (compactionGarbageRatio < 0 || compactionGarbageRatio > 1) {
+            throw new IllegalArgumentException("Compaction garbage ratio must be between 0 and 1.");
+        }
+        this.compactionGarbageRatio = compactionGarbageRatio;
+    }
+
+    public int getCompactionMaxLogs() {
+        return compactionMaxLogs;
+    }
+
+    public void setCompactionMaxLogs(int compactionMaxLogs) {
+        if (compactionMaxLogs < 0) {
+            throw new IllegalArgumentException("Compaction max logs must not be negative.");
+        }
+        this.compactionMaxLogs = compactionMaxLogs;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+}
@@ -1,37 +1,130 @@
 package com.sahilbondre.firefly;
 
-import com.sahilbondre.firefly.filetable.FilePointer;
-import com.sahilbondre.firefly.filetable.PersistableFileTable;
-import com.sahilbondre.firefly.filetable.SerializedPersistableFileTable;
+import com.sahilbondre.firefly.cache.CacheStats;
+import com.sahilbondre.firefly.cache.ValueCache;
+import com.sahilbondre.firefly.compression.Codec;
+import com.sahilbondre.firefly.expiry.TimingWheel;
+import com.sahilbondre.firefly.filetable.*;
 import com.sahilbondre.firefly.log.FileChannelRandomAccessLog;
+import com.sahilbondre.firefly.log.HintFile;
+import com.sahilbondre.firefly.log.InvalidHintFileException;
+import com.sahilbondre.firefly.log.InvalidRangeException;
+import com.sahilbondre.firefly.log.LogType;
+import com.sahilbondre.firefly.log.MappedRandomAccessLog;
 import com.sahilbondre.firefly.log.RandomAccessLog;
+import com.sahilbondre.firefly.log.ReferenceCountedLog;
+import com.sahilbondre.firefly.metrics.FireflyMetrics;
+import com.sahilbondre.firefly.metrics.FireflyMetricsBean;
+import com.sahilbondre.firefly.metrics.MetricsRecorder;
 import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Checksum;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class FireflyDB {
     private static final Map<String, FireflyDB> instances = new HashMap<>();
     private static final String NOT_STARTED_ERROR_MESSAGE = "FireflyDB is not started.";
-    // 4 GB
-    private static final long MAX_LOG_SIZE = 4 * 1024 * 1024 * 1024L;
+    private static final Logger logger = Logger.getLogger(FireflyDB.class.getName());
+    private static final String LOG_EXTENSION = ".log";
+    private static final String COMPACTION_EXTENSION = ".compact";
+    private static final String FILE_TABLE_FILE_NAME = "map.snapshot";
+    private static final String FILE_TABLE_DELTA_FILE_NAME = "map.delta";
+    // Saved with Kryo by earlier versions, recovering from hint files replaces it
+    private static final String LEGACY_FILE_TABLE_FILE_NAME = "map.kryo";
+    // Compaction copies live segments in chunks of this size
+    private static final int COMPACTION_BATCH_SIZE = 1024 * 1024;
+    // multiGet merges segments into one read up to this gap between them and this total size
+    private static final int MULTI_GET_MAX_GAP = 4 * 1024;
+    private static final int MULTI_GET_MAX_READ = 1024 * 1024;
+    // Keys that expire are evicted from the file-table at most this late
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final int EXPIRY_WHEEL_SIZE = 64;
+    private static final ThreadLocal<ByteBuffer> headerBuffers = ThreadLocal.withInitial(
+        () -> ByteBuffer.allocateDirect(256));
+    // Returned by readHeaderAndKey for values that are read through the heap
+    private static final ByteBuffer COMPRESSED_SEGMENT = ByteBuffer.allocate(0);
 
     private final String folderPath;
 
     private final String fileTablePath;
-    private final Map<Integer, RandomAccessLog> logMap = new HashMap<>();
-    private RandomAccessLog activeLog;
-    private boolean isStarted = false;
-    private PersistableFileTable fileTable;
+    private final FileTableCheckpoint checkpoint;
+    private final LogTable logTable = new LogTable();
+    private final LiveBytesTable liveBytesTable = new LiveBytesTable();
+    // Bytes of tombstones the last compaction of a log had to copy, by log id
+    private final Map<Integer, Long> keptTombstoneBytes = new ConcurrentHashMap<>();
+    // Guards the active log against concurrent commits and rollovers
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Write batches update the file-table under the write lock, readers of several keys use the read lock
+    private final StampedLock batchLock = new StampedLock();
+    private volatile ReferenceCountedLog activeLog;
+    // Log whose file is being replaced by compaction while its file-pointers are being moved
+    private volatile int relocatingLogId = -1;
+    // Held by compaction while file-pointers are moved, so that snapshots never see a log and its replacement mixed
+    private final ReentrantLock relocationLock = new ReentrantLock();
+    private volatile boolean isStarted = false;
+    private volatile RecoveryReport recoveryReport;
+    private volatile MetricsRecorder metrics = new MetricsRecorder();
+    // Null while stopped or when JMX is disabled
+    private ObjectName metricsBeanName;
+    private volatile PersistableFileTable fileTable;
+    // Same as the file-table while checkpoints are taken periodically, null otherwise
+    private volatile ChangeTrackingFileTable changeTrackingFileTable;
+    private FireflyConfig config = new FireflyConfig();
+    private GroupCommitWriter writer;
+    // Null while stopped or when disabled
+    private volatile ValueCache valueCache;
+    // Writes hint files and compacts sealed logs, one task at a time
+    private ExecutorService backgroundExecutor;
+    // Reads the logs of a multiGet in parallel
+    private ExecutorService readExecutor;
+    // File-pointers of values that expire, by expiry
+    private TimingWheel<ExpiringKey> expiryWheel;
+    // Scheduled since the last checkpoint, which saves their expiry along with the changed keys
+    private final Queue<ExpiringKey> scheduledExpiries = new ConcurrentLinkedQueue<>();
+    // Evicts expired keys and schedules checkpoints and compaction
+    private ScheduledExecutorService scheduler;
+    private final AtomicBoolean garbageCompactionPending = new AtomicBoolean();
 
     private FireflyDB(String folderPath) {
         this.folderPath = folderPath;
-        this.fileTablePath = folderPath + "/map.kryo";
+        this.fileTablePath = folderPath + "/" + FILE_TABLE_FILE_NAME;
+        this.checkpoint = new FileTableCheckpoint(fileTablePath, folderPath + "/" + FILE_TABLE_DELTA_FILE_NAME,
+            this::forceLogsSince);
     }
 
     public static synchronized FireflyDB getInstance(String folderPath) {
@@ -39,6 +132,12 @@ public class FireflyDB {
         return instances.get(folderPath);
     }
 
+    public static synchronized FireflyDB getInstance(String folderPath, FireflyConfig config) {
+        FireflyDB fireflyDB = getInstance(folderPath);
+        fireflyDB.configure(config);
+        return fireflyDB;
+    }
+
     private static boolean isNumeric(String str) {
         return str.matches("\\d+");
     }
@@ -51,136 +150,1755 @@ public class FireflyDB {
         return isStarted;
     }
 
+    public FireflyConfig getConfig() {
+        return config;
+    }
+
+    public synchronized void configure(FireflyConfig config) {
+        if (isStarted) {
+            throw new IllegalStateException("FireflyDB can only be configured before it is started.");
+        }
+        this.config = config;
+    }
+
     public synchronized void start() throws IOException {
         if (!isStarted) {
             isStarted = true;
-            compaction();
+            backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "firefly-background");
+                thread.setDaemon(true);
+                return thread;
+            });
+            readExecutor = Executors.newFixedThreadPool(config.getReadThreads(), new ReadThreadFactory());
+            expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, EXPIRY_WHEEL_SIZE, System.currentTimeMillis());
+            metrics = new MetricsRecorder();
+            recover();
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "firefly-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::expireKeys, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+            if (changeTrackingFileTable != null) {
+                long interval = config.getCheckpointIntervalMillis();
+                scheduler.scheduleWithFixedDelay(() -> checkpointInBackground(false), interval, interval,
+                    TimeUnit.MILLISECONDS);
+            }
+            if (config.getCompactionIntervalMillis() > 0) {
+                long interval = config.getCompactionIntervalMillis();
+                scheduler.scheduleWithFixedDelay(this::compactGarbageInBackground, interval, interval,
+                    TimeUnit.MILLISECONDS);
+            }
+            if (config.getValueCacheSize() > 0) {
+                valueCache = new ValueCache(config.getValueCacheSize());
+            }
+            writer = new GroupCommitWriter(new ActiveLogCommitter(), config.getDurability(),
+                config.getFsyncIntervalMillis());
+            if (config.isJmxEnabled()) {
+                registerMetricsBean();
+            }
+        }
+    }
+
+    private void registerMetricsBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("com.sahilbondre.firefly:type=FireflyDB,path="
+                + ObjectName.quote(folderPath));
+            server.registerMBean(new FireflyMetricsBean(this::getMetrics), name);
+            metricsBeanName = name;
+        } catch (JMException e) {
+            // Metrics stay available through getMetrics
+            logger.log(Level.WARNING, "Failed to register metrics of " + folderPath, e);
         }
     }
 
+    private void unregisterMetricsBean() {
+        if (metricsBeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsBeanName);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to unregister metrics of " + folderPath, e);
+        }
+        metricsBeanName = null;
+    }
+
     public synchronized void stop() throws IOException {
         if (isStarted) {
-            // Save file-table to disk
-            fileTable.saveToDisk(fileTablePath);
+            unregisterMetricsBean();
+            // Drain pending writes
+            writer.close();
+            valueCache = null;
+            if (config.getDurability() != Durability.NONE) {
+                activeLog.force();
+            }
+            scheduler.shutdown();
+            awaitTermination(scheduler);
+            // Finish writing hint files, compacting sealed logs and checkpoints
+            backgroundExecutor.shutdown();
+            awaitTermination(backgroundExecutor);
+            readExecutor.shutdown();
+            awaitTermination(readExecutor);
+            // Save the whole file-table, so that the next start replays no logs
+            checkpoint(true);
+            checkpoint.close();
             // Close all RandomAccessLog
-            for (RandomAccessLog log : logMap.values()) {
+            for (RandomAccessLog log : logTable.values()) {
                 log.close();
             }
         }
         isStarted = false;
     }
 
-    public synchronized void set(byte[] key, byte[] value) throws IOException {
+    private void recover() throws IOException {
+        long startNanos = System.nanoTime();
+        finishInterruptedCompactions();
+
+        // Logs in ascending order, so that newer segments override older ones
+        List<ReferenceCountedLog> logs = getRandomAccessLogsFromDir(folderPath);
+        Collections.reverse(logs);
+
+        logTable.clear();
+        for (ReferenceCountedLog log : logs) {
+            logTable.put(log.getLogId(), log);
+        }
+        activeLog = logs.isEmpty() ? null : logs.get(logs.size() - 1);
+
+        LogPosition checkpointPosition = loadCheckpoint();
+        Map<Integer, Long> droppedBytes = new HashMap<>();
+        int replayedLogCount;
+        if (checkpointPosition == null) {
+            fileTable = newFileTable();
+            replayedLogCount = recoverFromLogs(logs, null, droppedBytes);
+            trackChanges();
+        } else {
+            // Changes replayed from the logs are part of the next checkpoint
+            trackChanges();
+            replayedLogCount = recoverFromLogs(logs, checkpointPosition, droppedBytes);
+        }
+        liveBytesTable.clear();
+        keptTombstoneBytes.clear();
+        fileTable.forEach((key, filePointer) -> liveBytesTable.add(filePointer));
+        recoveryReport = new RecoveryReport(checkpointPosition != null, replayedLogCount, droppedBytes,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+        if (activeLog == null) {
+            moveToNewActiveLog();
+        } else if (activeLog.getFormat() != SegmentFormat.LATEST) {
+            // Logs of older formats stay readable but are never appended to, compaction upgrades them
+            if (activeLog.size() == 0) {
+                activeLog.writeHeader(SegmentFormat.LATEST);
+            } else {
+                ReferenceCountedLog sealedLog = activeLog;
+                moveToNewActiveLog();
+                sealLog(sealedLog);
+            }
+        }
+
+        if (checkpointPosition == null) {
+            // Save the file-table recovered from the logs, so that the next start does not need to replay the logs
+            checkpointInBackground(true);
+        }
+    }
+
+    /**
+     * Completes a compaction that crashed after moving the old log out of the way, and drops the output of one that
+     * crashed before.
+     * <p>
+     * The output is named after the oldest and newest log of the compacted group. Once the newest is out of the way,
+     * older logs of the group that are left are dropped as well, the output may have dropped tombstones that shadow
+     * their values.
+     */
+    private void finishInterruptedCompactions() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(folderPath),
+            "*" + COMPACTION_EXTENSION)) {
+            for (Path compactedPath : stream) {
+                String fileName = compactedPath.getFileName().toString();
+                String[] logIds = fileName.substring(0, fileName.length() - COMPACTION_EXTENSION.length()).split("-");
+                int firstLogId = Integer.parseInt(logIds[0]);
+                int targetLogId = Integer.parseInt(logIds[logIds.length - 1]);
+                Path logPath = Paths.get(getLogFilePath(targetLogId));
+                if (Files.exists(logPath)) {
+                    Files.delete(compactedPath);
+                    continue;
+                }
+                for (int logId = firstLogId; logId < targetLogId; logId++) {
+                    Files.deleteIfExists(Paths.get(HintFile.getHintFilePath(getLogFilePath(logId))));
+                    Files.deleteIfExists(Paths.get(getLogFilePath(logId)));
+                }
+                syncFolder();
+                Files.move(compactedPath, logPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Makes renames and deletes in the folder durable, so that they reach disk before what comes after them.
+     */
+    private void syncFolder() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(folderPath), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private PersistableFileTable newFileTable() {
+        if (config.getFileTableType() == FileTableType.OFF_HEAP) {
+            return OffHeapPersistableFileTable.fromEmpty();
+        }
+        return SerializedPersistableFileTable.fromEmpty();
+    }
+
+    /**
+     * Loads the base and delta of the saved file-table into the file-table.
+     *
+     * @return position in the logs the saved file-table is consistent with, null if there is none that can be used
+     */
+    private LogPosition loadCheckpoint() throws IOException {
+        Files.deleteIfExists(Paths.get(folderPath, LEGACY_FILE_TABLE_FILE_NAME));
+        if (!checkpoint.isValid()) {
+            return null;
+        }
+
+        // Both implementations share the snapshot format
+        try {
+            LogPosition basePosition = FileTableSnapshot.readPosition(fileTablePath);
+            if (basePosition != null && logsReach(basePosition)) {
+                FileTableSnapshot.ExpiringEntryConsumer expiringEntries = (key, filePointer, expiresAt) ->
+                    expiryWheel.add(new ExpiringKey(key, filePointer, expiresAt), expiresAt);
+                PersistableFileTable savedFileTable = config.getFileTableType() == FileTableType.OFF_HEAP ?
+                    OffHeapPersistableFileTable.fromFile(fileTablePath, config.getReadThreads(), expiringEntries) :
+                    SerializedPersistableFileTable.fromFile(fileTablePath, config.getReadThreads(), expiringEntries);
+                LogPosition position = checkpoint.replayDelta(savedFileTable, basePosition, expiringEntries);
+                if (logsReach(position)) {
+                    fileTable = savedFileTable;
+                    return position;
+                }
+            }
+            logger.warning("Ignoring file-table that does not match the logs, recovering from logs");
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Ignoring invalid file-table, recovering from logs", e);
+        }
+        checkpoint.invalidate();
+        return null;
+    }
+
+    /**
+     * Whether the logs hold everything up to a position, a crash of the machine may have cut off unforced writes.
+     */
+    private boolean logsReach(LogPosition position) throws IOException {
+        RandomAccessLog log = logTable.get(position.getLogId());
+        return log != null && log.size() >= position.getOffset();
+    }
+
+    private void trackChanges() {
+        scheduledExpiries.clear();
+        if (config.getCheckpointIntervalMillis() > 0) {
+            changeTrackingFileTable = new ChangeTrackingFileTable(fileTable);
+            fileTable = changeTrackingFileTable;
+        } else {
+            changeTrackingFileTable = null;
+        }
+    }
+
+    /**
+     * Recovers the file-table from the logs written from {@code position} on, or from all logs if it is null.
+     * <p>
+     * Each log is read by its own task on the read threads into the newest entry of each of its keys. The entries of
+     * the logs are then applied in log order, so that newer logs override older ones.
+     *
+     * @param droppedBytes receives the bytes of incomplete records cut off the end of logs, by log id
+     * @return number of logs replayed
+     */
+    private int recoverFromLogs(List<ReferenceCountedLog> logs, LogPosition position,
+        Map<Integer, Long> droppedBytes) throws IOException {
+        List<Future<LogEntries>> futures = new ArrayList<>(logs.size());
+        for (ReferenceCountedLog log : logs) {
+            if (position != null && log.getLogId() < position.getLogId()) {
+                continue;
+            }
+            long offset = position != null && log.getLogId() == position.getLogId() ?
+                position.getOffset() : log.getFormat().getLogHeaderLength();
+            futures.add(readExecutor.submit(() -> readLogEntries(log, offset)));
+        }
+
+        for (Future<LogEntries> future : futures) {
+            LogEntries entries = awaitRead(future);
+            for (RecoveredEntry entry : entries.entries.values()) {
+                recoverSegment(entry.key, entry.filePointer, entry.tombstone, entry.expiresAt);
+            }
+            RandomAccessLog log = entries.log;
+            long size = log.size();
+            if (entries.validSize < size) {
+                // A crash interrupted the last write, drop it so that appends follow complete records
+                logger.warning("Truncating " + (size - entries.validSize) + " bytes of incomplete records at "
+                    + entries.validSize + " of " + log.getFilePath());
+                log.truncate(entries.validSize);
+                droppedBytes.put(log.getLogId(), size - entries.validSize);
+            }
+        }
+        return futures.size();
+    }
+
+    /**
+     * Reads the newest entry of each key of a log, from its hint file if it has one. Only the active log has none
+     * and is scanned from {@code offset}, replaying a sealed log from its start is harmless. Records after the first
+     * invalid one are reported to be dropped.
+     */
+    private LogEntries readLogEntries(ReferenceCountedLog log, long offset) throws IOException {
+        LogEntries entries = new LogEntries(log);
+        if (log == activeLog) {
+            entries.validSize = scanValidPrefix(log, offset, (segment, segmentOffset) -> entries.accept(
+                segment.getKey(), new FilePointer(log.getLogId(), segmentOffset, segment.getBytes().length),
+                segment.isTombstone(), segment.getExpiresAt()));
+        } else if (!loadHintFile(log, entries)) {
+            // A sealed log may have been cut short as well, by a crash of the machine before it was forced
+            entries.validSize = writeHintFile(log, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Saves the file-table as of the current end of the active log, see {@link FileTableCheckpoint}.
+     *
+     * @param fold whether to save the whole file-table rather than the keys changed since the last checkpoint
+     */
+    private void checkpoint(boolean fold) throws IOException {
+        LogPosition position;
+        Set<ByteBuffer> changedKeys;
+        List<ExpiringKey> expiringKeys = new ArrayList<>();
+        // The committer applies appended segments to the file-table before it releases the lock
+        writeLock.lock();
+        try {
+            position = new LogPosition(activeLog.getLogId(), activeLog.size());
+            ChangeTrackingFileTable tracker = changeTrackingFileTable;
+            changedKeys = tracker == null ? Collections.emptySet() : tracker.drainChangedKeys();
+            for (ExpiringKey expiringKey = scheduledExpiries.poll(); expiringKey != null;
+                 expiringKey = scheduledExpiries.poll()) {
+                expiringKeys.add(expiringKey);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (fold || checkpoint.needsFold()) {
+            // Everything scheduled up to the position is on the wheel
+            List<ExpiringKey> scheduled = new ArrayList<>();
+            expiryWheel.forEach(scheduled::add);
+            checkpoint.fold(fileTable, position, expiryLookup(scheduled));
+        } else {
+            // Compaction may move a key before its expiry is scheduled again, save it with the next batch then
+            for (ExpiringKey expiringKey : expiringKeys) {
+                changedKeys.add(ByteBuffer.wrap(expiringKey.key));
+            }
+            checkpoint.checkpoint(fileTable, changedKeys, expiryLookup(expiringKeys), position);
+        }
+    }
+
+    /**
+     * Forces the logs the file-table may point into past the position, before a checkpoint that saved their
+     * file-pointers is committed.
+     */
+    private void forceLogsSince(LogPosition position) throws IOException {
+        for (ReferenceCountedLog log : logTable.values()) {
+            // Logs that are closed meanwhile were replaced by compaction, which forced their replacement
+            if (log.getLogId() >= position.getLogId() && log.retain()) {
+                try {
+                    log.force();
+                } finally {
+                    log.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the expiry of keys that still point to the file-pointer they were scheduled with.
+     */
+    private ExpiryLookup expiryLookup(List<ExpiringKey> expiringKeys) {
+        Map<ByteBuffer, ExpiringKey> current = new HashMap<>();
+        for (ExpiringKey expiringKey : expiringKeys) {
+            if (expiringKey.filePointer.equals(fileTable.get(expiringKey.key))) {
+                current.put(ByteBuffer.wrap(expiringKey.key), expiringKey);
+            }
+        }
+        if (current.isEmpty()) {
+            return ExpiryLookup.NONE;
+        }
+        return (key, logIdAndLength, offset) -> {
+            ExpiringKey expiringKey = current.get(ByteBuffer.wrap(key));
+            return expiringKey != null && expiringKey.filePointer.packLogIdAndLength() == logIdAndLength
+                && expiringKey.filePointer.getOffset() == offset ? expiringKey.expiresAt : 0;
+        };
+    }
+
+    private void checkpointInBackground(boolean fold) {
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    checkpoint(fold);
+                } catch (IOException | RuntimeException e) {
+                    // The next checkpoint saves the whole file-table instead
+                    logger.log(Level.WARNING, "Failed to checkpoint file-table", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopping, which saves the whole file-table
+        }
+    }
+
+    private boolean loadHintFile(RandomAccessLog log, RecoveryConsumer consumer) {
+        String hintFilePath = HintFile.getHintFilePath(log.getFilePath());
+        if (!Files.exists(Paths.get(hintFilePath))) {
+            return false;
+        }
+
+        // Collect first, so that a corrupt hint file leaves the file-table untouched
+        List<byte[]> keys = new ArrayList<>();
+        List<FilePointer> filePointers = new ArrayList<>();
+        BitSet tombstones = new BitSet();
+        List<Long> expiries = new ArrayList<>();
+        int logId = log.getLogId();
+        try {
+            HintFile.read(hintFilePath, logId, (key, offset, size, tombstone, expiresAt) -> {
+                tombstones.set(keys.size(), tombstone);
+                expiries.add(expiresAt);
+                keys.add(key);
+                filePointers.add(new FilePointer(logId, offset, size));
+            });
+        } catch (IOException | InvalidHintFileException e) {
+            logger.log(Level.WARNING, "Ignoring invalid hint file " + hintFilePath, e);
+            return false;
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            consumer.accept(keys.get(i), filePointers.get(i), tombstones.get(i), expiries.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * @param expiresAt expiry of the value in epoch milliseconds, or 0 if it does not expire
+     */
+    private void recoverSegment(byte[] key, FilePointer filePointer, boolean tombstone, long expiresAt) {
+        // A value that expired shadows older values of the key like a tombstone
+        if (tombstone || (expiresAt != 0 && expiresAt <= System.currentTimeMillis())) {
+            fileTable.remove(key);
+        } else {
+            fileTable.put(key, filePointer);
+            if (expiresAt != 0) {
+                scheduleExpiry(key, filePointer, expiresAt);
+            }
+        }
+    }
+
+    /**
+     * Scans a sealed log, writes its hint file and optionally passes the segments to a consumer.
+     *
+     * @return size of the valid records, the hint file covers only those
+     */
+    private long writeHintFile(RandomAccessLog log, RecoveryConsumer consumer) throws IOException {
+        try (HintFile.Writer hintWriter = HintFile.create(HintFile.getHintFilePath(log.getFilePath()),
+            log.getLogId())) {
+            long validSize = scanValidPrefix(log, (segment, offset) -> {
+                byte[] key = segment.getKey();
+                int size = segment.getBytes().length;
+                if (segment.isTombstone()) {
+                    hintWriter.appendTombstone(key, offset, size);
+                } else if (segment.hasExpiry()) {
+                    hintWriter.appendExpiring(key, offset, size, segment.getExpiresAt());
+                } else {
+                    hintWriter.append(key, offset, size);
+                }
+                if (consumer != null) {
+                    consumer.accept(key, new FilePointer(log.getLogId(), offset, size), segment.isTombstone(),
+                        segment.getExpiresAt());
+                }
+            });
+            hintWriter.commit();
+            return validSize;
+        }
+    }
+
+    private void scanLog(RandomAccessLog log, SegmentConsumer consumer) throws IOException {
+        if (scanValidPrefix(log, consumer) < log.size()) {
+            throw new InvalidRangeException("Segment is invalid");
+        }
+    }
+
+    /**
+     * Passes the key-value segments of a log to the consumer, those of a batch one by one, up to the first record
+     * that is not valid.
+     *
+     * @return size of the valid records
+     */
+    private long scanValidPrefix(RandomAccessLog log, SegmentConsumer consumer) throws IOException {
+        return scanValidPrefix(log, log.getFormat().getLogHeaderLength(), consumer);
+    }
+
+    private long scanValidPrefix(RandomAccessLog log, long offset, SegmentConsumer consumer) throws IOException {
+        SegmentFormat format = log.getFormat();
+        long size = log.size();
+        while (offset < size) {
+            Segment segment;
+            try {
+                segment = log.readSegment(offset);
+            } catch (InvalidRangeException e) {
+                return offset;
+            }
+            if (segment.isBatch()) {
+                long batchOffset = offset + format.getExtendedHeaderLength();
+                for (Segment batchSegment : segment.getBatchSegments()) {
+                    consumer.accept(batchSegment, batchOffset);
+                    batchOffset += batchSegment.getBytes().length;
+                }
+            } else {
+                consumer.accept(segment, offset);
+            }
+            offset += segment.getBytes().length;
+        }
+        return offset;
+    }
+
+    private void sealLog(ReferenceCountedLog log) {
+        backgroundExecutor.execute(() -> {
+            if (logTable.get(log.getLogId()) != log) {
+                // Already replaced by compaction, which wrote the hint file
+                return;
+            }
+            try {
+                writeHintFile(log, null);
+            } catch (IOException | RuntimeException e) {
+                // The log is scanned on the next start instead
+                logger.log(Level.WARNING, "Failed to write hint file for " + log.getFilePath(), e);
+            }
+        });
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warning("Waiting for " + executor + " to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void set(byte[] key, byte[] value) throws IOException {
+        GroupCommitWriter.await(setAsync(key, value));
+    }
+
+    /**
+     * Queues a set for the next group commit, the future completes once it is committed.
+     */
+    CompletableFuture<Void> setAsync(byte[] key, byte[] value) {
         if (!isStarted) {
             throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
         }
+        Segment.checkKey(key);
 
-        // Append to active log
-        Segment segment = Segment.fromKeyValuePair(key, value);
-        FilePointer filePointer = activeLog.append(segment.getBytes());
-        fileTable.put(key, filePointer);
+        // Queue for the next group commit to the active log
+        long startNanos = System.nanoTime();
+        Segment segment = newSegment(key, value, 0);
+        return writer.submit(segment.getBytes(), filePointer -> {
+            putFilePointer(key, filePointer);
+            metrics.recordSet(System.nanoTime() - startNanos);
+            ValueCache cache = valueCache;
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+        });
+    }
 
-        // Check if compaction is needed
-        if (activeLog.size() > MAX_LOG_SIZE) {
-            moveToNewActiveLog();
+    /**
+     * Sets a value that is absent once {@code ttl} has passed. Its expiry is stored in the segment, and the key is
+     * evicted from the file-table by a timing wheel shortly after.
+     */
+    public void set(byte[] key, byte[] value, Duration ttl) throws IOException {
+        GroupCommitWriter.await(setAsync(key, value, ttl));
+    }
+
+    CompletableFuture<Void> setAsync(byte[] key, byte[] value, Duration ttl) {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive.");
+        }
+        Segment.checkKey(key);
+
+        long startNanos = System.nanoTime();
+        long expiresAt = System.currentTimeMillis() + ttl.toMillis();
+        Segment segment = newSegment(key, value, expiresAt);
+        return writer.submit(segment.getBytes(), filePointer -> {
+            putFilePointer(key, filePointer);
+            metrics.recordSet(System.nanoTime() - startNanos);
+            ValueCache cache = valueCache;
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            scheduleExpiry(key, filePointer, expiresAt);
+        });
+    }
+
+    private void scheduleExpiry(byte[] key, FilePointer filePointer, long expiresAt) {
+        ExpiringKey expiringKey = new ExpiringKey(key, filePointer, expiresAt);
+        expiryWheel.add(expiringKey, expiresAt);
+        if (changeTrackingFileTable != null) {
+            scheduledExpiries.add(expiringKey);
+        }
+    }
+
+    private void putFilePointer(byte[] key, FilePointer filePointer) {
+        liveBytesTable.subtract(fileTable.put(key, filePointer));
+        liveBytesTable.add(filePointer);
+    }
+
+    /**
+     * Removes a key only if it still points to the file-pointer.
+     */
+    private boolean removeFilePointer(byte[] key, FilePointer filePointer) {
+        if (fileTable.remove(key, filePointer)) {
+            liveBytesTable.subtract(filePointer);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the segment of a value, compressed if it is large enough and compression pays off.
+     *
+     * @param expiresAt expiry in epoch milliseconds, or 0 if the value does not expire
+     */
+    private Segment newSegment(byte[] key, byte[] value, long expiresAt) {
+        Codec codec = config.getCompressionCodec();
+        if (codec != null && value.length >= config.getCompressionThreshold()) {
+            Segment compressed = Segment.fromCompressedKeyValuePair(key, value, expiresAt, codec,
+                SegmentFormat.LATEST);
+            // Values that do not compress are stored as they are, so that reads skip decompressing them
+            if (compressed.getBytes().length < SegmentFormat.LATEST.getExtendedHeaderLength() + value.length) {
+                return compressed;
+            }
+        }
+        if (expiresAt != 0) {
+            return Segment.fromExpiringKeyValuePair(key, value, expiresAt, SegmentFormat.LATEST);
+        }
+        return Segment.fromKeyValuePair(key, value, SegmentFormat.LATEST);
+    }
+
+    private void expireKeys() {
+        try {
+            for (ExpiringKey expiringKey : expiryWheel.advance(System.currentTimeMillis())) {
+                // Skip keys that were overwritten or moved by compaction meanwhile
+                removeFilePointer(expiringKey.key, expiringKey.filePointer);
+            }
+        } catch (RuntimeException e) {
+            // Keep the task scheduled, expired keys are still absent for readers
+            logger.log(Level.WARNING, "Failed to evict expired keys", e);
+        }
+    }
+
+    /**
+     * Deletes a key by writing a tombstone, which shadows older values of the key until compaction drops both.
+     */
+    public void delete(byte[] key) throws IOException {
+        GroupCommitWriter.await(deleteAsync(key));
+    }
+
+    CompletableFuture<Void> deleteAsync(byte[] key) {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+        Segment.checkKey(key);
+
+        // Written even if the key is not found, a sealed log may still hold a value that compaction copies later
+        long startNanos = System.nanoTime();
+        Segment segment = Segment.fromDeletedKey(key, SegmentFormat.LATEST);
+        return writer.submit(segment.getBytes(), filePointer -> {
+            liveBytesTable.subtract(fileTable.remove(key));
+            metrics.recordSet(System.nanoTime() - startNanos);
+            ValueCache cache = valueCache;
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+        });
+    }
+
+    /**
+     * Writes all puts and deletes of a batch as one record, they become visible together once it is appended.
+     */
+    public void write(WriteBatch batch) throws IOException {
+        GroupCommitWriter.await(writeAsync(batch));
+    }
+
+    CompletableFuture<Void> writeAsync(WriteBatch batch) {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
         }
+        long startNanos = System.nanoTime();
+        // The batch may be reused before the record is committed
+        List<Segment> segments = new ArrayList<>(batch.size());
+        Codec codec = config.getCompressionCodec();
+        for (Segment segment : batch.getSegments()) {
+            boolean compress = codec != null && !segment.isExtended()
+                && segment.getValueSize() >= config.getCompressionThreshold();
+            segments.add(compress ? newSegment(segment.getKey(), segment.getValue(), 0) : segment);
+        }
+        if (segments.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Segment record = Segment.fromBatch(segments, SegmentFormat.LATEST);
+        return writer.submit(record.getBytes(), recordPointer -> {
+            long offset = recordPointer.getOffset() + SegmentFormat.LATEST.getExtendedHeaderLength();
+            long stamp = batchLock.writeLock();
+            try {
+                for (Segment segment : segments) {
+                    int length = segment.getBytes().length;
+                    if (segment.isTombstone()) {
+                        liveBytesTable.subtract(fileTable.remove(segment.getKey()));
+                    } else {
+                        putFilePointer(segment.getKey(), new FilePointer(recordPointer.getLogId(), offset, length));
+                    }
+                    offset += length;
+                }
+            } finally {
+                batchLock.unlockWrite(stamp);
+            }
+            metrics.recordSet(System.nanoTime() - startNanos);
+            ValueCache cache = valueCache;
+            if (cache != null) {
+                for (Segment segment : segments) {
+                    cache.invalidate(segment.getKey());
+                }
+            }
+        });
     }
 
     private void moveToNewActiveLog() throws IOException {
         // Create a new log
         int nextActiveLogId = activeLog == null ? 1 : activeLog.getLogId() + 1;
-        RandomAccessLog nextActiveLog = new FileChannelRandomAccessLog(folderPath + "/" + nextActiveLogId + ".log");
-        // Update logMap
-        logMap.put(nextActiveLogId, nextActiveLog);
+        ReferenceCountedLog nextActiveLog = new ReferenceCountedLog(openLog(getLogFilePath(nextActiveLogId)));
+        if (nextActiveLog.size() == 0) {
+            nextActiveLog.writeHeader(SegmentFormat.LATEST);
+        }
+        // A leftover hint file of an orphaned log must not be mistaken for this one
+        Files.deleteIfExists(Paths.get(HintFile.getHintFilePath(nextActiveLog.getFilePath())));
+        // Update logTable
+        logTable.put(nextActiveLogId, nextActiveLog);
         activeLog = nextActiveLog;
     }
 
+    private RandomAccessLog openLog(String filePath) throws IOException {
+        if (config.getLogType() == LogType.MAPPED) {
+            return new MappedRandomAccessLog(filePath);
+        }
+        return new FileChannelRandomAccessLog(filePath);
+    }
+
+    private String getLogFilePath(int logId) {
+        return folderPath + "/" + logId + LOG_EXTENSION;
+    }
+
     public byte[] get(byte[] key) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            return requireFound(getIfPresent(key));
+        } finally {
+            metrics.recordGet(System.nanoTime() - startNanos);
+        }
+    }
+
+    private byte[] getIfPresent(byte[] key) throws IOException {
+        byte[] cachedValue = getCachedValue(key);
+        if (cachedValue != null) {
+            // The cached array is shared
+            return cachedValue.clone();
+        }
+
+        return readFromLog(key, (log, filePointer) -> readValue(log, filePointer, key));
+    }
+
+    /**
+     * @return the value of the segment at the file-pointer, decompressed, or null if it does not hold the key or it
+     * expired
+     */
+    private byte[] readValue(RandomAccessLog log, FilePointer filePointer, byte[] key) throws IOException {
+        Segment segment = log.readSegment(filePointer.getOffset(), filePointer.getLength());
+        if (!Arrays.equals(segment.getKey(), key)) {
+            return null;
+        }
+        if (segment.isExpired(System.currentTimeMillis())) {
+            // Not evicted yet, the retry finds the key absent
+            removeFilePointer(key, filePointer);
+            return null;
+        }
+        byte[] value = segment.getValue();
+        if (!segment.hasExpiry()) {
+            // Cached values are not checked for expiry
+            cacheValue(key, filePointer, value);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the values of several keys at once.
+     * <p>
+     * File-pointers are resolved first, together with respect to write batches. Segments are then read per log in
+     * offset order, with segments close to each other merged into one read, and different logs read in parallel.
+     *
+     * @return values in the order of {@code keys}, empty for keys that are not found
+     */
+    public List<Optional<byte[]>> multiGet(List<byte[]> keys) throws IOException {
         if (!isStarted) {
             throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
         }
 
-        // Get file-pointer from file-table
-        FilePointer filePointer = fileTable.get(key);
-        if (filePointer == null) {
+        FilePointer[] filePointers = resolveFilePointers(keys);
+        byte[][] values = new byte[keys.size()][];
+        Map<Integer, List<Integer>> indicesByLogId = new HashMap<>();
+        ValueCache cache = valueCache;
+        for (int i = 0; i < filePointers.length; i++) {
+            FilePointer filePointer = filePointers[i];
+            if (filePointer == null) {
+                continue;
+            }
+            byte[] cachedValue = cache == null ? null : cache.get(keys.get(i), filePointer);
+            if (cachedValue != null) {
+                values[i] = cachedValue.clone();
+            } else {
+                indicesByLogId.computeIfAbsent(filePointer.getLogId(), logId -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Read other logs in parallel while the calling thread reads the first one
+        List<Future<Void>> futures = new ArrayList<>();
+        List<Integer> firstIndices = null;
+        for (List<Integer> indices : indicesByLogId.values()) {
+            if (firstIndices == null) {
+                firstIndices = indices;
+            } else {
+                futures.add(readExecutor.submit(() -> {
+                    readValues(keys, filePointers, indices, values);
+                    return null;
+                }));
+            }
+        }
+        if (firstIndices != null) {
+            readValues(keys, filePointers, firstIndices, values);
+        }
+        for (Future<Void> future : futures) {
+            awaitRead(future);
+        }
+
+        List<Optional<byte[]>> result = new ArrayList<>(values.length);
+        for (byte[] value : values) {
+            result.add(Optional.ofNullable(value));
+        }
+        return result;
+    }
+
+    private FilePointer[] resolveFilePointers(List<byte[]> keys) {
+        FilePointer[] filePointers = new FilePointer[keys.size()];
+        long stamp = batchLock.tryOptimisticRead();
+        for (int i = 0; i < filePointers.length; i++) {
+            filePointers[i] = fileTable.get(keys.get(i));
+        }
+        if (!batchLock.validate(stamp)) {
+            // A batch was applied meanwhile
+            stamp = batchLock.readLock();
+            try {
+                for (int i = 0; i < filePointers.length; i++) {
+                    filePointers[i] = fileTable.get(keys.get(i));
+                }
+            } finally {
+                batchLock.unlockRead(stamp);
+            }
+        }
+        return filePointers;
+    }
+
+    /**
+     * Reads the values of keys whose file-pointers point into the same log.
+     */
+    private void readValues(List<byte[]> keys, FilePointer[] filePointers, List<Integer> indices, byte[][] values)
+        throws IOException {
+        indices.sort(Comparator.comparingLong(index -> filePointers[index].getOffset()));
+        List<Integer> unresolved = new ArrayList<>();
+        ReferenceCountedLog log = logTable.get(filePointers[indices.get(0)].getLogId());
+        if (log == null || !log.retain()) {
+            unresolved.addAll(indices);
+        } else {
+            try {
+                int runStart = 0;
+                while (runStart < indices.size()) {
+                    // Merge segments close to each other into one read
+                    FilePointer first = filePointers[indices.get(runStart)];
+                    long runOffset = first.getOffset();
+                    long runEnd = runOffset + first.getLength();
+                    int runEndIndex = runStart + 1;
+                    while (runEndIndex < indices.size()) {
+                        FilePointer next = filePointers[indices.get(runEndIndex)];
+                        long nextEnd = next.getOffset() + next.getLength();
+                        if (next.getOffset() - runEnd > MULTI_GET_MAX_GAP || nextEnd - runOffset > MULTI_GET_MAX_READ) {
+                            break;
+                        }
+                        runEnd = Math.max(runEnd, nextEnd);
+                        runEndIndex++;
+                    }
+
+                    byte[] run;
+                    try {
+                        run = log.read(runOffset, runEnd - runOffset);
+                    } catch (InvalidRangeException e) {
+                        run = null;
+                    }
+                    for (int i = runStart; i < runEndIndex; i++) {
+                        int index = indices.get(i);
+                        FilePointer filePointer = filePointers[index];
+                        byte[] value = run == null ? null : valueAt(run, (int) (filePointer.getOffset() - runOffset),
+                            filePointer, keys.get(index), log.getFormat());
+                        if (value == null) {
+                            unresolved.add(index);
+                        } else {
+                            values[index] = value;
+                            cacheValue(keys.get(index), filePointer, value);
+                        }
+                    }
+                    runStart = runEndIndex;
+                }
+            } finally {
+                log.release();
+            }
+        }
+
+        // Moved by compaction meanwhile, read one by one
+        for (int index : unresolved) {
+            values[index] = getIfPresent(keys.get(index));
+        }
+    }
+
+    /**
+     * @return the value of the segment at {@code start} of {@code run}, or null if it is not a valid segment of the
+     * key
+     */
+    private static byte[] valueAt(byte[] run, int start, FilePointer filePointer, byte[] key, SegmentFormat format) {
+        int length = filePointer.getLength();
+        ByteBuffer buffer = ByteBuffer.wrap(run);
+        int crcLength = format.getCrcLength();
+        int headerAndKeyLength = format.getHeaderLength() + key.length;
+        if (length < headerAndKeyLength
+            || (buffer.getShort(start + crcLength) & 0xFFFF) != key.length
+            || buffer.getInt(start + crcLength + Segment.KEY_SIZE_LENGTH) != length - headerAndKeyLength
+            || !Arrays.equals(run, start + format.getHeaderLength(), start + headerAndKeyLength, key, 0, key.length)) {
+            return null;
+        }
+
+        // Validate CRC
+        Checksum checksum = format.newChecksum();
+        checksum.update(run, start + crcLength, length - crcLength);
+        if (checksum.getValue() != format.getCrc(buffer, start)) {
+            return null;
+        }
+        return Arrays.copyOfRange(run, start + headerAndKeyLength, start + length);
+    }
+
+    private static <T> T awaitRead(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static <T> T requireFound(T result) {
+        if (result == null) {
             throw new IllegalArgumentException("Key not found.");
         }
+        return result;
+    }
+
+    /**
+     * Copies the value of a key into {@code destination} at its position and advances the position.
+     *
+     * @return size of the value
+     * @throws BufferOverflowException if the value does not fit into the remaining bytes of {@code destination}
+     */
+    public int get(byte[] key, ByteBuffer destination) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            return readInto(key, destination);
+        } finally {
+            metrics.recordGet(System.nanoTime() - startNanos);
+        }
+    }
+
+    private int readInto(byte[] key, ByteBuffer destination) throws IOException {
+        byte[] cachedValue = getCachedValue(key);
+        if (cachedValue != null) {
+            destination.put(cachedValue);
+            return cachedValue.length;
+        }
+
+        return requireFound(readFromLog(key, (log, filePointer) -> {
+            ByteBuffer headerAndKey = readHeaderAndKey(log, filePointer, key);
+            if (headerAndKey == COMPRESSED_SEGMENT) {
+                byte[] value = readValue(log, filePointer, key);
+                if (value == null) {
+                    return null;
+                }
+                destination.put(value);
+                return value.length;
+            }
+            if (headerAndKey == null) {
+                return null;
+            }
+            int valueSize = filePointer.getLength() - headerAndKey.limit();
+            if (destination.remaining() < valueSize) {
+                throw new BufferOverflowException();
+            }
+
+            // Read the value straight into the destination
+            int position = destination.position();
+            int limit = destination.limit();
+            destination.limit(position + valueSize);
+            try {
+                log.read(filePointer.getOffset() + headerAndKey.limit(), destination);
+            } finally {
+                destination.limit(limit);
+            }
+
+            // Validate CRC
+            SegmentFormat format = log.getFormat();
+            Checksum checksum = format.newChecksum();
+            checksum.update(headerAndKey.duplicate().position(format.getCrcLength()));
+            checksum.update(destination.duplicate().position(position).limit(position + valueSize));
+            if (checksum.getValue() != format.getCrc(headerAndKey, 0)) {
+                destination.position(position);
+                return null;
+            }
+            return valueSize;
+        }));
+    }
+
+    /**
+     * Writes the value of a key to {@code target} straight from the log file, e.g. with sendfile for sockets.
+     * <p>
+     * Header and key of the segment are checked, the value never enters the heap and is not checked against the CRC.
+     * Compressed values are the exception, they are read and decompressed on the heap first.
+     *
+     * @return size of the value
+     */
+    public int get(byte[] key, WritableByteChannel target) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            return transferTo(key, target);
+        } finally {
+            metrics.recordGet(System.nanoTime() - startNanos);
+        }
+    }
 
-        // Read from log
-        String filename = Paths.get(filePointer.getFileName()).getFileName().toString();
-        Integer logId = Integer.parseInt(filename.substring(0, filename.length() - 4));
-        RandomAccessLog log = logMap.get(logId);
-        Segment segment = log.readSegment(filePointer.getOffset());
-        return segment.getValue();
+    private int transferTo(byte[] key, WritableByteChannel target) throws IOException {
+        return requireFound(readFromLog(key, (log, filePointer) -> {
+            ByteBuffer headerAndKey = readHeaderAndKey(log, filePointer, key);
+            if (headerAndKey == COMPRESSED_SEGMENT) {
+                byte[] value = readValue(log, filePointer, key);
+                if (value == null) {
+                    return null;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(value);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                return value.length;
+            }
+            if (headerAndKey == null) {
+                return null;
+            }
+            int valueSize = filePointer.getLength() - headerAndKey.limit();
+            log.transferTo(filePointer.getOffset() + headerAndKey.limit(), valueSize, target);
+            return valueSize;
+        }));
     }
 
-    public synchronized void compaction() throws IOException {
+    /**
+     * Keys of the database as of this call, see {@link #entries()}.
+     */
+    public Stream<byte[]> keys() {
+        return stream(false, Segment::getKey);
+    }
+
+    /**
+     * Keys and values of the database as of this call, in no particular order.
+     * <p>
+     * The file-pointers of all keys are copied from a view of the file-table taken when this is called, writes only
+     * wait until the view is taken. Values are read lazily,
+     * log by log in offset order, so that a scan is sequential I/O. The stream can be split to read in parallel, and
+     * writes and compaction continue while it is consumed.
+     * <p>
+     * The stream must be closed once done, it keeps the logs it reads open until then.
+     */
+    public Stream<Map.Entry<byte[], byte[]>> entries() {
+        return stream(true, segment -> new AbstractMap.SimpleImmutableEntry<>(segment.getKey(), segment.getValue()));
+    }
+
+    private <T> Stream<T> stream(boolean readValues, Function<Segment, T> mapper) {
         if (!isStarted) {
             throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
         }
+        LogSnapshot snapshot = takeSnapshot();
+        return StreamSupport.stream(new SnapshotSpliterator<>(snapshot, readValues, mapper), false)
+            .onClose(snapshot::close);
+    }
 
-        closeAllLogMapsIfOpen();
+    private LogSnapshot takeSnapshot() {
+        // Writes change the file-table under the write lock, compaction moves file-pointers under the relocation lock.
+        // Both only wait until the view is taken and its logs are retained, it is visited after.
+        long takenAtMillis;
+        FileTableView view;
+        List<ReferenceCountedLog> logs = new ArrayList<>();
+        writeLock.lock();
+        relocationLock.lock();
+        try {
+            takenAtMillis = System.currentTimeMillis();
+            view = fileTable.view();
+            for (ReferenceCountedLog log : logTable.values()) {
+                // A log that is closed meanwhile was replaced by compaction, the view points into its replacement
+                if (log.retain()) {
+                    logs.add(log);
+                }
+            }
+        } finally {
+            relocationLock.unlock();
+            writeLock.unlock();
+        }
 
-        // Iterate over all log files in descending order
-        List<RandomAccessLog> logs = getRandomAccessLogsFromDir(folderPath);
+        try (view) {
+            int[] size = {0};
+            int[][] logIds = {new int[fileTable.size() + 16]};
+            long[][] offsets = {new long[logIds[0].length]};
+            view.forEach(filePointer -> {
+                if (size[0] == logIds[0].length) {
+                    int capacity = size[0] + (size[0] >> 1);
+                    logIds[0] = Arrays.copyOf(logIds[0], capacity);
+                    offsets[0] = Arrays.copyOf(offsets[0], capacity);
+                }
+                logIds[0][size[0]] = filePointer.getLogId();
+                offsets[0][size[0]++] = filePointer.getOffset();
+            });
+            return groupByLog(logs, logIds[0], offsets[0], size[0], takenAtMillis);
+        } catch (RuntimeException e) {
+            for (ReferenceCountedLog log : logs) {
+                releaseQuietly(log);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sorts the offsets by log id with a counting sort, then by offset per log, and drops duplicates. Retained logs
+     * that hold none of the offsets are released.
+     *
+     * @param logs retained logs in ascending order of their ids
+     */
+    private LogSnapshot groupByLog(List<ReferenceCountedLog> logs, int[] logIds, long[] offsets, int size,
+        long takenAtMillis) {
+        int maxLogId = logs.isEmpty() ? 0 : logs.get(logs.size() - 1).getLogId();
+        int[] counts = new int[maxLogId + 1];
+        for (int i = 0; i < size; i++) {
+            if (logIds[i] <= maxLogId) {
+                counts[logIds[i]]++;
+            }
+        }
 
-        if (!logs.isEmpty()) {
-            // Set the last log as active log
-            activeLog = logs.get(0);
+        // File-pointers into logs that are not retained are left out, none should exist
+        List<ReferenceCountedLog> snapshotLogs = new ArrayList<>();
+        int[] positions = new int[maxLogId + 1];
+        Arrays.fill(positions, -1);
+        int[] starts = new int[logs.size() + 1];
+        int total = 0;
+        for (ReferenceCountedLog log : logs) {
+            if (counts[log.getLogId()] > 0) {
+                starts[snapshotLogs.size()] = total;
+                positions[log.getLogId()] = total;
+                total += counts[log.getLogId()];
+                snapshotLogs.add(log);
+            } else {
+                releaseQuietly(log);
+            }
         }
+        starts[snapshotLogs.size()] = total;
 
-        this.fileTable = SerializedPersistableFileTable.fromEmpty();
+        long[] sortedOffsets = new long[total];
+        for (int i = 0; i < size; i++) {
+            if (logIds[i] <= maxLogId && positions[logIds[i]] >= 0) {
+                sortedOffsets[positions[logIds[i]]++] = offsets[i];
+            }
+        }
 
-        // Create a new log
-        moveToNewActiveLog();
-        // Iterate over all logs
-        for (RandomAccessLog log : logs) {
-            // Iterate over all segments in the log
-            long offset = 0;
-
-            while (offset < log.size()) {
-                Segment segment = log.readSegment(offset);
-                offset += segment.getBytes().length;
-                // Append only if the key is not seen before
-                if (fileTable.get(segment.getKey()) != null) {
-                    continue;
+        // A view may visit a file-pointer twice, both visits are next to each other once sorted
+        int distinct = 0;
+        for (int i = 0; i < snapshotLogs.size(); i++) {
+            int start = starts[i];
+            Arrays.sort(sortedOffsets, start, starts[i + 1]);
+            starts[i] = distinct;
+            for (int j = start; j < starts[i + 1]; j++) {
+                if (j == start || sortedOffsets[j] != sortedOffsets[j - 1]) {
+                    sortedOffsets[distinct++] = sortedOffsets[j];
                 }
-                // Append to new log
-                FilePointer filePointer = activeLog.append(segment.getBytes());
-                fileTable.put(segment.getKey(), filePointer);
             }
+        }
+        starts[snapshotLogs.size()] = distinct;
+
+        return new LogSnapshot(snapshotLogs.toArray(new ReferenceCountedLog[0]),
+            Arrays.copyOf(starts, snapshotLogs.size() + 1), Arrays.copyOf(sortedOffsets, distinct), takenAtMillis);
+    }
 
-            orphanizeLog(log);
+    private static void releaseQuietly(ReferenceCountedLog log) {
+        try {
+            log.release();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close " + log.getFilePath(), e);
         }
+    }
 
-        // update logmap
-        logMap.clear();
-        logMap.put(activeLog.getLogId(), activeLog);
-        // save file-table
-        fileTable.saveToDisk(fileTablePath);
+    /**
+     * How the file-table was recovered on the last start, null before the first one.
+     */
+    public RecoveryReport getRecoveryReport() {
+        return recoveryReport;
     }
 
-    private void closeAllLogMapsIfOpen() {
-        for (RandomAccessLog log : logMap.values()) {
+    /**
+     * Latencies, byte counts and file-table size since the database was started.
+     */
+    public FireflyMetrics getMetrics() {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+        Map<Integer, Long> liveBytesByLog = new HashMap<>();
+        Map<Integer, Long> deadBytesByLog = new HashMap<>();
+        for (ReferenceCountedLog log : logTable.values()) {
+            long liveBytes = liveBytesTable.get(log.getLogId());
             try {
+                deadBytesByLog.put(log.getLogId(), Math.max(0, log.size() - liveBytes));
+            } catch (IOException e) {
+                // Closed after compaction replaced it
+                continue;
+            }
+            liveBytesByLog.put(log.getLogId(), liveBytes);
+        }
+        return metrics.snapshot(fileTable.size(), fileTable.memoryUsage(), liveBytesByLog, deadBytesByLog);
+    }
+
+    /**
+     * Counters of the value cache, all zero when it is disabled.
+     */
+    public CacheStats getValueCacheStats() {
+        ValueCache cache = valueCache;
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private byte[] getCachedValue(byte[] key) {
+        ValueCache cache = valueCache;
+        if (cache == null) {
+            return null;
+        }
+        FilePointer filePointer = fileTable.get(key);
+        return filePointer == null ? null : cache.get(key, filePointer);
+    }
+
+    private void cacheValue(byte[] key, FilePointer filePointer, byte[] value) {
+        ValueCache cache = valueCache;
+        if (cache != null) {
+            cache.put(key, filePointer, value.clone());
+        }
+    }
+
+    /**
+     * Resolves the file-pointer of a key and reads its segment with {@code reader}, retrying while compaction moves
+     * the segment.
+     *
+     * @return the result of the reader, or null if the key is not found
+     */
+    private <T> T readFromLog(byte[] key, SegmentReader<T> reader) throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+
+        while (true) {
+            // Get file-pointer from file-table
+            FilePointer filePointer = fileTable.get(key);
+            if (filePointer == null) {
+                return null;
+            }
+
+            // Read from log
+            int logId = filePointer.getLogId();
+            ReferenceCountedLog log = logTable.get(logId);
+            if (log != null && log.retain()) {
+                try {
+                    T result = reader.read(log, filePointer);
+                    if (result != null) {
+                        return result;
+                    }
+                    if (!isBeingRelocated(key, filePointer, logId)) {
+                        throw new InvalidRangeException("Segment is invalid");
+                    }
+                } catch (RuntimeException e) {
+                    if (!isBeingRelocated(key, filePointer, logId)) {
+                        throw e;
+                    }
+                } finally {
+                    log.release();
+                }
+            }
+            // Compaction moves the segment, retry with the new file-pointer once it is done
+            awaitRelocation(logId);
+        }
+    }
+
+    private void awaitRelocation(int logId) {
+        if (logId == relocatingLogId) {
+            relocationLock.lock();
+            relocationLock.unlock();
+        }
+    }
+
+    /**
+     * Reads header and key of a segment into a buffer reused by the calling thread.
+     *
+     * @return the buffer with header and key up to its limit, {@link #COMPRESSED_SEGMENT} if the value needs to be
+     * decompressed, or null if the segment does not hold the key or it expired
+     */
+    private ByteBuffer readHeaderAndKey(RandomAccessLog log, FilePointer filePointer, byte[] key)
+        throws IOException {
+        SegmentFormat format = log.getFormat();
+        int headerLength = format.getHeaderLength();
+        if (filePointer.getLength() < headerLength + key.length) {
+            return null;
+        }
+        // Enough for the header of a value that expires, without reading past the segment
+        int readLength = Math.min(filePointer.getLength(), format.getExtendedHeaderLength()
+            + Segment.EXPIRES_AT_LENGTH + Segment.KEY_SIZE_LENGTH + key.length);
+        ByteBuffer buffer = headerBuffers.get();
+        if (buffer.capacity() < readLength) {
+            buffer = ByteBuffer.allocateDirect(readLength);
+            headerBuffers.set(buffer);
+        }
+        buffer.clear().limit(readLength);
+        log.read(filePointer.getOffset(), buffer);
+
+        int keySize = buffer.getShort(format.getCrcLength()) & 0xFFFF;
+        int keyOffset = headerLength;
+        if (keySize == 0) {
+            if ((buffer.get(headerLength) & Segment.COMPRESSED) != 0) {
+                return COMPRESSED_SEGMENT;
+            }
+            // Other extended segments pointed to by the file-table hold values that expire
+            int keySizeOffset = format.getExtendedHeaderLength() + Segment.EXPIRES_AT_LENGTH;
+            if ((buffer.get(headerLength) & Segment.EXPIRES) == 0
+                || readLength < keySizeOffset + Segment.KEY_SIZE_LENGTH + key.length) {
+                return null;
+            }
+            if (buffer.getLong(format.getExtendedHeaderLength()) <= System.currentTimeMillis()) {
+                // Not evicted yet, the retry finds the key absent
+                removeFilePointer(key, filePointer);
+                return null;
+            }
+            keySize = buffer.getShort(keySizeOffset) & 0xFFFF;
+            keyOffset = keySizeOffset + Segment.KEY_SIZE_LENGTH;
+        }
+        // Regular segments store the value size, extended ones the body size
+        int size = buffer.getInt(format.getCrcLength() + Segment.KEY_SIZE_LENGTH);
+        int sizeAfterHeader = filePointer.getLength() - headerLength;
+        int expectedSize = keyOffset == headerLength ? sizeAfterHeader - key.length : sizeAfterHeader;
+        if (keySize != key.length || size != expectedSize) {
+            return null;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(keyOffset + i) != key[i]) {
+                return null;
+            }
+        }
+        return buffer.limit(keyOffset + key.length);
+    }
+
+    private boolean isBeingRelocated(byte[] key, FilePointer filePointer, int logId) {
+        return logId == relocatingLogId || !filePointer.equals(fileTable.get(key));
+    }
+
+    /**
+     * Seals the active log and compacts all sealed logs.
+     * <p>
+     * Blocks the caller until compaction is done, reads and writes continue meanwhile.
+     */
+    public void compaction() throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+
+        writeLock.lock();
+        try {
+            if (activeLog.size() > activeLog.getFormat().getLogHeaderLength()) {
+                ReferenceCountedLog sealedLog = activeLog;
+                sealedLog.force();
+                moveToNewActiveLog();
+                sealLog(sealedLog);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        awaitCompaction(compactInBackground());
+    }
+
+    /**
+     * Compacts only the sealed logs picked by the compaction policy, see
+     * {@link FireflyConfig#setCompactionGarbageRatio(double)} and {@link FireflyConfig#setCompactionMaxLogs(int)}.
+     * <p>
+     * Blocks the caller until compaction is done. It also runs periodically on its own, see
+     * {@link FireflyConfig#setCompactionIntervalMillis(long)}.
+     */
+    public void compactGarbage() throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+        awaitCompaction(backgroundExecutor.submit(() -> {
+            compactGarbageLogs();
+            return null;
+        }));
+    }
+
+    private void compactGarbageInBackground() {
+        // Skip a round while the previous one is still queued or running
+        if (!garbageCompactionPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    compactGarbageLogs();
+                } catch (IOException | RuntimeException e) {
+                    // Retried on the next round
+                    logger.log(Level.WARNING, "Failed to compact logs", e);
+                } finally {
+                    garbageCompactionPending.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopping
+            garbageCompactionPending.set(false);
+        }
+    }
+
+    private static void awaitCompaction(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Schedules compaction of all sealed logs on the background thread.
+     */
+    public Future<Void> compactInBackground() {
+        if (!isStarted) {
+            throw new IllegalStateException(NOT_STARTED_ERROR_MESSAGE);
+        }
+        return backgroundExecutor.submit(() -> {
+            compactSealedLogs();
+            return null;
+        });
+    }
+
+    private void compactSealedLogs() throws IOException {
+        compactSealedLogs(sealedLogs(), log -> true);
+    }
+
+    /**
+     * Sealed logs in ascending order of their log id.
+     */
+    private List<ReferenceCountedLog> sealedLogs() {
+        int activeLogId = activeLog.getLogId();
+        List<ReferenceCountedLog> sealedLogs = new ArrayList<>();
+        for (ReferenceCountedLog log : logTable.values()) {
+            if (log.getLogId() < activeLogId) {
+                sealedLogs.add(log);
+            }
+        }
+        return sealedLogs;
+    }
+
+    private void compactGarbageLogs() throws IOException {
+        List<ReferenceCountedLog> sealedLogs = sealedLogs();
+        Set<Integer> pickedLogIds = pickLogsToCompact(sealedLogs);
+        if (!pickedLogIds.isEmpty()) {
+            compactSealedLogs(sealedLogs, log -> pickedLogIds.contains(log.getLogId()));
+        }
+    }
+
+    /**
+     * Picks the sealed logs whose reclaimable bytes make up at least the garbage ratio of their size, at most the
+     * configured number of them with the most reclaimable bytes.
+     * <p>
+     * Bytes are reclaimable unless the file-table points to them or they are the header of the log, which a compacted
+     * log has as well. Tombstones that compaction copied because an older log may hold a value of their key are not
+     * reclaimable either, otherwise such a log would be compacted again and again without shrinking.
+     */
+    private Set<Integer> pickLogsToCompact(List<ReferenceCountedLog> sealedLogs) throws IOException {
+        Map<Integer, Long> reclaimableBytes = new HashMap<>();
+        for (ReferenceCountedLog log : sealedLogs) {
+            long size = log.size();
+            long reclaimable = size - log.getFormat().getLogHeaderLength() - liveBytesTable.get(log.getLogId())
+                - keptTombstoneBytes.getOrDefault(log.getLogId(), 0L);
+            if (reclaimable > 0 && reclaimable >= size * config.getCompactionGarbageRatio()) {
+                reclaimableBytes.put(log.getLogId(), reclaimable);
+            }
+        }
+
+        List<Integer> logIds = new ArrayList<>(reclaimableBytes.keySet());
+        logIds.sort(Comparator.comparing(reclaimableBytes::get, Comparator.reverseOrder()));
+        int maxLogs = config.getCompactionMaxLogs();
+        if (maxLogs > 0 && logIds.size() > maxLogs) {
+            logIds = logIds.subList(0, maxLogs);
+        }
+        return new HashSet<>(logIds);
+    }
+
+    /**
+     * Compacts the picked logs among the sealed ones. Runs of picked logs that are next to each other are merged, as
+     * long as they fit into one log, so that logs that are not compacted keep their place in the order of the logs.
+     */
+    private void compactSealedLogs(List<ReferenceCountedLog> sealedLogs, Predicate<RandomAccessLog> picked)
+        throws IOException {
+        long startNanos = System.nanoTime();
+        long compactedBytes = 0;
+        long remainingBytes = 0;
+        List<ReferenceCountedLog> group = new ArrayList<>();
+        long groupSize = 0;
+        for (ReferenceCountedLog log : sealedLogs) {
+            long size = log.size();
+            boolean isPicked = picked.test(log);
+            if (!group.isEmpty() && (!isPicked || groupSize + size > config.getMaxLogSize())) {
+                remainingBytes += compactLogs(group);
+                group.clear();
+                groupSize = 0;
+            }
+            if (isPicked) {
+                group.add(log);
+                groupSize += size;
+                compactedBytes += size;
+            }
+        }
+        if (!group.isEmpty()) {
+            remainingBytes += compactLogs(group);
+        }
+        if (compactedBytes > 0) {
+            metrics.recordCompaction(System.nanoTime() - startNanos, compactedBytes, compactedBytes - remainingBytes);
+        }
+        if (!checkpoint.isValid()) {
+            checkpoint(true);
+        }
+    }
+
+    /**
+     * Copies the live segments of the given sealed logs into a single log that replaces the newest of them.
+     * <p>
+     * Taking the place of the newest log keeps the order of the logs intact for recovery: every copied segment is
+     * newer than anything left in older logs and older than anything in newer logs.
+     * <p>
+     * Values shadowed by a tombstone are not copied, and values that expired are replaced by a tombstone. The
+     * tombstone itself is only copied while an older log that may still hold a value of the key exists outside the
+     * compacted logs.
+     *
+     * @return size of the log that replaces them
+     */
+    private long compactLogs(List<ReferenceCountedLog> logs) throws IOException {
+        ReferenceCountedLog targetLog = logs.get(logs.size() - 1);
+        int targetLogId = targetLog.getLogId();
+        String targetPath = getLogFilePath(targetLogId);
+        Path compactedPath = Paths.get(folderPath,
+            logs.get(0).getLogId() + "-" + targetLogId + COMPACTION_EXTENSION);
+        Files.deleteIfExists(compactedPath);
+
+        // Old file-pointers of copied tombstones are null, expiries of values that do not expire are 0
+        List<byte[]> keys = new ArrayList<>();
+        List<FilePointer> oldFilePointers = new ArrayList<>();
+        List<FilePointer> newFilePointers = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        boolean keepTombstones = hasOlderLog(logs.get(0).getLogId());
+        Set<ByteBuffer> tombstoneKeys = new HashSet<>();
+        long now = System.currentTimeMillis();
+
+        RandomAccessLog compactedLog = new FileChannelRandomAccessLog(compactedPath.toString(), targetLogId);
+        long compactedSize;
+        long[] tombstoneBytes = {0};
+        try {
+            // Segments of older formats are upgraded on the way
+            compactedLog.writeHeader(SegmentFormat.LATEST);
+            List<byte[]> pending = new ArrayList<>();
+            long[] pendingSize = {0};
+            for (RandomAccessLog log : logs) {
+                scanLog(log, (segment, offset) -> {
+                    byte[] key = segment.getKey();
+                    FilePointer filePointer = new FilePointer(log.getLogId(), offset, segment.getBytes().length);
+                    byte[] bytes = segment.toFormat(SegmentFormat.LATEST).getBytes();
+                    if (segment.isTombstone() || segment.isExpired(now)) {
+                        // A value that expired shadows older values of the key like a tombstone
+                        if (!segment.isTombstone()) {
+                            removeFilePointer(key, filePointer);
+                            bytes = Segment.fromDeletedKey(key, SegmentFormat.LATEST).getBytes();
+                        }
+                        // Copy a tombstone once, unless the key was set again
+                        if (!keepTombstones || fileTable.get(key) != null
+                            || !tombstoneKeys.add(ByteBuffer.wrap(key))) {
+                            return;
+                        }
+                        filePointer = null;
+                        tombstoneBytes[0] += bytes.length;
+                    } else if (!filePointer.equals(fileTable.get(key))) {
+                        // Copy only segments the file-table still points to
+                        return;
+                    }
+                    keys.add(key);
+                    oldFilePointers.add(filePointer);
+                    expiries.add(filePointer == null ? 0 : segment.getExpiresAt());
+                    pending.add(bytes);
+                    pendingSize[0] += bytes.length;
+                    if (pendingSize[0] >= COMPACTION_BATCH_SIZE) {
+                        appendCompacted(compactedLog, pending, newFilePointers);
+                        pendingSize[0] = 0;
+                    }
+                });
+            }
+            appendCompacted(compactedLog, pending, newFilePointers);
+            compactedLog.force();
+            compactedSize = compactedLog.size();
+        } finally {
+            compactedLog.close();
+        }
+
+        // The saved file-table may point into the logs that are replaced, compactSealedLogs saves a new one
+        checkpoint.invalidate();
+
+        // Replace the logs on disk, old files stay readable until their last reader is done. The target goes first, so
+        // that a crash in between finishes the compaction on start. The other logs are gone before the compacted log
+        // is in place, it may lack tombstones that shadow their values.
+        Files.deleteIfExists(Paths.get(HintFile.getHintFilePath(targetPath)));
+        orphanizeLog(targetLog);
+        for (ReferenceCountedLog log : logs) {
+            if (log != targetLog) {
+                orphanizeLog(log);
+            }
+        }
+        syncFolder();
+        Files.move(compactedPath, Paths.get(targetPath), StandardCopyOption.ATOMIC_MOVE);
+
+        // Publish the new log before moving file-pointers to it
+        relocationLock.lock();
+        relocatingLogId = targetLogId;
+        try {
+            logTable.put(targetLogId, new ReferenceCountedLog(openLog(targetPath)));
+            for (int i = 0; i < keys.size(); i++) {
+                // Skip tombstones and keys that were overwritten meanwhile
+                FilePointer oldFilePointer = oldFilePointers.get(i);
+                FilePointer newFilePointer = newFilePointers.get(i);
+                if (oldFilePointer != null && fileTable.replace(keys.get(i), oldFilePointer, newFilePointer)) {
+                    liveBytesTable.subtract(oldFilePointer);
+                    liveBytesTable.add(newFilePointer);
+                    ValueCache cache = valueCache;
+                    if (cache != null) {
+                        cache.relocate(keys.get(i), oldFilePointer, newFilePointer);
+                    }
+                    if (expiries.get(i) != 0) {
+                        // The wheel only evicts the file-pointer it was given
+                        scheduleExpiry(keys.get(i), newFilePointer, expiries.get(i));
+                    }
+                }
+            }
+        } finally {
+            relocatingLogId = -1;
+            relocationLock.unlock();
+        }
+        keptTombstoneBytes.put(targetLogId, tombstoneBytes[0]);
+        targetLog.close();
+
+        try (HintFile.Writer hintWriter = HintFile.create(HintFile.getHintFilePath(targetPath), targetLogId)) {
+            for (int i = 0; i < keys.size(); i++) {
+                FilePointer filePointer = newFilePointers.get(i);
+                if (oldFilePointers.get(i) == null) {
+                    hintWriter.appendTombstone(keys.get(i), filePointer.getOffset(), filePointer.getLength());
+                } else if (expiries.get(i) != 0) {
+                    hintWriter.appendExpiring(keys.get(i), filePointer.getOffset(), filePointer.getLength(),
+                        expiries.get(i));
+                } else {
+                    hintWriter.append(keys.get(i), filePointer.getOffset(), filePointer.getLength());
+                }
+            }
+            hintWriter.commit();
+        }
+
+        for (ReferenceCountedLog log : logs) {
+            if (log != targetLog) {
+                logTable.remove(log.getLogId());
+                liveBytesTable.remove(log.getLogId());
+                keptTombstoneBytes.remove(log.getLogId());
                 log.close();
-            } catch (IOException ignored)  {
-                // Ignore
             }
         }
+        return compactedSize;
     }
 
-    private void orphanizeLog(RandomAccessLog log) throws IOException {
-        log.close();
-        // rename all stale logs and add underscore before file name
+    private boolean hasOlderLog(int logId) {
+        for (RandomAccessLog log : logTable.values()) {
+            if (log.getLogId() < logId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void appendCompacted(RandomAccessLog compactedLog, List<byte[]> segments, List<FilePointer> filePointers)
+        throws IOException {
+        if (segments.isEmpty()) {
+            return;
+        }
+        filePointers.addAll(compactedLog.append(segments));
+        segments.clear();
+    }
+
+    private void orphanizeLog(ReferenceCountedLog log) throws IOException {
+        // rename all stale logs and add underscore before file name, they are deleted once the last reader is done
         Path oldPath = Paths.get(log.getFilePath());
         Path dir = oldPath.getParent();
         Path newPath = Paths.get(dir.toString(), "_" + oldPath.getFileName().toString());
         Files.move(oldPath, newPath, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(Paths.get(HintFile.getHintFilePath(log.getFilePath())));
+        log.deleteOnRelease(newPath);
     }
 
-    private List<RandomAccessLog> getRandomAccessLogsFromDir(String dir) throws IOException {
-        List<RandomAccessLog> logs = new ArrayList<>();
+    private List<ReferenceCountedLog> getRandomAccessLogsFromDir(String dir) throws IOException {
+        List<ReferenceCountedLog> logs = new ArrayList<>();
         Files.walkFileTree(Paths.get(dir), new SimpleFileVisitor<>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
@@ -188,10 +1906,14 @@ public class FireflyDB {
                 String fileName = file.getFileName().toString();
                 if (fileName.endsWith(".log")) {
                     String fileNameWithoutExtension = fileName.substring(0, fileName.length() - 4);
-                    if (isNumeric(fileNameWithoutExtension)) {
+                    if (fileNameWithoutExtension.startsWith("_")
+                            && isNumeric(fileNameWithoutExtension.substring(1))) {
+                        // Left behind by a compaction that was interrupted before its readers were done
+                        Files.delete(file);
+                    } else if (isNumeric(fileNameWithoutExtension)) {
                         // Create a RandomAccessLog for each file
-                        RandomAccessLog log = new FileChannelRandomAccessLog(file.toString());
-                        // Add it to the logMap
+                        ReferenceCountedLog log = new ReferenceCountedLog(openLog(file.toString()));
+                        // Add it to the logTable
                         logs.add(log);
                     }
                 }
@@ -208,4 +1930,143 @@ public class FireflyDB {
         });
         return logs;
     }
+
+    private class ActiveLogCommitter implements GroupCommitWriter.Committer {
+        @Override
+        public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) throws IOException {
+            writeLock.lock();
+            try {
+                List<byte[]> records = new ArrayList<>(batch.size());
+                long bytes = 0;
+                for (GroupCommitWriter.PendingWrite pendingWrite : batch) {
+                    records.add(pendingWrite.getRecord());
+                    bytes += pendingWrite.getRecord().length;
+                }
+
+                // Append the whole batch with one gathered write
+                long sizeBefore = activeLog.size();
+                List<FilePointer> filePointers;
+                try {
+                    filePointers = activeLog.append(records);
+                    if (force) {
+                        activeLog.force();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    undoAppend(sizeBefore, e);
+                    throw e;
+                }
+                metrics.recordAppend(bytes);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).appended(filePointers.get(i));
+                }
+
+                // Check if compaction is needed
+                if (activeLog.size() > config.getMaxLogSize()) {
+                    if (config.getDurability() != Durability.NONE) {
+                        activeLog.force();
+                    }
+                    ReferenceCountedLog sealedLog = activeLog;
+                    moveToNewActiveLog();
+                    sealLog(sealedLog);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Cuts a failed batch off the active log, its writers are told it failed so it must not be recovered.
+         */
+        private void undoAppend(long size, Exception cause) throws GroupCommitWriter.UndoFailedException {
+            try {
+                activeLog.truncate(size);
+                activeLog.force();
+            } catch (IOException | RuntimeException e) {
+                cause.addSuppressed(e);
+                throw new GroupCommitWriter.UndoFailedException(cause);
+            }
+        }
+
+        @Override
+        public void force() throws IOException {
+            writeLock.lock();
+            try {
+                activeLog.force();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private static class ReadThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "firefly-read-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class ExpiringKey {
+        private final byte[] key;
+        private final FilePointer filePointer;
+        private final long expiresAt;
+
+        ExpiringKey(byte[] key, FilePointer filePointer, long expiresAt) {
+            this.key = key;
+            this.filePointer = filePointer;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private interface RecoveryConsumer {
+        void accept(byte[] key, FilePointer filePointer, boolean tombstone, long expiresAt);
+    }
+
+    private static final class RecoveredEntry {
+        private final byte[] key;
+        private final FilePointer filePointer;
+        private final boolean tombstone;
+        private final long expiresAt;
+
+        private RecoveredEntry(byte[] key, FilePointer filePointer, boolean tombstone, long expiresAt) {
+            this.key = key;
+            this.filePointer = filePointer;
+            this.tombstone = tombstone;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Newest entry of each key of one log, read while recovering.
+     */
+    private static final class LogEntries implements RecoveryConsumer {
+        private final RandomAccessLog log;
+        private final Map<ByteBuffer, RecoveredEntry> entries = new HashMap<>();
+        // Size of the valid records of the active log, sealed logs are valid as a whole
+        private long validSize = Long.MAX_VALUE;
+
+        private LogEntries(RandomAccessLog log) {
+            this.log = log;
+        }
+
+        @Override
+        public void accept(byte[] key, FilePointer filePointer, boolean tombstone, long expiresAt) {
+            // Entries are read in log order, a later one replaces an earlier one of the same key
+            entries.put(ByteBuffer.wrap(key), new RecoveredEntry(key, filePointer, tombstone, expiresAt));
+        }
+    }
+
+    private interface SegmentConsumer {
+        void accept(Segment segment, long offset) throws IOException;
+    }
+
+    private interface SegmentReader<T> {
+        /**
+         * @return the result, or null if the segment at the file-pointer does not hold the key
+         */
+        T read(RandomAccessLog log, FilePointer filePointer) throws IOException;
+    }
 }
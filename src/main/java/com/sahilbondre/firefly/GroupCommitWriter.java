@@ -0,0 +1,230 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent writes into batches.
+ * <p>
+ * Writers enqueue their records and wait. A single committer thread drains the queue, hands the whole batch to the
+ * {@link Committer} as one gathered append, forces it to disk as dictated by the {@link Durability} and then releases
+ * every waiter. Under load the cost of the write and fsync syscalls is shared by all records in the batch.
+ * <p>
+ * A failed batch fails all of its writes. If the committer could not take its records back out of the log, the writer
+ * fails every write after it as well.
+ */
+class GroupCommitWriter {
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final PendingWrite CLOSE = new PendingWrite(new byte[0], pointer -> {
+    });
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Object submitLock = new Object();
+    private final Committer committer;
+    private final Durability durability;
+    private final long fsyncIntervalNanos;
+    private final Thread thread;
+    private boolean running = true;
+    private volatile IOException failure;
+    private boolean dirty = false;
+    private long lastForce = System.nanoTime();
+
+    GroupCommitWriter(Committer committer, Durability durability, long fsyncIntervalMillis) {
+        this.committer = committer;
+        this.durability = durability;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.thread = new Thread(this::run, "firefly-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Waits for a submitted write to be committed.
+     */
+    static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for commit.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    CompletableFuture<Void> submit(byte[] record, Consumer<FilePointer> onAppended) {
+        PendingWrite pendingWrite = new PendingWrite(record, onAppended);
+        synchronized (submitLock) {
+            if (!running) {
+                throw new IllegalStateException("Writer is closed.");
+            }
+            queue.add(pendingWrite);
+        }
+        return pendingWrite.future;
+    }
+
+    void close() {
+        synchronized (submitLock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            queue.add(CLOSE);
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean closed = false;
+        while (!closed) {
+            PendingWrite first;
+            try {
+                first = nextWrite();
+            } catch (InterruptedException e) {
+                // Only close() stops the committer
+                continue;
+            }
+
+            if (first == null) {
+                // Interval elapsed without new writes
+                forceIfDirty();
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            if (batch.remove(CLOSE)) {
+                // Nothing can be queued after the close marker
+                closed = true;
+            }
+
+            if (!batch.isEmpty()) {
+                if (failure == null) {
+                    commit(batch);
+                } else {
+                    fail(batch, new IOException("Writer failed, a failed batch is left in the log.", failure));
+                }
+            }
+            batch.clear();
+        }
+        forceIfDirty();
+    }
+
+    private PendingWrite nextWrite() throws InterruptedException {
+        if (durability != Durability.INTERVAL || !dirty) {
+            return queue.take();
+        }
+        long waitNanos = lastForce + fsyncIntervalNanos - System.nanoTime();
+        return queue.poll(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        boolean force = durability == Durability.BATCH ||
+            (durability == Durability.INTERVAL && System.nanoTime() - lastForce >= fsyncIntervalNanos);
+        try {
+            committer.commit(batch, force);
+            if (force) {
+                lastForce = System.nanoTime();
+                dirty = false;
+            } else {
+                dirty = durability == Durability.INTERVAL;
+            }
+            for (PendingWrite pendingWrite : batch) {
+                pendingWrite.future.complete(null);
+            }
+        } catch (UndoFailedException e) {
+            failure = e;
+            fail(batch, e);
+        } catch (Exception e) {
+            fail(batch, e);
+        }
+    }
+
+    private static void fail(List<PendingWrite> batch, Exception e) {
+        for (PendingWrite pendingWrite : batch) {
+            pendingWrite.future.completeExceptionally(e);
+        }
+    }
+
+    private void forceIfDirty() {
+        if (!dirty || failure != null) {
+            return;
+        }
+        try {
+            committer.force();
+        } catch (IOException ignored) {
+            // The next batch retries the fsync
+            return;
+        }
+        lastForce = System.nanoTime();
+        dirty = false;
+    }
+
+    interface Committer {
+        /**
+         * Appends all records of the batch, forces them if asked to, and applies each record's index update.
+         * <p>
+         * If it fails, none of the records may be recovered later, so records that were appended are taken back out.
+         *
+         * @throws UndoFailedException if records that were appended could not be taken back out
+         */
+        void commit(List<PendingWrite> batch, boolean force) throws IOException;
+
+        void force() throws IOException;
+    }
+
+    /**
+     * Thrown by a committer that failed a batch and could not take its records back out of the log.
+     */
+    static class UndoFailedException extends IOException {
+        UndoFailedException(Throwable cause) {
+            super("Failed to take the records of a failed batch back out of the log.", cause);
+        }
+    }
+
+    static final class PendingWrite {
+        private final byte[] record;
+        private final Consumer<FilePointer> onAppended;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingWrite(byte[] record, Consumer<FilePointer> onAppended) {
+            this.record = record;
+            this.onAppended = onAppended;
+        }
+
+        byte[] getRecord() {
+            return record;
+        }
+
+        void appended(FilePointer filePointer) {
+            onAppended.accept(filePointer);
+        }
+    }
+}
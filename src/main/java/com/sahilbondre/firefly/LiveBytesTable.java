@@ -0,0 +1,103 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes of segments the file-table points to, by log id.
+ * <p>
+ * A file-pointer is added when the file-table starts pointing to it and subtracted when it stops, e.g. because the key
+ * was set again or deleted. Everything else in a log, its header included, is dead and reclaimed by compaction.
+ * <p>
+ * Like {@link LogTable}, counters are indexed by log id. Grown arrays share the counters of the old one, so that no
+ * concurrent update is lost.
+ */
+class LiveBytesTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile AtomicReferenceArray<LongAdder> liveBytes = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    void add(FilePointer filePointer) {
+        if (filePointer != null) {
+            counter(filePointer.getLogId()).add(filePointer.getLength());
+        }
+    }
+
+    void subtract(FilePointer filePointer) {
+        if (filePointer != null) {
+            counter(filePointer.getLogId()).add(-filePointer.getLength());
+        }
+    }
+
+    long get(int logId) {
+        AtomicReferenceArray<LongAdder> current = liveBytes;
+        if (logId < 0 || logId >= current.length()) {
+            return 0;
+        }
+        LongAdder counter = current.get(logId);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    synchronized void remove(int logId) {
+        AtomicReferenceArray<LongAdder> current = liveBytes;
+        if (logId >= 0 && logId < current.length()) {
+            current.set(logId, null);
+        }
+    }
+
+    synchronized void clear() {
+        liveBytes = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Live bytes of every log that has a counter, in ascending order of the log id.
+     */
+    Map<Integer, Long> values() {
+        AtomicReferenceArray<LongAdder> current = liveBytes;
+        Map<Integer, Long> values = new TreeMap<>();
+        for (int i = 0; i < current.length(); i++) {
+            LongAdder counter = current.get(i);
+            if (counter != null) {
+                values.put(i, counter.sum());
+            }
+        }
+        return values;
+    }
+
+    private LongAdder counter(int logId) {
+        AtomicReferenceArray<LongAdder> current = liveBytes;
+        if (logId < current.length()) {
+            LongAdder counter = current.get(logId);
+            if (counter != null) {
+                return counter;
+            }
+        }
+        return createCounter(logId);
+    }
+
+    private synchronized LongAdder createCounter(int logId) {
+        AtomicReferenceArray<LongAdder> current = liveBytes;
+        if (logId >= current.length()) {
+            int capacity = current.length();
+            while (capacity <= logId) {
+                capacity <<= 1;
+            }
+            AtomicReferenceArray<LongAdder> grown = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            liveBytes = grown;
+            current = grown;
+        }
+        LongAdder counter = current.get(logId);
+        if (counter == null) {
+            counter = new LongAdder();
+            current.set(logId, counter);
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.log.ReferenceCountedLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Offsets of all segments a file-table pointed to at one point in time, grouped by log and sorted by offset.
+ * <p>
+ * The logs are retained until the snapshot is closed, so that the segments stay readable even if compaction replaces
+ * their logs meanwhile.
+ */
+class LogSnapshot implements AutoCloseable {
+    private final ReferenceCountedLog[] logs;
+    // Offsets of the segments of logs[i] are offsets[starts[i]] to offsets[starts[i + 1] - 1]
+    private final int[] starts;
+    private final long[] offsets;
+    // Values that expired by then are not part of the snapshot
+    private final long takenAtMillis;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    LogSnapshot(ReferenceCountedLog[] logs, int[] starts, long[] offsets, long takenAtMillis) {
+        this.logs = logs;
+        this.starts = starts;
+        this.offsets = offsets;
+        this.takenAtMillis = takenAtMillis;
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    long offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Index into the logs of the log holding the segment at {@code index}.
+     */
+    int logIndex(int index) {
+        int low = 0;
+        int high = logs.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    ReferenceCountedLog log(int logIndex) {
+        return logs[logIndex];
+    }
+
+    /**
+     * Index of the first segment of the log after the given one.
+     */
+    int end(int logIndex) {
+        return starts[logIndex + 1];
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        IOException failure = null;
+        for (ReferenceCountedLog log : logs) {
+            try {
+                log.release();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.log.ReferenceCountedLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open logs indexed by their log id.
+ * <p>
+ * Log ids are small and increasing, so resolving a file-pointer is a plain array lookup. The array is replaced by a
+ * larger copy when a log id does not fit.
+ */
+class LogTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile AtomicReferenceArray<ReferenceCountedLog> logs = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    ReferenceCountedLog get(int logId) {
+        AtomicReferenceArray<ReferenceCountedLog> current = logs;
+        if (logId < 0 || logId >= current.length()) {
+            return null;
+        }
+        return current.get(logId);
+    }
+
+    synchronized ReferenceCountedLog put(int logId, ReferenceCountedLog log) {
+        AtomicReferenceArray<ReferenceCountedLog> current = logs;
+        if (logId >= current.length()) {
+            int capacity = current.length();
+            while (capacity <= logId) {
+                capacity <<= 1;
+            }
+            AtomicReferenceArray<ReferenceCountedLog> grown = new AtomicReferenceArray<>(capacity);
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            logs = grown;
+            current = grown;
+        }
+        return current.getAndSet(logId, log);
+    }
+
+    synchronized ReferenceCountedLog remove(int logId) {
+        AtomicReferenceArray<ReferenceCountedLog> current = logs;
+        if (logId < 0 || logId >= current.length()) {
+            return null;
+        }
+        return current.getAndSet(logId, null);
+    }
+
+    synchronized void clear() {
+        logs = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Open logs in ascending order of their log id.
+     */
+    List<ReferenceCountedLog> values() {
+        AtomicReferenceArray<ReferenceCountedLog> current = logs;
+        List<ReferenceCountedLog> values = new ArrayList<>();
+        for (int i = 0; i < current.length(); i++) {
+            ReferenceCountedLog log = current.get(i);
+            if (log != null) {
+                values.add(log);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,12 @@
+package com.sahilbondre.firefly;
+
+/**
+ * What {@link AsyncFireflyDB} does with a request while the maximum number of requests is in flight.
+ * <p>
+ * BLOCK: Block the calling thread until a request completes.
+ * REJECT: Fail the request with a {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public enum OverloadPolicy {
+    BLOCK,
+    REJECT
+}
@@ -0,0 +1,54 @@
+package com.sahilbondre.firefly;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How a database recovered its file-table on its last start.
+ */
+public class RecoveryReport {
+    private final boolean fromCheckpoint;
+    private final int replayedLogCount;
+    private final Map<Integer, Long> droppedBytes;
+    private final long durationMillis;
+
+    public RecoveryReport(boolean fromCheckpoint, int replayedLogCount, Map<Integer, Long> droppedBytes,
+        long durationMillis) {
+        this.fromCheckpoint = fromCheckpoint;
+        this.replayedLogCount = replayedLogCount;
+        this.droppedBytes = Collections.unmodifiableMap(new TreeMap<>(droppedBytes));
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Whether a saved file-table was loaded, so that only the logs written after it were replayed.
+     */
+    public boolean isFromCheckpoint() {
+        return fromCheckpoint;
+    }
+
+    public int getReplayedLogCount() {
+        return replayedLogCount;
+    }
+
+    /**
+     * Bytes of incomplete records that were cut off the end of logs, by log id. A crash in the middle of an append
+     * leaves one behind.
+     */
+    public Map<Integer, Long> getDroppedBytesByLog() {
+        return droppedBytes;
+    }
+
+    public long getDroppedBytes() {
+        long total = 0;
+        for (long bytes : droppedBytes.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,237 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.model.Segment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Database whose keys are hash-partitioned across several FireflyDB shards.
+ * <p>
+ * Each shard lives in its own sub-folder and has its own active log, file-table, committer and compaction, so writes
+ * to different shards are appended and forced in parallel. The number of shards is fixed when the database is first
+ * started, starting it with another number fails.
+ * <p>
+ * Every shard is configured with the same {@link FireflyConfig}, thread pools and the value cache are per shard.
+ */
+public class ShardedFireflyDB {
+    private static final String SHARD_COUNT_FILE_NAME = "shards";
+    private static final String SHARD_FOLDER_PREFIX = "shard-";
+
+    private final String folderPath;
+    private final FireflyDB[] shards;
+    private ExecutorService compactionExecutor;
+    private volatile boolean isStarted = false;
+
+    public ShardedFireflyDB(String folderPath, int shardCount) {
+        this(folderPath, shardCount, new FireflyConfig());
+    }
+
+    public ShardedFireflyDB(String folderPath, int shardCount, FireflyConfig config) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+        this.folderPath = folderPath;
+        this.shards = new FireflyDB[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = FireflyDB.getInstance(folderPath + "/" + SHARD_FOLDER_PREFIX + i, config);
+        }
+    }
+
+    public String getFolderPath() {
+        return folderPath;
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Shard at an index, e.g. to compact it on its own or to read its stats.
+     */
+    public FireflyDB getShard(int index) {
+        return shards[index];
+    }
+
+    public synchronized void start() throws IOException {
+        if (isStarted) {
+            return;
+        }
+        checkShardCount();
+        for (FireflyDB shard : shards) {
+            Files.createDirectories(Paths.get(shard.getFolderPath()));
+            shard.start();
+        }
+        compactionExecutor = Executors.newFixedThreadPool(shards.length, runnable -> {
+            Thread thread = new Thread(runnable, "firefly-shard-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        isStarted = true;
+    }
+
+    public synchronized void stop() throws IOException {
+        if (!isStarted) {
+            return;
+        }
+        isStarted = false;
+        compactionExecutor.shutdown();
+        IOException failure = null;
+        for (FireflyDB shard : shards) {
+            try {
+                shard.stop();
+            } catch (IOException e) {
+                // Stop the other shards regardless
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Keys are routed by hash, so the shard count must never change once keys are written.
+     */
+    private void checkShardCount() throws IOException {
+        Path path = Paths.get(folderPath, SHARD_COUNT_FILE_NAME);
+        if (Files.exists(path)) {
+            String saved = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+            if (!saved.equals(Integer.toString(shards.length))) {
+                throw new IllegalStateException(
+                    "Database at " + folderPath + " has " + saved + " shards, not " + shards.length + ".");
+            }
+        } else {
+            Files.createDirectories(Paths.get(folderPath));
+            Files.write(path, Integer.toString(shards.length).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    int shardIndex(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        // Spread the upper bits, which a small shard count ignores otherwise
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shards.length);
+    }
+
+    private FireflyDB shard(byte[] key) {
+        return shards[shardIndex(key)];
+    }
+
+    public void set(byte[] key, byte[] value) throws IOException {
+        shard(key).set(key, value);
+    }
+
+    public void set(byte[] key, byte[] value, Duration ttl) throws IOException {
+        shard(key).set(key, value, ttl);
+    }
+
+    public void delete(byte[] key) throws IOException {
+        shard(key).delete(key);
+    }
+
+    /**
+     * Writes a batch atomically. All keys of the batch must belong to the same shard, batches are not atomic across
+     * shards.
+     *
+     * @throws IllegalArgumentException if the keys belong to several shards
+     */
+    public void write(WriteBatch batch) throws IOException {
+        List<Segment> segments = batch.getSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+        int index = shardIndex(segments.get(0).getKey());
+        for (Segment segment : segments) {
+            if (shardIndex(segment.getKey()) != index) {
+                throw new IllegalArgumentException("Keys of a write batch must belong to the same shard.");
+            }
+        }
+        shards[index].write(batch);
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        return shard(key).get(key);
+    }
+
+    public int get(byte[] key, ByteBuffer destination) throws IOException {
+        return shard(key).get(key, destination);
+    }
+
+    public int get(byte[] key, WritableByteChannel target) throws IOException {
+        return shard(key).get(key, target);
+    }
+
+    /**
+     * Reads several keys, one multiGet per shard, missing keys are empty.
+     */
+    public List<Optional<byte[]>> multiGet(List<byte[]> keys) throws IOException {
+        Map<Integer, List<Integer>> indicesByShard = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            indicesByShard.computeIfAbsent(shardIndex(keys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+
+        List<Optional<byte[]>> values = new ArrayList<>(Collections.nCopies(keys.size(), Optional.empty()));
+        for (Map.Entry<Integer, List<Integer>> entry : indicesByShard.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            List<byte[]> shardKeys = new ArrayList<>(indices.size());
+            for (int index : indices) {
+                shardKeys.add(keys.get(index));
+            }
+            List<Optional<byte[]>> shardValues = shards[entry.getKey()].multiGet(shardKeys);
+            for (int i = 0; i < indices.size(); i++) {
+                values.set(indices.get(i), shardValues.get(i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Compacts all shards in parallel, blocks the caller until all are done.
+     */
+    public void compaction() throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException("FireflyDB is not started.");
+        }
+        List<Future<Void>> futures = new ArrayList<>(shards.length);
+        for (FireflyDB shard : shards) {
+            futures.add(compactionExecutor.submit(() -> {
+                shard.compaction();
+                return null;
+            }));
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compaction.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+}
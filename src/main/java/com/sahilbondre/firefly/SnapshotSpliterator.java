@@ -0,0 +1,150 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.log.ReferenceCountedLog;
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads the segments of a {@link LogSnapshot} in log and offset order.
+ * <p>
+ * Each log is read front to back in windows, so that a scan is mostly sequential I/O. Reading keys only reads the
+ * segments up to their keys, skipping over large values. Splitting hands off the first half of the remaining segments,
+ * so that parallel streams read different logs, or different parts of one log, on different threads.
+ */
+class SnapshotSpliterator<T> implements Spliterator<T> {
+    // Windows of logs read at a time
+    private static final int VALUE_READ_SIZE = 1024 * 1024;
+    private static final int KEY_READ_SIZE = 64 * 1024;
+    // Read first to find the end of the key, enough for the header and most keys
+    private static final int KEY_PREFIX_LENGTH = 256;
+    // Remaining segments below which a spliterator is not split
+    private static final int MIN_SPLIT_SIZE = 1024;
+
+    private final LogSnapshot snapshot;
+    private final boolean readValues;
+    private final Function<Segment, T> mapper;
+    private int index;
+    private final int end;
+    private int logIndex = -1;
+    private int logEnd = -1;
+    private byte[] window;
+    private long windowOffset;
+
+    /**
+     * @param readValues whether the whole segment or only the part up to the key is passed to the mapper
+     */
+    SnapshotSpliterator(LogSnapshot snapshot, boolean readValues, Function<Segment, T> mapper) {
+        this(snapshot, readValues, mapper, 0, snapshot.size());
+    }
+
+    private SnapshotSpliterator(LogSnapshot snapshot, boolean readValues, Function<Segment, T> mapper, int index,
+        int end) {
+        this.snapshot = snapshot;
+        this.readValues = readValues;
+        this.mapper = mapper;
+        this.index = index;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (index < end) {
+            Segment segment = readSegment(index++);
+            if (segment != null) {
+                action.accept(mapper.apply(segment));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int remaining = end - index;
+        if (remaining < MIN_SPLIT_SIZE) {
+            return null;
+        }
+        int middle = index + remaining / 2;
+        SnapshotSpliterator<T> prefix = new SnapshotSpliterator<>(snapshot, readValues, mapper, index, middle);
+        index = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * @return the segment, cut off after the key unless values are read, or null if it expired by the time of the
+     * snapshot
+     */
+    private Segment readSegment(int segmentIndex) {
+        if (segmentIndex >= logEnd) {
+            logIndex = snapshot.logIndex(segmentIndex);
+            logEnd = snapshot.end(logIndex);
+            window = null;
+        }
+        ReferenceCountedLog log = snapshot.log(logIndex);
+        SegmentFormat format = log.getFormat();
+        long offset = snapshot.offset(segmentIndex);
+        try {
+            int headerLength = format.getHeaderLength();
+            int start = ensureRead(log, offset, headerLength);
+            Segment header = Segment.fromByteArray(Arrays.copyOfRange(window, start, start + headerLength), format);
+            int length = headerLength + header.getKeySize() + header.getValueSize();
+
+            Segment segment;
+            if (readValues) {
+                start = ensureRead(log, offset, length);
+                segment = Segment.fromByteArray(Arrays.copyOfRange(window, start, start + length), format);
+                if (!segment.isChecksumValid()) {
+                    throw new IOException("Invalid segment at " + offset + " of " + log.getFilePath());
+                }
+            } else {
+                int prefixLength = Math.min(length, KEY_PREFIX_LENGTH);
+                start = ensureRead(log, offset, prefixLength);
+                segment = Segment.fromByteArray(Arrays.copyOfRange(window, start, start + prefixLength), format);
+                int keyEnd = segment.getKeyEnd();
+                if (keyEnd > prefixLength) {
+                    start = ensureRead(log, offset, keyEnd);
+                    segment = Segment.fromByteArray(Arrays.copyOfRange(window, start, start + keyEnd), format);
+                }
+            }
+            return segment.isExpired(snapshot.getTakenAtMillis()) ? null : segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes sure the window holds {@code length} bytes at the offset of the log.
+     *
+     * @return the position of the offset in the window
+     */
+    private int ensureRead(ReferenceCountedLog log, long offset, int length) throws IOException {
+        if (window != null && offset >= windowOffset && offset + length <= windowOffset + window.length) {
+            return (int) (offset - windowOffset);
+        }
+        int readSize = Math.max(length, readValues ? VALUE_READ_SIZE : KEY_READ_SIZE);
+        long readLength = Math.min(readSize, log.size() - offset);
+        if (readLength < length) {
+            throw new IOException("Segment at " + offset + " of " + log.getFilePath() + " is cut off");
+        }
+        window = log.read(offset, readLength);
+        windowOffset = offset;
+        return 0;
+    }
+}
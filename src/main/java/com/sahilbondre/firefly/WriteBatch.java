@@ -0,0 +1,40 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Puts and deletes that are written as one log record.
+ * <p>
+ * After a crash either all or none of them are recovered, and readers resolving several keys at once see them all
+ * or none. A later put or delete of the same key wins.
+ */
+public class WriteBatch {
+    private final List<Segment> segments = new ArrayList<>();
+
+    public void put(byte[] key, byte[] value) {
+        Segment.checkKey(key);
+        segments.add(Segment.fromKeyValuePair(key, value, SegmentFormat.LATEST));
+    }
+
+    public void delete(byte[] key) {
+        Segment.checkKey(key);
+        segments.add(Segment.fromDeletedKey(key, SegmentFormat.LATEST));
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    public void clear() {
+        segments.clear();
+    }
+
+    List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+}
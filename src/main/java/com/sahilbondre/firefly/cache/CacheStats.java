@@ -0,0 +1,48 @@
+package com.sahilbondre.firefly.cache;
+
+/**
+ * Counters of a value cache at one point in time.
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long weightedSize;
+    private final long maximumWeight;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long weightedSize, long maximumWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.weightedSize = weightedSize;
+        this.maximumWeight = maximumWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Bytes taken by cached keys and values, including a fixed overhead per entry.
+     */
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+}
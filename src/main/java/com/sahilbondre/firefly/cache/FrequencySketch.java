@@ -0,0 +1,91 @@
+package com.sahilbondre.firefly.cache;
+
+/**
+ * Count-min sketch estimating how often a key was accessed recently.
+ * <p>
+ * Each long holds sixteen 4-bit counters, a key maps to four counters in four different longs and its frequency is
+ * the smallest of them. Once the number of increments reaches ten times the table size all counters are halved, so
+ * that the estimate favours recent accesses.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAXIMUM_FREQUENCY = 15;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Grows the table to hold at least {@code capacity} keys, dropping what was counted so far.
+     */
+    void ensureCapacity(int capacity) {
+        int length = Integer.highestOneBit(Math.max(Math.min(capacity, 1 << 30) - 1, 1)) << 1;
+        if (table != null && table.length >= length) {
+            return;
+        }
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+        size = 0;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = MAXIMUM_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((table[index] >>> offset) & 0xFL) != MAXIMUM_FREQUENCY) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (SEEDS[i] + hash) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
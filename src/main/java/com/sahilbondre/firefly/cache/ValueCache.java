@@ -0,0 +1,318 @@
+package com.sahilbondre.firefly.cache;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Values of frequently read keys, bounded by bytes and evicted with W-TinyLFU.
+ * <p>
+ * New entries go to a small LRU window. Entries leaving the window only enter the main space if a frequency sketch
+ * says they are read more often than the entry they would evict, so a scan of cold keys cannot flush hot ones. The
+ * main space is a segmented LRU: entries read again move from probation to the protected segment.
+ * <p>
+ * An entry remembers the file-pointer its value was read from and only hits for that file-pointer, so a value that
+ * was overwritten or moved is never returned. Lookups take no lock; reordering the queues on a hit is skipped while
+ * another thread holds the lock.
+ * <p>
+ * Layout of the maximum weight:
+ * 1% window
+ * 99% main, of which 80% protected and 20% probation
+ */
+public class ValueCache {
+    // Rough heap overhead of an entry besides key and value
+    static final int ENTRY_OVERHEAD = 64;
+
+    private final Map<Key, Node> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private long windowWeight;
+    private long protectedWeight;
+    private volatile long weightedSize;
+
+    public ValueCache(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive.");
+        }
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * 8 / 10;
+    }
+
+    /**
+     * @return the cached value if it was read from {@code filePointer}, otherwise null
+     */
+    public byte[] get(byte[] key, FilePointer filePointer) {
+        Key lookup = new Key(key);
+        Node node = entries.get(lookup);
+        boolean hit = node != null && node.filePointer.equals(filePointer);
+        if (hit) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+
+        // Frequencies and order are best effort under contention
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(lookup.hashCode());
+                if (hit) {
+                    onHit(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return hit ? node.value : null;
+    }
+
+    /**
+     * Caches a value read from {@code filePointer}. The cache keeps the array, callers must not modify it afterwards.
+     */
+    public void put(byte[] key, FilePointer filePointer, byte[] value) {
+        long weight = (long) key.length + value.length + ENTRY_OVERHEAD;
+        if (weight > maximumWeight) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            Key lookup = new Key(key);
+            Node existing = entries.get(lookup);
+            if (existing != null) {
+                if (existing.filePointer.equals(filePointer)) {
+                    return;
+                }
+                remove(existing);
+            }
+
+            Node node = new Node(lookup, filePointer, value, weight);
+            entries.put(lookup, node);
+            node.queue = window;
+            window.addLast(node);
+            windowWeight += weight;
+            weightedSize += weight;
+            if (entries.size() > sketch.capacity()) {
+                sketch.ensureCapacity(2 * entries.size());
+            }
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the value of a key, e.g. after it was overwritten.
+     */
+    public void invalidate(byte[] key) {
+        lock.lock();
+        try {
+            Node node = entries.get(new Key(key));
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the value of a key whose segment was copied to {@code newFilePointer} by compaction.
+     */
+    public void relocate(byte[] key, FilePointer oldFilePointer, FilePointer newFilePointer) {
+        lock.lock();
+        try {
+            Node node = entries.get(new Key(key));
+            if (node == null) {
+                return;
+            }
+            if (node.filePointer.equals(oldFilePointer)) {
+                node.filePointer = newFilePointer;
+            } else {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), weightedSize, maximumWeight);
+    }
+
+    private void onHit(Node node) {
+        if (node.queue == window) {
+            window.moveToLast(node);
+        } else if (node.queue == probation) {
+            // Read again, promote to protected
+            probation.remove(node);
+            node.queue = protectedQueue;
+            protectedQueue.addLast(node);
+            protectedWeight += node.weight;
+            demoteProtected();
+        } else if (node.queue == protectedQueue) {
+            protectedQueue.moveToLast(node);
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMaximum) {
+            Node demoted = protectedQueue.removeFirst();
+            protectedWeight -= demoted.weight;
+            demoted.queue = probation;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void evict() {
+        // Entries leaving the window become candidates at the end of probation
+        int candidates = 0;
+        while (windowWeight > windowMaximum) {
+            Node node = window.removeFirst();
+            windowWeight -= node.weight;
+            node.queue = probation;
+            probation.addLast(node);
+            candidates++;
+        }
+
+        while (weightedSize > maximumWeight) {
+            Node victim = probation.peekFirst();
+            Node candidate = candidates > 0 ? probation.peekLast() : null;
+            if (victim == null) {
+                // Probation is empty, fall back to protected and then to the window
+                victim = protectedQueue.peekFirst() != null ? protectedQueue.peekFirst() : window.peekFirst();
+                remove(victim);
+            } else if (candidate == null || candidate == victim) {
+                if (candidate != null) {
+                    candidates--;
+                }
+                remove(victim);
+            } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                remove(victim);
+            } else {
+                candidates--;
+                remove(candidate);
+            }
+            evictionCount.increment();
+        }
+    }
+
+    private void remove(Node node) {
+        entries.remove(node.key, node);
+        node.queue.remove(node);
+        if (node.queue == window) {
+            windowWeight -= node.weight;
+        } else if (node.queue == protectedQueue) {
+            protectedWeight -= node.weight;
+        }
+        node.queue = null;
+        weightedSize -= node.weight;
+    }
+
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Node {
+        private final Key key;
+        private final byte[] value;
+        private final long weight;
+        private volatile FilePointer filePointer;
+        private AccessQueue queue;
+        private Node previous;
+        private Node next;
+
+        Node(Key key, FilePointer filePointer, byte[] value, long weight) {
+            this.key = key;
+            this.filePointer = filePointer;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Doubly linked list from least to most recently used.
+     */
+    private static final class AccessQueue {
+        private Node first;
+        private Node last;
+
+        Node peekFirst() {
+            return first;
+        }
+
+        Node peekLast() {
+            return last;
+        }
+
+        void addLast(Node node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        Node removeFirst() {
+            Node node = first;
+            remove(node);
+            return node;
+        }
+
+        void moveToLast(Node node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.sahilbondre.firefly.compression;
+
+/**
+ * Compresses values of segments.
+ * <p>
+ * The id is stored in each compressed segment, so it must never change once values were written with the codec.
+ * Custom codecs are made known to readers with {@link Codecs#register(Codec)}.
+ */
+public interface Codec {
+    byte getId();
+
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses {@code length} bytes of {@code data} from {@code offset} on.
+     *
+     * @throws IllegalStateException if the data is malformed or does not decompress to {@code uncompressedLength}
+     */
+    byte[] decompress(byte[] data, int offset, int length, int uncompressedLength);
+}
@@ -0,0 +1,45 @@
+package com.sahilbondre.firefly.compression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs known to readers, by id.
+ */
+public final class Codecs {
+    public static final Codec DEFLATE = new DeflateCodec();
+    public static final Codec LZ = new LzCodec();
+
+    private static final Map<Byte, Codec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(DEFLATE);
+        register(LZ);
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Makes a codec known to readers, e.g. before opening a database written with it.
+     *
+     * @throws IllegalArgumentException if another codec has the same id
+     */
+    public static void register(Codec codec) {
+        Codec existing = CODECS.putIfAbsent(codec.getId(), codec);
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("Codec id " + codec.getId() + " is already taken.");
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if no codec with the id is registered
+     */
+    public static Codec forId(byte id) {
+        Codec codec = CODECS.get(id);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown codec id " + id);
+        }
+        return codec;
+    }
+}
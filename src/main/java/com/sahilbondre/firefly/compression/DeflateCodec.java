@@ -0,0 +1,72 @@
+package com.sahilbondre.firefly.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec based on {@link Deflater}, for values that compress well and are read less often than written.
+ * <p>
+ * Deflaters and inflaters hold native memory, each thread reuses its own.
+ */
+public class DeflateCodec implements Codec {
+    static final byte ID = 1;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[Math.min(Math.max(data.length, 64), 64 * 1024)];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+
+        byte[] result = new byte[uncompressedLength];
+        try {
+            int position = 0;
+            while (position < uncompressedLength && !inflater.finished()) {
+                int count = inflater.inflate(result, position, uncompressedLength - position);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += count;
+            }
+            if (position != uncompressedLength) {
+                throw new IllegalStateException("Compressed value is malformed.");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed value is malformed.", e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+package com.sahilbondre.firefly.compression;
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 codec in the style of the LZ4 block format, which trades ratio for speed.
+ * <p>
+ * The data is a sequence of literal runs, each followed by a match that copies from up to 64 KB back:
+ * 1 byte: Token, literal length in the high and match length minus 4 in the low nibble, 15 is continued by bytes
+ * that are added until one is not 255
+ * n bytes: Literals
+ * 2 bytes: Match offset, little-endian
+ * The last run has no match.
+ */
+public class LzCodec implements Codec {
+    static final byte ID = 2;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    // The tail is always literals, so that matches can be extended without bounds checks on the input
+    private static final int LAST_LITERALS = 5;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        int length = data.length;
+        byte[] output = new byte[length + length / 255 + 16];
+        int outputPosition = 0;
+        // Positions plus one, 0 marks an empty slot
+        int[] table = new int[1 << HASH_BITS];
+
+        int anchor = 0;
+        int position = 0;
+        int matchLimit = length - LAST_LITERALS;
+        while (position + MIN_MATCH <= matchLimit) {
+            int sequence = readInt(data, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int reference = table[hash] - 1;
+            table[hash] = position + 1;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(data, reference) != sequence) {
+                position++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit
+                && data[reference + matchLength] == data[position + matchLength]) {
+                matchLength++;
+            }
+            outputPosition = writeSequence(output, outputPosition, data, anchor, position - anchor,
+                position - reference, matchLength);
+            position += matchLength;
+            anchor = position;
+        }
+        outputPosition = writeSequence(output, outputPosition, data, anchor, length - anchor, 0, 0);
+        return Arrays.copyOf(output, outputPosition);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) {
+        byte[] result = new byte[uncompressedLength];
+        int position = offset;
+        int end = offset + length;
+        int resultPosition = 0;
+        try {
+            while (position < end) {
+                int token = data[position++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int extra;
+                    do {
+                        extra = data[position++] & 0xFF;
+                        literalLength += extra;
+                    } while (extra == 255);
+                }
+                if (position + literalLength > end) {
+                    throw new IllegalStateException("Compressed value is malformed.");
+                }
+                System.arraycopy(data, position, result, resultPosition, literalLength);
+                position += literalLength;
+                resultPosition += literalLength;
+                if (position == end) {
+                    break;
+                }
+
+                int matchOffset = (data[position] & 0xFF) | ((data[position + 1] & 0xFF) << 8);
+                position += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int extra;
+                    do {
+                        extra = data[position++] & 0xFF;
+                        matchLength += extra;
+                    } while (extra == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (matchOffset == 0 || matchOffset > resultPosition
+                    || resultPosition + matchLength > uncompressedLength) {
+                    throw new IllegalStateException("Compressed value is malformed.");
+                }
+                // Byte by byte, a match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; i++) {
+                    result[resultPosition] = result[resultPosition - matchOffset];
+                    resultPosition++;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Compressed value is malformed.", e);
+        }
+        if (resultPosition != uncompressedLength) {
+            throw new IllegalStateException("Compressed value is malformed.");
+        }
+        return result;
+    }
+
+    private static int writeSequence(byte[] output, int position, byte[] data, int literalOffset, int literalLength,
+                                     int matchOffset, int matchLength) {
+        int tokenPosition = position++;
+        int token = Math.min(literalLength, 15) << 4;
+        if (literalLength >= 15) {
+            position = writeLength(output, position, literalLength - 15);
+        }
+        System.arraycopy(data, literalOffset, output, position, literalLength);
+        position += literalLength;
+
+        if (matchLength > 0) {
+            output[position++] = (byte) matchOffset;
+            output[position++] = (byte) (matchOffset >>> 8);
+            int encodedLength = matchLength - MIN_MATCH;
+            token |= Math.min(encodedLength, 15);
+            if (encodedLength >= 15) {
+                position = writeLength(output, position, encodedLength - 15);
+            }
+        }
+        output[tokenPosition] = (byte) token;
+        return position;
+    }
+
+    private static int writeLength(byte[] output, int position, int length) {
+        while (length >= 255) {
+            output[position++] = (byte) 255;
+            length -= 255;
+        }
+        output[position++] = (byte) length;
+        return position;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xFF) | ((data[position + 1] & 0xFF) << 8) | ((data[position + 2] & 0xFF) << 16)
+            | ((data[position + 3] & 0xFF) << 24);
+    }
+}
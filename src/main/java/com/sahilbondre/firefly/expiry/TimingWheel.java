@@ -0,0 +1,137 @@
+package com.sahilbondre.firefly.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel that hands out elements once their expiry has passed.
+ * <p>
+ * Level 0 has one bucket per tick, each level above covers a whole rotation of the level below per bucket. Adding an
+ * element is O(1), and advancing by a tick expires one bucket and, once per rotation of a level, moves the elements of
+ * the next bucket of the level above down. Elements are never cancelled, callers check whether an expired element is
+ * still current.
+ * <p>
+ * Elements expire between their expiry and one tick after it.
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final int wheelSize;
+    // Buckets of each level, level i spans ticks of tickMillis * wheelSize^i
+    private final List<Node<T>[]> levels = new ArrayList<>();
+    private final List<Long> levelTickMillis = new ArrayList<>();
+    // Start of the bucket of level 0 that expires next
+    private long currentTime;
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("Tick must be positive and the wheel must have at least two buckets.");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTime = startMillis - Math.floorMod(startMillis, tickMillis);
+        addLevel();
+    }
+
+    /**
+     * Schedules an element, an expiry in the past expires it on the next advance.
+     */
+    public synchronized void add(T element, long expiresAt) {
+        insert(new Node<>(element, Math.max(expiresAt, currentTime)));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to {@code nowMillis}.
+     *
+     * @return the elements whose expiry has passed
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        while (currentTime + tickMillis <= nowMillis) {
+            Node<T>[] buckets = levels.get(0);
+            int index = bucketIndex(currentTime, tickMillis);
+            Node<T> node = buckets[index];
+            buckets[index] = null;
+            for (; node != null; node = node.next) {
+                expired.add(node.element);
+                size--;
+            }
+            currentTime += tickMillis;
+
+            // Move the next bucket of every level whose rotation below is complete down, top first
+            for (int level = levels.size() - 1; level > 0; level--) {
+                long levelTick = levelTickMillis.get(level);
+                if (currentTime % levelTick == 0) {
+                    cascade(level, bucketIndex(currentTime, levelTick));
+                }
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visits every element that has not expired yet, holding off adds and advances meanwhile.
+     */
+    public synchronized void forEach(Consumer<? super T> action) {
+        for (Node<T>[] buckets : levels) {
+            for (Node<T> head : buckets) {
+                for (Node<T> node = head; node != null; node = node.next) {
+                    action.accept(node.element);
+                }
+            }
+        }
+    }
+
+    private void cascade(int level, int index) {
+        Node<T>[] buckets = levels.get(level);
+        Node<T> node = buckets[index];
+        buckets[index] = null;
+        while (node != null) {
+            Node<T> next = node.next;
+            insert(node);
+            node = next;
+        }
+    }
+
+    private void insert(Node<T> node) {
+        int level = 0;
+        while (node.expiresAt / levelTickMillis.get(level) - currentTime / levelTickMillis.get(level) >= wheelSize) {
+            level++;
+            if (level == levels.size()) {
+                addLevel();
+            }
+        }
+        Node<T>[] buckets = levels.get(level);
+        int index = bucketIndex(node.expiresAt, levelTickMillis.get(level));
+        node.next = buckets[index];
+        buckets[index] = node;
+    }
+
+    private void addLevel() {
+        long levelTick = levels.isEmpty() ? tickMillis : levelTickMillis.get(levels.size() - 1) * wheelSize;
+        levelTickMillis.add(levelTick);
+        @SuppressWarnings("unchecked") Node<T>[] buckets = (Node<T>[]) new Node<?>[wheelSize];
+        levels.add(buckets);
+    }
+
+    private int bucketIndex(long time, long levelTick) {
+        return (int) Math.floorMod(time / levelTick, (long) wheelSize);
+    }
+
+    private static final class Node<T> {
+        private final T element;
+        private final long expiresAt;
+        private Node<T> next;
+
+        Node(T element, long expiresAt) {
+            this.element = element;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.sahilbondre.firefly.filetable;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Records which keys of a file-table changed, so that a checkpoint writes only those to a {@link FileTableDelta}.
+ */
+public class ChangeTrackingFileTable implements PersistableFileTable {
+    private final PersistableFileTable fileTable;
+    private volatile Set<ByteBuffer> changedKeys = ConcurrentHashMap.newKeySet();
+
+    public ChangeTrackingFileTable(PersistableFileTable fileTable) {
+        this.fileTable = fileTable;
+    }
+
+    /**
+     * Returns the keys changed since the last call. Changes made while this runs may be reported by either call, so
+     * writers whose changes must not be missed are held off meanwhile.
+     */
+    public Set<ByteBuffer> drainChangedKeys() {
+        Set<ByteBuffer> keys = changedKeys;
+        changedKeys = ConcurrentHashMap.newKeySet();
+        return keys;
+    }
+
+    @Override
+    public FilePointer put(byte[] key, FilePointer value) {
+        FilePointer previous = fileTable.put(key, value);
+        changed(key);
+        return previous;
+    }
+
+    @Override
+    public FilePointer get(byte[] key) {
+        return fileTable.get(key);
+    }
+
+    @Override
+    public boolean replace(byte[] key, FilePointer expected, FilePointer value) {
+        if (fileTable.replace(key, expected, value)) {
+            changed(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public FilePointer remove(byte[] key) {
+        FilePointer previous = fileTable.remove(key);
+        changed(key);
+        return previous;
+    }
+
+    @Override
+    public boolean remove(byte[] key, FilePointer expected) {
+        if (fileTable.remove(key, expected)) {
+            changed(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return fileTable.size();
+    }
+
+    @Override
+    public long memoryUsage() {
+        return fileTable.memoryUsage();
+    }
+
+    @Override
+    public void forEach(BiConsumer<byte[], FilePointer> action) {
+        fileTable.forEach(action);
+    }
+
+    @Override
+    public FileTableView view() {
+        return fileTable.view();
+    }
+
+    @Override
+    public void saveToDisk(String filePath, LogPosition position, ExpiryLookup expiries)
+        throws FileNotFoundException {
+        fileTable.saveToDisk(filePath, position, expiries);
+    }
+
+    private void changed(byte[] key) {
+        if (key != null) {
+            // Callers may reuse their key arrays
+            changedKeys.add(ByteBuffer.wrap(key.clone()));
+        }
+    }
+}
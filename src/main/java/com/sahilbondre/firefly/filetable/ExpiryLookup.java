@@ -0,0 +1,15 @@
+package com.sahilbondre.firefly.filetable;
+
+/**
+ * Expiry of the values of file-table entries, which file-tables do not keep themselves. Saved file-tables store it
+ * with the entries, so that keys that expire are still evicted after a restart.
+ */
+public interface ExpiryLookup {
+    ExpiryLookup NONE = (key, logIdAndLength, offset) -> 0;
+
+    /**
+     * @param logIdAndLength see {@link FilePointer#packLogIdAndLength()}
+     * @return expiry of the value the entry points to in epoch milliseconds, or 0 if it does not expire
+     */
+    long getExpiresAt(byte[] key, long logIdAndLength, long offset);
+}
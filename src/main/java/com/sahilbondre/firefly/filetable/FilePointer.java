@@ -1,33 +1,43 @@
 package com.sahilbondre.firefly.filetable;
 
-import java.util.Objects;
-
-public class FilePointer {
-    private String fileName;
-    private long offset;
-
-    public FilePointer(String fileName, long offset) {
-        this.fileName = fileName;
+/**
+ * Location of a segment: id of the log, offset within it and length of the segment.
+ * <p>
+ * Only primitives, so that resolving a pointer does not parse file names and packing it takes two longs. Immutable, so
+ * that file-tables and caches can share instances.
+ */
+public final class FilePointer {
+    private final int logId;
+    private final long offset;
+    private final int length;
+
+    public FilePointer(int logId, long offset, int length) {
+        this.logId = logId;
         this.offset = offset;
+        this.length = length;
     }
 
-    public FilePointer() {
+    public static FilePointer unpack(long logIdAndLength, long offset) {
+        return new FilePointer((int) (logIdAndLength >>> 32), offset, (int) logIdAndLength);
     }
 
-    public String getFileName() {
-        return fileName;
+    /**
+     * Log id in the upper and length in the lower 32 bits, the offset is the second long.
+     */
+    public long packLogIdAndLength() {
+        return ((long) logId << 32) | (length & 0xFFFFFFFFL);
     }
 
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
+    public int getLogId() {
+        return logId;
     }
 
     public long getOffset() {
         return offset;
     }
 
-    public void setOffset(long offset) {
-        this.offset = offset;
+    public int getLength() {
+        return length;
     }
 
     @Override
@@ -35,11 +45,11 @@ public class FilePointer {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FilePointer that = (FilePointer) o;
-        return offset == that.offset && fileName.equals(that.fileName);
+        return logId == that.logId && offset == that.offset && length == that.length;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(fileName, offset);
+        return 31 * (31 * logId + Long.hashCode(offset)) + length;
     }
 }
@@ -0,0 +1,258 @@
+package com.sahilbondre.firefly.filetable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Changes of a file-table since its last {@link FileTableSnapshot}, appended in batches.
+ * <p>
+ * Each batch ends with the log position the file-table is consistent with after applying it. A batch that was not
+ * completely written, and everything after it, is ignored.
+ * <p>
+ * 4 bytes: Magic
+ * 1 byte: Version
+ * 4 bytes: Log id of the position of the base snapshot
+ * 8 bytes: Offset of the position of the base snapshot
+ * Batches, records:
+ * 1 byte: Record Type (0 for a put, 1 for a remove, 2 for the end of a batch, 3 for a put of a value that expires)
+ * Put:
+ * 2 bytes: Key Size
+ * n bytes: Key
+ * 8 bytes: Log id and segment length, see {@link FilePointer#packLogIdAndLength()}
+ * 8 bytes: Segment offset
+ * 8 bytes: Expiry of the value in epoch milliseconds, only for a put of a value that expires
+ * Remove:
+ * 2 bytes: Key Size
+ * n bytes: Key
+ * End of a batch:
+ * 4 bytes: Log id of the position
+ * 8 bytes: Offset of the position
+ * 4 bytes: CRC32C of the records of the batch
+ */
+public class FileTableDelta {
+    private static final int MAGIC = 0x46464454;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 17;
+    private static final byte PUT_RECORD = 0;
+    private static final byte REMOVE_RECORD = 1;
+    private static final byte END_OF_BATCH_RECORD = 2;
+    private static final byte EXPIRING_PUT_RECORD = 3;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private FileTableDelta() {
+    }
+
+    /**
+     * Replaces the delta at {@code filePath} with an empty one on top of a snapshot committed with
+     * {@code basePosition}.
+     */
+    public static Writer create(String filePath, LogPosition basePosition) throws IOException {
+        Path path = Paths.get(filePath);
+        Path tempPath = Paths.get(filePath + TEMP_EXTENSION);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.putInt(basePosition.getLogId());
+        header.putLong(basePosition.getOffset());
+        header.flip();
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Writer(path, HEADER_SIZE);
+    }
+
+    /**
+     * Continues a delta after its last complete batch, as reported by {@link #read(String, LogPosition, Consumer)}.
+     */
+    public static Writer append(String filePath, Replay replay) throws IOException {
+        return new Writer(Paths.get(filePath), replay.getValidLength());
+    }
+
+    /**
+     * Passes the changes of complete batches to the consumer, the changes of a batch only once all of it is read.
+     *
+     * @throws FileNotFoundException    if the delta does not exist
+     * @throws InvalidFileTableException if the delta is malformed or belongs to another base snapshot, nothing is
+     *                                   passed to the consumer then
+     */
+    public static Replay read(String filePath, LogPosition basePosition, Consumer consumer)
+        throws FileNotFoundException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(Paths.get(filePath));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(filePath);
+        } catch (IOException e) {
+            throw new InvalidFileTableException("Failed to load FileTable delta from disk: " + e.getMessage());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new InvalidFileTableException("Failed to load FileTable delta from disk: unknown format");
+        }
+        if (!basePosition.equals(new LogPosition(buffer.getInt(), buffer.getLong()))) {
+            throw new InvalidFileTableException("FileTable delta belongs to another snapshot");
+        }
+
+        LogPosition position = basePosition;
+        int validLength = HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        List<byte[]> keys = new ArrayList<>();
+        List<FilePointer> filePointers = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == END_OF_BATCH_RECORD) {
+                    LogPosition batchPosition = new LogPosition(buffer.getInt(), buffer.getLong());
+                    crc.update(bytes, validLength, buffer.position() - validLength);
+                    if (buffer.getInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                    for (int i = 0; i < keys.size(); i++) {
+                        consumer.accept(keys.get(i), filePointers.get(i), expiries.get(i));
+                    }
+                    keys.clear();
+                    filePointers.clear();
+                    expiries.clear();
+                    crc.reset();
+                    position = batchPosition;
+                    validLength = buffer.position();
+                } else if (type == PUT_RECORD || type == REMOVE_RECORD || type == EXPIRING_PUT_RECORD) {
+                    byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(key);
+                    keys.add(key);
+                    filePointers.add(type == REMOVE_RECORD ? null :
+                        FilePointer.unpack(buffer.getLong(), buffer.getLong()));
+                    expiries.add(type == EXPIRING_PUT_RECORD ? buffer.getLong() : 0L);
+                } else {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // A crash interrupted the last batch
+        }
+        return new Replay(position, validLength);
+    }
+
+    public interface Consumer {
+        /**
+         * @param filePointer the new value of the key, null if it was removed
+         * @param expiresAt   expiry of the value in epoch milliseconds, or 0 if it does not expire
+         */
+        void accept(byte[] key, FilePointer filePointer, long expiresAt);
+    }
+
+    /**
+     * Outcome of reading a delta.
+     */
+    public static final class Replay {
+        private final LogPosition position;
+        private final long validLength;
+
+        private Replay(LogPosition position, long validLength) {
+            this.position = position;
+            this.validLength = validLength;
+        }
+
+        /**
+         * Log position the file-table is consistent with after applying the delta.
+         */
+        public LogPosition getPosition() {
+            return position;
+        }
+
+        /**
+         * Size of the complete batches.
+         */
+        public long getValidLength() {
+            return validLength;
+        }
+    }
+
+    /**
+     * Appends batches, each is written and forced to disk at once when it ends.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteArrayOutputStream batchBytes = new ByteArrayOutputStream();
+        private final DataOutputStream batch = new DataOutputStream(batchBytes);
+        private final CRC32C crc = new CRC32C();
+        private long size;
+
+        private Writer(Path filePath, long size) throws IOException {
+            this.channel = FileChannel.open(filePath, StandardOpenOption.WRITE);
+            // Drop an incomplete batch
+            channel.truncate(size);
+            this.size = size;
+        }
+
+        public void put(byte[] key, FilePointer filePointer) throws IOException {
+            put(key, filePointer, 0);
+        }
+
+        /**
+         * @param expiresAt expiry of the value in epoch milliseconds, or 0 if it does not expire
+         */
+        public void put(byte[] key, FilePointer filePointer, long expiresAt) throws IOException {
+            batch.writeByte(expiresAt == 0 ? PUT_RECORD : EXPIRING_PUT_RECORD);
+            batch.writeShort(key.length);
+            batch.write(key);
+            batch.writeLong(filePointer.packLogIdAndLength());
+            batch.writeLong(filePointer.getOffset());
+            if (expiresAt != 0) {
+                batch.writeLong(expiresAt);
+            }
+        }
+
+        public void remove(byte[] key) throws IOException {
+            batch.writeByte(REMOVE_RECORD);
+            batch.writeShort(key.length);
+            batch.write(key);
+        }
+
+        /**
+         * Ends the batch of the changes since the last one, the file-table is consistent with the logs up to
+         * {@code position} with them.
+         */
+        public void endBatch(LogPosition position) throws IOException {
+            batch.writeByte(END_OF_BATCH_RECORD);
+            batch.writeInt(position.getLogId());
+            batch.writeLong(position.getOffset());
+            byte[] records = batchBytes.toByteArray();
+            crc.reset();
+            crc.update(records);
+            batch.writeInt((int) crc.getValue());
+
+            ByteBuffer buffer = ByteBuffer.wrap(batchBytes.toByteArray());
+            batchBytes.reset();
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            channel.force(false);
+        }
+
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
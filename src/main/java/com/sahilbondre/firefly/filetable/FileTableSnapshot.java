@@ -0,0 +1,397 @@
+package com.sahilbondre.firefly.filetable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of a file-table, shared by all implementations.
+ * <p>
+ * Entries are written in chunks with their own checksum, so that chunks are validated and parsed by several threads
+ * when loading, and a snapshot is written as a stream without holding it in memory.
+ * <p>
+ * 4 bytes: Magic
+ * 1 byte: Version
+ * 3 bytes: Zero
+ * Chunks:
+ * 4 bytes: Entry count
+ * 4 bytes: Payload size
+ * 4 bytes: CRC32C of the payload
+ * Payload, entries:
+ * 2 bytes: Key Size
+ * n bytes: Key
+ * 8 bytes: Log id and segment length, see {@link FilePointer#packLogIdAndLength()}
+ * 8 bytes: Segment offset
+ * 8 bytes: Expiry of the value in epoch milliseconds, 0 if it does not expire
+ * Trailer:
+ * 4 bytes: -1 (end of chunks)
+ * 8 bytes: Entry count
+ * 4 bytes: Chunk count
+ * 4 bytes: Log id of the log position, -1 if the snapshot is not tied to one
+ * 8 bytes: Offset of the log position
+ */
+public class FileTableSnapshot {
+    private static final int MAGIC = 0x46465354;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 28;
+    private static final int END_OF_CHUNKS = -1;
+    private static final int ENTRY_OVERHEAD = 2 + 8 + 8 + 8;
+    static final int CHUNK_PAYLOAD_SIZE = 1024 * 1024;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private FileTableSnapshot() {
+    }
+
+    public static Writer create(String filePath) throws IOException {
+        return new Writer(filePath);
+    }
+
+    /**
+     * Reads the entry count from the trailer, e.g. to size a file-table before loading into it.
+     *
+     * @throws FileNotFoundException    if the snapshot does not exist
+     * @throws InvalidFileTableException if the snapshot is not complete
+     */
+    public static long readEntryCount(String filePath) throws FileNotFoundException {
+        try (FileChannel channel = open(filePath)) {
+            return readTrailer(channel).getLong(4);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the log position the snapshot was committed with.
+     *
+     * @return the position, or null if the snapshot is not tied to one
+     * @throws FileNotFoundException    if the snapshot does not exist
+     * @throws InvalidFileTableException if the snapshot is not complete
+     */
+    public static LogPosition readPosition(String filePath) throws FileNotFoundException {
+        try (FileChannel channel = open(filePath)) {
+            ByteBuffer trailer = readTrailer(channel);
+            int logId = trailer.getInt(16);
+            return logId < 0 ? null : new LogPosition(logId, trailer.getLong(20));
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Validates and parses the chunks of a snapshot with {@code threads} threads. The consumer is called once per
+     * chunk, possibly from several threads at a time.
+     *
+     * @throws FileNotFoundException    if the snapshot does not exist
+     * @throws InvalidFileTableException if the snapshot is malformed, nothing is loaded from it then
+     */
+    public static void read(String filePath, int threads, ChunkConsumer consumer) throws FileNotFoundException {
+        try (FileChannel channel = open(filePath)) {
+            ByteBuffer trailer = readTrailer(channel);
+            long entryCount = trailer.getLong(4);
+            int chunkCount = trailer.getInt(12);
+            long end = channel.size() - TRAILER_SIZE;
+
+            // Only chunk headers are read up front, payloads are read by the loading threads
+            List<long[]> chunks = new ArrayList<>(chunkCount);
+            long position = HEADER_SIZE;
+            long entries = 0;
+            ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            while (position < end) {
+                if (position + CHUNK_HEADER_SIZE > end) {
+                    throw new InvalidFileTableException("Failed to load FileTable from disk: truncated chunk");
+                }
+                readFully(channel, chunkHeader.clear(), position);
+                int count = chunkHeader.getInt(0);
+                int size = chunkHeader.getInt(4);
+                if (count < 0 || size < 0 || position + CHUNK_HEADER_SIZE + size > end) {
+                    throw new InvalidFileTableException("Failed to load FileTable from disk: truncated chunk");
+                }
+                chunks.add(new long[]{position + CHUNK_HEADER_SIZE, count, size, chunkHeader.getInt(8)});
+                entries += count;
+                position += CHUNK_HEADER_SIZE + size;
+            }
+            if (chunks.size() != chunkCount || entries != entryCount) {
+                throw new InvalidFileTableException("Failed to load FileTable from disk: entry count mismatch");
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, chunkCount)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "firefly-snapshot-load");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            try {
+                List<Future<Void>> futures = new ArrayList<>(chunkCount);
+                for (long[] chunk : chunks) {
+                    futures.add(executor.submit(() -> {
+                        consumer.accept(readChunk(channel, chunk[0], (int) chunk[1], (int) chunk[2],
+                            (int) chunk[3]));
+                        return null;
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InvalidFileTableException) {
+                throw (InvalidFileTableException) e.getCause();
+            }
+            throw new InvalidFileTableException("Failed to load FileTable from disk: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidFileTableException("Interrupted while loading FileTable from disk");
+        } catch (IOException e) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: " + e.getMessage());
+        }
+    }
+
+    private static FileChannel open(String filePath) throws IOException {
+        try {
+            return FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(filePath);
+        }
+    }
+
+    private static ByteBuffer readTrailer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: truncated snapshot");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: unknown format");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        if (trailer.getInt(0) != END_OF_CHUNKS || trailer.getLong(4) < 0 || trailer.getInt(12) < 0) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: truncated snapshot");
+        }
+        return trailer;
+    }
+
+    private static Chunk readChunk(FileChannel channel, long position, int count, int size, int crc)
+        throws IOException {
+        byte[] payload = new byte[size];
+        readFully(channel, ByteBuffer.wrap(payload), position);
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload);
+        if ((int) checksum.getValue() != crc) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: checksum mismatch");
+        }
+
+        Chunk chunk = new Chunk(count);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(key);
+                chunk.keys[i] = key;
+                chunk.logIdAndLengths[i] = buffer.getLong();
+                chunk.offsets[i] = buffer.getLong();
+                chunk.expiries[i] = buffer.getLong();
+            }
+        } catch (RuntimeException e) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: malformed chunk");
+        }
+        if (buffer.hasRemaining()) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: malformed chunk");
+        }
+        return chunk;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Entries of a chunk, file-pointers stay packed so that loading allocates no FilePointer per entry.
+     */
+    public static final class Chunk {
+        private final byte[][] keys;
+        private final long[] logIdAndLengths;
+        private final long[] offsets;
+        private final long[] expiries;
+
+        private Chunk(int count) {
+            this.keys = new byte[count][];
+            this.logIdAndLengths = new long[count];
+            this.offsets = new long[count];
+            this.expiries = new long[count];
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public byte[] getKey(int index) {
+            return keys[index];
+        }
+
+        public long getLogIdAndLength(int index) {
+            return logIdAndLengths[index];
+        }
+
+        public long getOffset(int index) {
+            return offsets[index];
+        }
+
+        /**
+         * @return expiry of the value in epoch milliseconds, or 0 if it does not expire
+         */
+        public long getExpiresAt(int index) {
+            return expiries[index];
+        }
+
+        /**
+         * Passes the entries whose values expire to the consumer.
+         */
+        public void forEachExpiring(ExpiringEntryConsumer consumer) {
+            for (int i = 0; i < keys.length; i++) {
+                if (expiries[i] != 0) {
+                    consumer.accept(keys[i], FilePointer.unpack(logIdAndLengths[i], offsets[i]), expiries[i]);
+                }
+            }
+        }
+    }
+
+    public interface ChunkConsumer {
+        void accept(Chunk chunk);
+    }
+
+    /**
+     * Receives the entries of a saved file-table whose values expire, e.g. to schedule their eviction.
+     */
+    public interface ExpiringEntryConsumer {
+        ExpiringEntryConsumer NONE = (key, filePointer, expiresAt) -> {
+        };
+
+        void accept(byte[] key, FilePointer filePointer, long expiresAt);
+    }
+
+    /**
+     * Writes a snapshot to a temporary path and moves it in place on commit, so a partially written snapshot is never
+     * picked up.
+     */
+    public static class Writer implements Closeable {
+        private final Path filePath;
+        private final Path tempFilePath;
+        private final FileOutputStream fileOutputStream;
+        private final DataOutputStream output;
+        private final ByteBuffer payload = ByteBuffer.allocate(CHUNK_PAYLOAD_SIZE + ENTRY_OVERHEAD + 0xFFFF);
+        private final CRC32C crc = new CRC32C();
+        private int chunkEntryCount = 0;
+        private long entryCount = 0;
+        private int chunkCount = 0;
+        private boolean committed = false;
+
+        private Writer(String filePath) throws IOException {
+            this.filePath = Paths.get(filePath);
+            this.tempFilePath = Paths.get(filePath + TEMP_EXTENSION);
+            this.fileOutputStream = new FileOutputStream(tempFilePath.toFile());
+            this.output = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024));
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.write(new byte[HEADER_SIZE - 5]);
+        }
+
+        public void append(byte[] key, long logIdAndLength, long offset) throws IOException {
+            append(key, logIdAndLength, offset, 0);
+        }
+
+        /**
+         * @param expiresAt expiry of the value in epoch milliseconds, or 0 if it does not expire
+         */
+        public void append(byte[] key, long logIdAndLength, long offset, long expiresAt) throws IOException {
+            payload.putShort((short) key.length);
+            payload.put(key);
+            payload.putLong(logIdAndLength);
+            payload.putLong(offset);
+            payload.putLong(expiresAt);
+            chunkEntryCount++;
+            entryCount++;
+            if (payload.position() >= CHUNK_PAYLOAD_SIZE) {
+                flushChunk();
+            }
+        }
+
+        public void append(byte[] key, FilePointer filePointer) throws IOException {
+            append(key, filePointer.packLogIdAndLength(), filePointer.getOffset());
+        }
+
+        public void commit() throws IOException {
+            commit(null);
+        }
+
+        /**
+         * Commits a snapshot that is consistent with the logs up to {@code position}, null if it is not tied to one.
+         */
+        public void commit(LogPosition position) throws IOException {
+            flushChunk();
+            output.writeInt(END_OF_CHUNKS);
+            output.writeLong(entryCount);
+            output.writeInt(chunkCount);
+            output.writeInt(position == null ? -1 : position.getLogId());
+            output.writeLong(position == null ? -1 : position.getOffset());
+            output.flush();
+            fileOutputStream.getFD().sync();
+            output.close();
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunkEntryCount == 0) {
+                return;
+            }
+            crc.reset();
+            crc.update(payload.array(), 0, payload.position());
+            output.writeInt(chunkEntryCount);
+            output.writeInt(payload.position());
+            output.writeInt((int) crc.getValue());
+            output.write(payload.array(), 0, payload.position());
+            payload.clear();
+            chunkEntryCount = 0;
+            chunkCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                output.close();
+                Files.deleteIfExists(tempFilePath);
+            }
+        }
+    }
+}
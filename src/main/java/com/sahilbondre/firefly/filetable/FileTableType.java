@@ -0,0 +1,14 @@
+package com.sahilbondre.firefly.filetable;
+
+/**
+ * Implementation of the file-table used by a FireflyDB.
+ * <p>
+ * SERIALIZED: Keys and file-pointers are objects on the heap.
+ * OFF_HEAP: Keys and file-pointers are packed into direct memory, out of reach of the GC.
+ * <p>
+ * Both are saved as a {@link FileTableSnapshot}, so a saved file-table loads into either.
+ */
+public enum FileTableType {
+    SERIALIZED,
+    OFF_HEAP
+}
@@ -0,0 +1,19 @@
+package com.sahilbondre.firefly.filetable;
+
+import java.util.function.Consumer;
+
+/**
+ * File-pointers of a file-table at the point in time the view was taken, see {@link PersistableFileTable#view()}.
+ * <p>
+ * Changes made after the view was taken are not part of it, changes made while it was taken may be. Writers continue
+ * while a view is open, so it must be closed once done.
+ */
+public interface FileTableView extends AutoCloseable {
+    /**
+     * Visits the file-pointers of the view in no particular order, a file-pointer may be visited more than once.
+     */
+    void forEach(Consumer<FilePointer> action);
+
+    @Override
+    void close();
+}
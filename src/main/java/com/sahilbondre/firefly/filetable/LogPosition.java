@@ -0,0 +1,40 @@
+package com.sahilbondre.firefly.filetable;
+
+/**
+ * Position in the logs up to which a saved file-table is consistent with them.
+ */
+public final class LogPosition {
+    private final int logId;
+    private final long offset;
+
+    public LogPosition(int logId, long offset) {
+        this.logId = logId;
+        this.offset = offset;
+    }
+
+    public int getLogId() {
+        return logId;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LogPosition that = (LogPosition) o;
+        return logId == that.logId && offset == that.offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * logId + Long.hashCode(offset);
+    }
+
+    @Override
+    public String toString() {
+        return logId + ":" + offset;
+    }
+}
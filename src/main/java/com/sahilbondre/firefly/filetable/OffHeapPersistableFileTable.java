@@ -0,0 +1,639 @@
+package com.sahilbondre.firefly.filetable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * File-table that keeps keys and file-pointers outside the Java heap.
+ * <p>
+ * Two big decisions here to keep the GC out of the way with tens of millions of keys:
+ * 1. Keys are copied into an append-only arena of direct buffers instead of being kept as objects.
+ * 2. Entries live in an open-addressing hash table of fixed size slots, also in direct buffers.
+ * <p>
+ * Slot layout:
+ * 8 bytes: Key reference into the arena, tagged with 16 bits of the key hash (0 marks an empty slot)
+ * 8 bytes: Log id and segment length, see {@link FilePointer#packLogIdAndLength()}
+ * 8 bytes: Offset
+ * <p>
+ * Arena entry layout:
+ * 2 bytes: Key Size
+ * n bytes: Key
+ * <p>
+ * Readers use optimistic reads and only fall back to a read lock when a writer got in the way. Removed keys stay in
+ * the arena until it is rebuilt with the keys of the table only, which happens when the table grows or once removed
+ * keys take up more than half of the arena.
+ * <p>
+ * Saving and iterating take a copy-on-write view of the slots: while a view is open, a writer copies a slot buffer
+ * a view still uses before changing it. Writers continue meanwhile, and the view holds the table as it was when it
+ * was taken. Several views may be open at a time.
+ */
+public class OffHeapPersistableFileTable implements PersistableFileTable {
+
+    private static final int SLOT_SIZE = 24;
+    private static final int KEY_REFERENCE_OFFSET = 0;
+    private static final int LOG_ID_AND_LENGTH_OFFSET = 8;
+    private static final int OFFSET_OFFSET = 16;
+    private static final long HASH_TAG_MASK = 0xFFFF000000000000L;
+    private static final int CHUNK_SHIFT = 24;
+    // 2^16 slots per buffer, 1.5 MB
+    private static final int SLOTS_PER_BUFFER_SHIFT = 16;
+    private static final int SLOTS_PER_BUFFER = 1 << SLOTS_PER_BUFFER_SHIFT;
+    private static final int ARENA_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final double MAX_DEAD_ARENA_RATIO = 0.5;
+
+    private final StampedLock lock = new StampedLock();
+    private ByteBuffer[] slots;
+    private int capacity;
+    private int size = 0;
+    private List<ByteBuffer> arena = new ArrayList<>();
+    // Bytes of keys stored in the arena, and of those the bytes of removed keys
+    private long arenaBytes = 0;
+    private long deadArenaBytes = 0;
+    // Slot buffers used by open views, by identity, with the number of views using them
+    private final Map<ByteBuffer, Integer> viewedSlots = new IdentityHashMap<>();
+
+    private OffHeapPersistableFileTable(int capacity) {
+        this.capacity = capacity;
+        this.slots = allocateSlots(capacity);
+    }
+
+    public static OffHeapPersistableFileTable fromEmpty() {
+        return new OffHeapPersistableFileTable(INITIAL_CAPACITY);
+    }
+
+    public static OffHeapPersistableFileTable fromFile(String filePath) throws FileNotFoundException {
+        return fromFile(filePath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads a snapshot with {@code threads} threads. Chunks are validated and parsed in parallel and inserted under
+     * one write lock each, into a table sized for all entries up front.
+     */
+    public static OffHeapPersistableFileTable fromFile(String filePath, int threads) throws FileNotFoundException {
+        return fromFile(filePath, threads, FileTableSnapshot.ExpiringEntryConsumer.NONE);
+    }
+
+    /**
+     * Loads a snapshot and passes its entries whose values expire to {@code expiringEntries}, possibly from several
+     * threads at a time.
+     */
+    public static OffHeapPersistableFileTable fromFile(String filePath, int threads,
+        FileTableSnapshot.ExpiringEntryConsumer expiringEntries) throws FileNotFoundException {
+        long entryCount = FileTableSnapshot.readEntryCount(filePath);
+        if (entryCount > Integer.MAX_VALUE) {
+            throw new InvalidFileTableException("Failed to load FileTable from disk: too many entries");
+        }
+        OffHeapPersistableFileTable fileTable = new OffHeapPersistableFileTable(capacityFor((int) entryCount));
+        FileTableSnapshot.read(filePath, threads, chunk -> {
+            fileTable.putAll(chunk);
+            chunk.forEachExpiring(expiringEntries);
+        });
+        return fileTable;
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = INITIAL_CAPACITY;
+        while ((long) capacity * MAX_LOAD_FACTOR < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static ByteBuffer[] allocateSlots(int capacity) {
+        int bufferCount = Math.max(1, capacity >>> SLOTS_PER_BUFFER_SHIFT);
+        int slotsPerBuffer = Math.min(capacity, SLOTS_PER_BUFFER);
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(slotsPerBuffer * SLOT_SIZE);
+        }
+        return buffers;
+    }
+
+    private static int hash(byte[] key) {
+        // Murmur3 finalizer over the array hash
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public FilePointer put(byte[] key, FilePointer value) {
+        if (key == null || value == null) {
+            return null;
+        }
+
+        int hash = hash(key);
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(slots, capacity, key, hash);
+            FilePointer previous = null;
+            if (keyReference(slots, slot) == 0) {
+                if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+                    resize(capacity << 1);
+                    slot = findSlot(slots, capacity, key, hash);
+                }
+                writableSlotBuffer(slot).putLong(slotPosition(slot) + KEY_REFERENCE_OFFSET,
+                    storeKey(key, hashTag(hash)));
+                size++;
+            } else {
+                previous = filePointerAt(slots, slot);
+            }
+            setFilePointer(slot, value);
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void putAll(FileTableSnapshot.Chunk chunk) {
+        int[] hashes = new int[chunk.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(chunk.getKey(i));
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < hashes.length; i++) {
+                byte[] key = chunk.getKey(i);
+                int slot = findSlot(slots, capacity, key, hashes[i]);
+                if (keyReference(slots, slot) == 0) {
+                    if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+                        resize(capacity << 1);
+                        slot = findSlot(slots, capacity, key, hashes[i]);
+                    }
+                    writableSlotBuffer(slot).putLong(slotPosition(slot) + KEY_REFERENCE_OFFSET,
+                        storeKey(key, hashTag(hashes[i])));
+                    size++;
+                }
+                ByteBuffer buffer = writableSlotBuffer(slot);
+                int position = slotPosition(slot);
+                buffer.putLong(position + LOG_ID_AND_LENGTH_OFFSET, chunk.getLogIdAndLength(i));
+                buffer.putLong(position + OFFSET_OFFSET, chunk.getOffset(i));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public FilePointer get(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+
+        int hash = hash(key);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                FilePointer filePointer = lookup(key, hash);
+                if (lock.validate(stamp)) {
+                    return filePointer;
+                }
+            } catch (RuntimeException ignored) {
+                // A concurrent resize got in the way, retry under the read lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return lookup(key, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean replace(byte[] key, FilePointer expected, FilePointer value) {
+        if (key == null || expected == null || value == null) {
+            return false;
+        }
+
+        int hash = hash(key);
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(slots, capacity, key, hash);
+            if (keyReference(slots, slot) == 0 || !expected.equals(filePointerAt(slots, slot))) {
+                return false;
+            }
+            setFilePointer(slot, value);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public FilePointer remove(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+
+        int hash = hash(key);
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(slots, capacity, key, hash);
+            if (keyReference(slots, slot) == 0) {
+                return null;
+            }
+            FilePointer previous = filePointerAt(slots, slot);
+            removeSlot(slot);
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(byte[] key, FilePointer expected) {
+        if (key == null || expected == null) {
+            return false;
+        }
+
+        int hash = hash(key);
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(slots, capacity, key, hash);
+            if (keyReference(slots, slot) == 0 || !expected.equals(filePointerAt(slots, slot))) {
+                return false;
+            }
+            removeSlot(slot);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void removeSlot(int slot) {
+        long keyReference = keyReference(slots, slot);
+        deadArenaBytes += 2 + (arenaChunk(arena, keyReference).getShort(arenaPosition(keyReference)) & 0xFFFF);
+
+        // Shift later entries of the probe sequence back, so that no lookup stops at the emptied slot
+        int mask = capacity - 1;
+        int next = (slot + 1) & mask;
+        long nextKeyReference;
+        while ((nextKeyReference = keyReference(slots, next)) != 0) {
+            int home = hash(loadKey(nextKeyReference)) & mask;
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                copySlot(slot, next);
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        ByteBuffer buffer = writableSlotBuffer(slot);
+        int position = slotPosition(slot);
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+            buffer.putLong(position + i, 0);
+        }
+        size--;
+
+        // At least a chunk of removed keys, so that a small table does not rebuild its arena over and over
+        if (deadArenaBytes > ARENA_CHUNK_SIZE && deadArenaBytes > arenaBytes * MAX_DEAD_ARENA_RATIO) {
+            rebuildArena();
+        }
+    }
+
+    /**
+     * Copies the keys of the table into a new arena. Open views keep the chunks of the old one.
+     */
+    private void rebuildArena() {
+        List<ByteBuffer> oldArena = newArena();
+        for (int slot = 0; slot < capacity; slot++) {
+            long keyReference = keyReference(slots, slot);
+            if (keyReference != 0) {
+                long newKeyReference = storeKey(loadKey(oldArena, keyReference), keyReference & HASH_TAG_MASK);
+                writableSlotBuffer(slot).putLong(slotPosition(slot) + KEY_REFERENCE_OFFSET, newKeyReference);
+            }
+        }
+    }
+
+    /**
+     * Starts an empty arena.
+     *
+     * @return the old arena
+     */
+    private List<ByteBuffer> newArena() {
+        List<ByteBuffer> oldArena = arena;
+        arena = new ArrayList<>();
+        arenaBytes = 0;
+        deadArenaBytes = 0;
+        return oldArena;
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long memoryUsage() {
+        long stamp = lock.readLock();
+        try {
+            return (long) capacity * SLOT_SIZE + (long) arena.size() * ARENA_CHUNK_SIZE;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visits the table as it was when the call started, writers continue meanwhile.
+     */
+    @Override
+    public void forEach(BiConsumer<byte[], FilePointer> action) {
+        try (SlotView view = openView()) {
+            view.forEach((key, logIdAndLength, offset) ->
+                action.accept(key, FilePointer.unpack(logIdAndLength, offset)));
+        }
+    }
+
+    /**
+     * A copy-on-write view of the slots, visited exactly once per key.
+     */
+    @Override
+    public FileTableView view() {
+        return openView();
+    }
+
+    @Override
+    public void saveToDisk(String filePath, LogPosition logPosition, ExpiryLookup expiries)
+        throws FileNotFoundException {
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(filePath);
+             SlotView view = openView()) {
+            view.forEach((key, logIdAndLength, offset) -> {
+                try {
+                    writer.append(key, logIdAndLength, offset, expiries.getExpiresAt(key, logIdAndLength, offset));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.commit(logPosition);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SlotView openView() {
+        long stamp = lock.writeLock();
+        try {
+            ByteBuffer[] view = slots.clone();
+            for (ByteBuffer buffer : view) {
+                viewedSlots.merge(buffer, 1, Integer::sum);
+            }
+            return new SlotView(view, new ArrayList<>(arena), capacity);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Slot buffer to change the slot in, copied first if an open view still uses it.
+     */
+    private ByteBuffer writableSlotBuffer(int slot) {
+        int index = slot >>> SLOTS_PER_BUFFER_SHIFT;
+        ByteBuffer buffer = slots[index];
+        if (!viewedSlots.isEmpty() && viewedSlots.containsKey(buffer)) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(buffer.capacity());
+            copy.put(0, buffer, 0, buffer.capacity());
+            slots[index] = copy;
+            return copy;
+        }
+        return buffer;
+    }
+
+    private FilePointer lookup(byte[] key, int hash) {
+        ByteBuffer[] currentSlots = slots;
+        int currentCapacity = capacity;
+        int slot = findSlot(currentSlots, currentCapacity, key, hash);
+        if (keyReference(currentSlots, slot) == 0) {
+            return null;
+        }
+        return filePointerAt(currentSlots, slot);
+    }
+
+    private static FilePointer filePointerAt(ByteBuffer[] currentSlots, int slot) {
+        ByteBuffer buffer = slotBuffer(currentSlots, slot);
+        int position = slotPosition(slot);
+        return FilePointer.unpack(buffer.getLong(position + LOG_ID_AND_LENGTH_OFFSET),
+            buffer.getLong(position + OFFSET_OFFSET));
+    }
+
+    private void setFilePointer(int slot, FilePointer filePointer) {
+        ByteBuffer buffer = writableSlotBuffer(slot);
+        int position = slotPosition(slot);
+        buffer.putLong(position + LOG_ID_AND_LENGTH_OFFSET, filePointer.packLogIdAndLength());
+        buffer.putLong(position + OFFSET_OFFSET, filePointer.getOffset());
+    }
+
+    /**
+     * Linear probing for the slot of the key, or the empty slot where it belongs.
+     */
+    private int findSlot(ByteBuffer[] currentSlots, int currentCapacity, byte[] key, int hash) {
+        int mask = currentCapacity - 1;
+        int slot = hash & mask;
+        long hashTag = hashTag(hash);
+        for (int probes = 0; probes < currentCapacity; probes++) {
+            long keyReference = keyReference(currentSlots, slot);
+            if (keyReference == 0) {
+                return slot;
+            }
+            if ((keyReference & HASH_TAG_MASK) == hashTag && keyEquals(keyReference, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("File-table is full");
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuffer[] newSlots = allocateSlots(newCapacity);
+        int mask = newCapacity - 1;
+        // Every key is loaded anyway, so removed keys are dropped from the arena on the way
+        boolean rebuildArena = deadArenaBytes > 0;
+        List<ByteBuffer> oldArena = rebuildArena ? newArena() : arena;
+        for (int slot = 0; slot < capacity; slot++) {
+            long keyReference = keyReference(slots, slot);
+            if (keyReference == 0) {
+                continue;
+            }
+            ByteBuffer buffer = slotBuffer(slots, slot);
+            int position = slotPosition(slot);
+            byte[] key = loadKey(oldArena, keyReference);
+            int hash = hash(key);
+
+            int newSlot = hash & mask;
+            while (keyReference(newSlots, newSlot) != 0) {
+                newSlot = (newSlot + 1) & mask;
+            }
+            ByteBuffer newBuffer = slotBuffer(newSlots, newSlot);
+            int newPosition = slotPosition(newSlot);
+            for (int i = 0; i < SLOT_SIZE; i += 8) {
+                newBuffer.putLong(newPosition + i, buffer.getLong(position + i));
+            }
+            if (rebuildArena) {
+                newBuffer.putLong(newPosition + KEY_REFERENCE_OFFSET, storeKey(key, keyReference & HASH_TAG_MASK));
+            }
+        }
+        slots = newSlots;
+        capacity = newCapacity;
+    }
+
+    private void copySlot(int targetSlot, int sourceSlot) {
+        ByteBuffer source = slotBuffer(slots, sourceSlot);
+        int sourcePosition = slotPosition(sourceSlot);
+        ByteBuffer target = writableSlotBuffer(targetSlot);
+        int targetPosition = slotPosition(targetSlot);
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+            target.putLong(targetPosition + i, source.getLong(sourcePosition + i));
+        }
+    }
+
+    private static long keyReference(ByteBuffer[] currentSlots, int slot) {
+        return slotBuffer(currentSlots, slot).getLong(slotPosition(slot) + KEY_REFERENCE_OFFSET);
+    }
+
+    private static ByteBuffer slotBuffer(ByteBuffer[] currentSlots, int slot) {
+        return currentSlots[slot >>> SLOTS_PER_BUFFER_SHIFT];
+    }
+
+    private static int slotPosition(int slot) {
+        return (slot & (SLOTS_PER_BUFFER - 1)) * SLOT_SIZE;
+    }
+
+    private static long hashTag(int hash) {
+        return ((long) hash << 32) & HASH_TAG_MASK;
+    }
+
+    /**
+     * Copies the key into the arena and returns its reference: 16 bits of hash, 24 bits of chunk index and 24 bits
+     * of position + 1.
+     */
+    private long storeKey(byte[] key, long hashTag) {
+        int required = 2 + key.length;
+        ByteBuffer chunk = arena.isEmpty() ? null : arena.get(arena.size() - 1);
+        if (chunk == null || chunk.remaining() < required) {
+            chunk = ByteBuffer.allocateDirect(ARENA_CHUNK_SIZE);
+            arena.add(chunk);
+        }
+        int position = chunk.position();
+        chunk.putShort((short) key.length);
+        chunk.put(key);
+        arenaBytes += required;
+        return hashTag | ((long) (arena.size() - 1) << CHUNK_SHIFT) | (position + 1L);
+    }
+
+    private static ByteBuffer arenaChunk(List<ByteBuffer> arena, long keyReference) {
+        return arena.get((int) ((keyReference & ~HASH_TAG_MASK) >>> CHUNK_SHIFT));
+    }
+
+    private static int arenaPosition(long keyReference) {
+        return (int) (keyReference & ((1 << CHUNK_SHIFT) - 1)) - 1;
+    }
+
+    private boolean keyEquals(long keyReference, byte[] key) {
+        ByteBuffer chunk = arenaChunk(arena, keyReference);
+        int position = arenaPosition(keyReference);
+        if ((chunk.getShort(position) & 0xFFFF) != key.length) {
+            return false;
+        }
+        position += 2;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] loadKey(long keyReference) {
+        return loadKey(arena, keyReference);
+    }
+
+    private static byte[] loadKey(List<ByteBuffer> arena, long keyReference) {
+        ByteBuffer chunk = arenaChunk(arena, keyReference);
+        int position = arenaPosition(keyReference);
+        byte[] key = new byte[chunk.getShort(position) & 0xFFFF];
+        chunk.get(position + 2, key);
+        return key;
+    }
+
+    private interface SlotConsumer {
+        void accept(byte[] key, long logIdAndLength, long offset);
+    }
+
+    /**
+     * Slot buffers of the view are not changed anymore, and keys in the arena never change.
+     */
+    private final class SlotView implements FileTableView {
+        private final ByteBuffer[] view;
+        private final List<ByteBuffer> arenaView;
+        private final int viewCapacity;
+        private boolean closed = false;
+
+        private SlotView(ByteBuffer[] view, List<ByteBuffer> arenaView, int viewCapacity) {
+            this.view = view;
+            this.arenaView = arenaView;
+            this.viewCapacity = viewCapacity;
+        }
+
+        @Override
+        public void forEach(Consumer<FilePointer> action) {
+            forEach((key, logIdAndLength, offset) -> action.accept(FilePointer.unpack(logIdAndLength, offset)), false);
+        }
+
+        void forEach(SlotConsumer consumer) {
+            forEach(consumer, true);
+        }
+
+        private void forEach(SlotConsumer consumer, boolean loadKeys) {
+            for (int slot = 0; slot < viewCapacity; slot++) {
+                long keyReference = keyReference(view, slot);
+                if (keyReference == 0) {
+                    continue;
+                }
+                ByteBuffer buffer = slotBuffer(view, slot);
+                int position = slotPosition(slot);
+                consumer.accept(loadKeys ? loadKey(arenaView, keyReference) : null,
+                    buffer.getLong(position + LOG_ID_AND_LENGTH_OFFSET), buffer.getLong(position + OFFSET_OFFSET));
+            }
+        }
+
+        @Override
+        public void close() {
+            long stamp = lock.writeLock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                for (ByteBuffer buffer : view) {
+                    viewedSlots.computeIfPresent(buffer, (viewed, count) -> count == 1 ? null : count - 1);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
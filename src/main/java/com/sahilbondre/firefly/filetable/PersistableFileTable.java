@@ -1,11 +1,61 @@
 package com.sahilbondre.firefly.filetable;
 
 import java.io.FileNotFoundException;
+import java.util.function.BiConsumer;
 
 public interface PersistableFileTable {
-    void put(byte[] key, FilePointer value);
+    /**
+     * @return the file-pointer the key pointed to before, or null
+     */
+    FilePointer put(byte[] key, FilePointer value);
 
     FilePointer get(byte[] key);
 
-    void saveToDisk(String filePath) throws FileNotFoundException;
+    /**
+     * Atomically points the key to the new value, only if it still points to the expected value.
+     */
+    boolean replace(byte[] key, FilePointer expected, FilePointer value);
+
+    /**
+     * @return the file-pointer the key pointed to, or null
+     */
+    FilePointer remove(byte[] key);
+
+    /**
+     * Atomically removes the key, only if it still points to the expected value.
+     */
+    boolean remove(byte[] key, FilePointer expected);
+
+    int size();
+
+    /**
+     * Rough estimate of the memory taken by keys and file-pointers, in bytes.
+     */
+    long memoryUsage();
+
+    /**
+     * Visits every key with its file-pointer. Keys that are put or removed meanwhile may or may not be visited.
+     */
+    void forEach(BiConsumer<byte[], FilePointer> action);
+
+    /**
+     * Takes a view of the file-pointers as they are now, which can be visited while writers continue.
+     */
+    FileTableView view();
+
+    default void saveToDisk(String filePath) throws FileNotFoundException {
+        saveToDisk(filePath, null);
+    }
+
+    default void saveToDisk(String filePath, LogPosition position) throws FileNotFoundException {
+        saveToDisk(filePath, position, ExpiryLookup.NONE);
+    }
+
+    /**
+     * Saves a snapshot that is consistent with the logs up to {@code position}, see
+     * {@link FileTableSnapshot#readPosition(String)}.
+     *
+     * @param expiries expiry of the values the entries point to
+     */
+    void saveToDisk(String filePath, LogPosition position, ExpiryLookup expiries) throws FileNotFoundException;
 }
@@ -1,64 +1,218 @@
 package com.sahilbondre.firefly.filetable;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.Serializable;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
-public class SerializedPersistableFileTable implements PersistableFileTable, Serializable {
+/**
+ * File-table that keeps keys and file-pointers as objects on the heap, in a concurrent hash map.
+ * <p>
+ * It is saved as a {@link FileTableSnapshot} while writers continue. The snapshot is weakly consistent: it holds
+ * every key that was neither put nor removed during the save with its file-pointer, and any other key as it was at
+ * some point during the save.
+ * <p>
+ * Views are consistent instead: while one is open, changes record the previous file-pointer of the key for it.
+ */
+public class SerializedPersistableFileTable implements PersistableFileTable {
 
-    private static final Kryo kryo = new Kryo();
+    private static final long ENTRY_OVERHEAD = 144;
+    // Previous file-pointer of keys that were absent
+    private static final FilePointer ABSENT = new FilePointer(-1, -1, -1);
 
     private final Map<String, FilePointer> table;
+    private final List<UndoLogView> views = new CopyOnWriteArrayList<>();
 
     public SerializedPersistableFileTable() {
-        kryo.register(SerializedPersistableFileTable.class);
-        kryo.register(HashMap.class);
-        kryo.register(FilePointer.class);
-        this.table = new HashMap<>();
+        this(16);
+    }
+
+    private SerializedPersistableFileTable(int initialCapacity) {
+        this.table = new ConcurrentHashMap<>(initialCapacity);
     }
 
     public static SerializedPersistableFileTable fromEmpty() {
         return new SerializedPersistableFileTable();
     }
 
-    public static SerializedPersistableFileTable fromFile(String filePath) throws FileNotFoundException, KryoException {
-        kryo.register(SerializedPersistableFileTable.class);
-        kryo.register(HashMap.class);
-        kryo.register(FilePointer.class);
-        try (Input input = new Input(new FileInputStream(filePath))) {
-            return kryo.readObject(input, SerializedPersistableFileTable.class);
-        } catch (KryoException e) {
-            throw new InvalidFileTableException("Failed to load FileTable from disk: " + e.getMessage());
-        }
+    public static SerializedPersistableFileTable fromFile(String filePath) throws FileNotFoundException {
+        return fromFile(filePath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads a snapshot with {@code threads} threads.
+     */
+    public static SerializedPersistableFileTable fromFile(String filePath, int threads)
+        throws FileNotFoundException {
+        return fromFile(filePath, threads, FileTableSnapshot.ExpiringEntryConsumer.NONE);
     }
 
+    /**
+     * Loads a snapshot and passes its entries whose values expire to {@code expiringEntries}, possibly from several
+     * threads at a time.
+     */
+    public static SerializedPersistableFileTable fromFile(String filePath, int threads,
+        FileTableSnapshot.ExpiringEntryConsumer expiringEntries) throws FileNotFoundException {
+        long entryCount = FileTableSnapshot.readEntryCount(filePath);
+        SerializedPersistableFileTable fileTable = new SerializedPersistableFileTable(
+            (int) Math.min(entryCount, Integer.MAX_VALUE));
+        FileTableSnapshot.read(filePath, threads, chunk -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                fileTable.table.put(new String(chunk.getKey(i), StandardCharsets.ISO_8859_1),
+                    FilePointer.unpack(chunk.getLogIdAndLength(i), chunk.getOffset(i)));
+            }
+            chunk.forEachExpiring(expiringEntries);
+        });
+        return fileTable;
+    }
     @Override
-    public void put(byte[] key, FilePointer value) {
+    public FilePointer put(byte[] key, FilePointer value) {
         if (key != null && value != null) {
-            table.put(new String(key), value);
+            if (views.isEmpty()) {
+                return table.put(new String(key, StandardCharsets.ISO_8859_1), value);
+            }
+            return change(new String(key, StandardCharsets.ISO_8859_1), current -> value);
         }
+        return null;
     }
 
     @Override
     public FilePointer get(byte[] key) {
         if (key != null) {
-            return table.get(new String(key));
+            return table.get(new String(key, StandardCharsets.ISO_8859_1));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean replace(byte[] key, FilePointer expected, FilePointer value) {
+        if (key != null && expected != null && value != null) {
+            if (views.isEmpty()) {
+                return table.replace(new String(key, StandardCharsets.ISO_8859_1), expected, value);
+            }
+            return expected.equals(change(new String(key, StandardCharsets.ISO_8859_1),
+                current -> expected.equals(current) ? value : current));
+        }
+        return false;
+    }
+
+    @Override
+    public FilePointer remove(byte[] key) {
+        if (key != null) {
+            if (views.isEmpty()) {
+                return table.remove(new String(key, StandardCharsets.ISO_8859_1));
+            }
+            return change(new String(key, StandardCharsets.ISO_8859_1), current -> null);
         }
         return null;
     }
 
     @Override
-    public void saveToDisk(String filePath) throws FileNotFoundException {
-        Output output = new Output(new FileOutputStream(filePath));
-        kryo.writeObject(output, this);
-        output.close();
+    public boolean remove(byte[] key, FilePointer expected) {
+        if (key != null && expected != null) {
+            if (views.isEmpty()) {
+                return table.remove(new String(key, StandardCharsets.ISO_8859_1), expected);
+            }
+            return expected.equals(change(new String(key, StandardCharsets.ISO_8859_1),
+                current -> expected.equals(current) ? null : current));
+        }
+        return false;
+    }
+
+    /**
+     * Changes the file-pointer of a key atomically, recording the previous one for the open views.
+     *
+     * @return the previous file-pointer, or null
+     */
+    private FilePointer change(String key, UnaryOperator<FilePointer> change) {
+        FilePointer[] previous = new FilePointer[1];
+        table.compute(key, (k, current) -> {
+            previous[0] = current;
+            FilePointer value = change.apply(current);
+            if (value != current) {
+                for (UndoLogView view : views) {
+                    view.previousValues.putIfAbsent(k, current == null ? ABSENT : current);
+                }
+            }
+            return value;
+        });
+        return previous[0];
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public long memoryUsage() {
+        // Map node, String, its array and the file-pointer, with keys of about 16 bytes
+        return table.size() * ENTRY_OVERHEAD;
+    }
+
+    @Override
+    public void forEach(BiConsumer<byte[], FilePointer> action) {
+        for (Map.Entry<String, FilePointer> entry : table.entrySet()) {
+            action.accept(entry.getKey().getBytes(StandardCharsets.ISO_8859_1), entry.getValue());
+        }
+    }
+
+    @Override
+    public FileTableView view() {
+        UndoLogView view = new UndoLogView();
+        views.add(view);
+        return view;
+    }
+
+    @Override
+    public void saveToDisk(String filePath, LogPosition position, ExpiryLookup expiries)
+        throws FileNotFoundException {
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(filePath)) {
+            for (Map.Entry<String, FilePointer> entry : table.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+                long logIdAndLength = entry.getValue().packLogIdAndLength();
+                long offset = entry.getValue().getOffset();
+                writer.append(key, logIdAndLength, offset, expiries.getExpiresAt(key, logIdAndLength, offset));
+            }
+            writer.commit(position);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Previous file-pointers of the keys changed since the view was taken, which replace their current ones.
+     */
+    private final class UndoLogView implements FileTableView {
+        private final Map<String, FilePointer> previousValues = new ConcurrentHashMap<>();
+
+        @Override
+        public void forEach(Consumer<FilePointer> action) {
+            // A key changed after it was visited here is visited again below, with the same file-pointer
+            for (Map.Entry<String, FilePointer> entry : table.entrySet()) {
+                if (!previousValues.containsKey(entry.getKey())) {
+                    action.accept(entry.getValue());
+                }
+            }
+            for (FilePointer previous : previousValues.values()) {
+                if (previous != ABSENT) {
+                    action.accept(previous);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            views.remove(this);
+        }
     }
 }
@@ -2,26 +2,39 @@ package com.sahilbondre.firefly.log;
 
 import com.sahilbondre.firefly.filetable.FilePointer;
 import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class FileChannelRandomAccessLog implements RandomAccessLog {
 
     private final String filePath;
+    private final int logId;
     private final RandomAccessFile randomAccessFile;
     private final FileChannel fileChannel;
     private final FileLock fileLock;
+    private volatile SegmentFormat format;
 
     public FileChannelRandomAccessLog(String filePath) throws IOException {
+        this(filePath, parseLogId(filePath));
+    }
+
+    public FileChannelRandomAccessLog(String filePath, int logId) throws IOException {
         this.filePath = filePath;
+        this.logId = logId;
         this.randomAccessFile = new RandomAccessFile(filePath, "rw");
         this.fileChannel = randomAccessFile.getChannel();
         this.fileLock = fileChannel.lock();
+        this.format = detectFormat();
     }
 
     @Override
@@ -34,12 +47,61 @@ public class FileChannelRandomAccessLog implements RandomAccessLog {
         return filePath;
     }
 
+    @Override
+    public SegmentFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized void writeHeader(SegmentFormat format) throws IOException {
+        if (fileChannel.size() != 0) {
+            throw new IllegalStateException("Header can only be written to an empty log.");
+        }
+        ByteBuffer header = ByteBuffer.wrap(format.getLogHeader());
+        while (header.hasRemaining()) {
+            fileChannel.write(header, header.position());
+        }
+        this.format = format;
+    }
+
     @Override
     public FilePointer append(byte[] message) throws IOException {
         fileChannel.position(fileChannel.size());
         ByteBuffer buffer = ByteBuffer.wrap(message);
         fileChannel.write(buffer);
-        return new FilePointer(filePath, fileChannel.size() - message.length);
+        return new FilePointer(logId, fileChannel.size() - message.length, message.length);
+    }
+
+    @Override
+    public List<FilePointer> append(List<byte[]> messages) throws IOException {
+        long offset = fileChannel.size();
+        fileChannel.position(offset);
+
+        // Gather all messages into a single write
+        ByteBuffer[] buffers = new ByteBuffer[messages.size()];
+        List<FilePointer> filePointers = new ArrayList<>(messages.size());
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            byte[] message = messages.get(i);
+            buffers[i] = ByteBuffer.wrap(message);
+            filePointers.add(new FilePointer(logId, offset + remaining, message.length));
+            remaining += message.length;
+        }
+
+        while (remaining > 0) {
+            remaining -= fileChannel.write(buffers);
+        }
+        return filePointers;
+    }
+
+    @Override
+    public void force() throws IOException {
+        fileChannel.force(false);
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        fileChannel.truncate(size);
     }
 
     @Override
@@ -50,56 +112,121 @@ public class FileChannelRandomAccessLog implements RandomAccessLog {
             throw new InvalidRangeException("Invalid offset or length");
         }
 
-        fileChannel.position(offset);
         ByteBuffer buffer = ByteBuffer.allocate((int) length);
-        fileChannel.read(buffer);
+        readFully(buffer, offset);
         return buffer.array();
     }
 
     @Override
-    public Segment readSegment(long offset) throws IOException, InvalidRangeException {
-        long fileSize = fileChannel.size();
-
-        if (offset < 0 || offset >= fileSize) {
-            throw new InvalidRangeException("Invalid offset");
+    public void read(long offset, ByteBuffer destination) throws IOException, InvalidRangeException {
+        if (offset < 0) {
+            throw new InvalidRangeException("Invalid offset or length");
         }
+        readFully(destination, offset);
+    }
 
-        // Read Key Size
-        byte[] keySizeBytes = new byte[Segment.KEY_SIZE_LENGTH];
-        fileChannel.read(ByteBuffer.wrap(keySizeBytes), offset + Segment.KEY_SIZE_LENGTH);
+    @Override
+    public void transferTo(long offset, long length, WritableByteChannel target)
+        throws IOException, InvalidRangeException {
+        if (offset < 0 || length < 0 || offset + length > fileChannel.size()) {
+            throw new InvalidRangeException("Invalid offset or length");
+        }
 
-        // Read Value Size
-        byte[] valueSizeBytes = new byte[Segment.VALUE_SIZE_LENGTH];
-        fileChannel.read(ByteBuffer.wrap(valueSizeBytes),
-            offset + Segment.KEY_SIZE_LENGTH + Segment.VALUE_SIZE_LENGTH);
+        // Uses sendfile where the target allows it
+        while (length > 0) {
+            long transferred = fileChannel.transferTo(offset, length, target);
+            offset += transferred;
+            length -= transferred;
+        }
+    }
 
-        // Total Size
-        int totalSize = Segment.CRC_LENGTH + Segment.KEY_SIZE_LENGTH +
-            Segment.VALUE_SIZE_LENGTH + byteArrayToInt(keySizeBytes) + byteArrayToInt(valueSizeBytes);
+    @Override
+    public Segment readSegment(long offset) throws IOException, InvalidRangeException {
+        long fileSize = fileChannel.size();
+        SegmentFormat format = this.format;
+        int headerLength = format.getHeaderLength();
 
-        // Read entire segment
-        byte[] segmentBytes = new byte[totalSize];
-        fileChannel.read(ByteBuffer.wrap(segmentBytes), offset);
+        if (offset < 0 || offset + headerLength > fileSize) {
+            throw new InvalidRangeException("Invalid offset");
+        }
 
+        // Read header
+        byte[] header = new byte[headerLength];
+        readFully(ByteBuffer.wrap(header), offset);
+        Segment headerOnly = Segment.fromByteArray(header, format);
+        long totalSize = (long) headerLength + headerOnly.getKeySize() + headerOnly.getValueSize();
+        if (headerOnly.getValueSize() < 0 || offset + totalSize > fileSize) {
+            throw new InvalidRangeException("Segment is invalid");
+        }
 
-        Segment segment = Segment.fromByteArray(segmentBytes);
+        // Read key and value after the header
+        byte[] segmentBytes = Arrays.copyOf(header, (int) totalSize);
+        readFully(ByteBuffer.wrap(segmentBytes, headerLength, segmentBytes.length - headerLength),
+            offset + headerLength);
+        return validate(segmentBytes, format);
+    }
 
-        // Validate CRC
-        if (!segment.isSegmentValid()) {
-            throw new InvalidRangeException("Segment is invalid");
+    @Override
+    public Segment readSegment(long offset, int length) throws IOException, InvalidRangeException {
+        SegmentFormat format = this.format;
+        if (offset < 0 || length < format.getHeaderLength()) {
+            throw new InvalidRangeException("Invalid offset or length");
         }
 
-        return segment;
+        // Header, key and value in a single positional read
+        byte[] segmentBytes = new byte[length];
+        readFully(ByteBuffer.wrap(segmentBytes), offset);
+        return validate(segmentBytes, format);
     }
 
     @Override
     public Integer getLogId() {
+        return logId;
+    }
+
+    FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    private static int parseLogId(String filePath) {
         String fileNameWithoutPath = Paths.get(filePath).getFileName().toString();
         return Integer.parseInt(fileNameWithoutPath.substring(0, fileNameWithoutPath.length() - 4));
     }
 
-    private int byteArrayToInt(byte[] bytes) {
-        return (bytes[0] << 8) | (bytes[1] & 0xFF);
+    private void readFully(ByteBuffer buffer, long position) throws IOException, InvalidRangeException {
+        while (buffer.hasRemaining()) {
+            int read = fileChannel.read(buffer, position);
+            if (read < 0) {
+                throw new InvalidRangeException("Invalid offset or length");
+            }
+            position += read;
+        }
+    }
+
+    private SegmentFormat detectFormat() throws IOException {
+        long headerLength = SegmentFormat.LATEST.getLogHeaderLength();
+        if (fileChannel.size() < headerLength) {
+            return SegmentFormat.V1;
+        }
+        ByteBuffer header = ByteBuffer.allocate((int) headerLength);
+        try {
+            readFully(header, 0);
+            return SegmentFormat.fromLogHeader(header.array());
+        } catch (IllegalArgumentException e) {
+            close();
+            throw new IOException("Log " + filePath + " has an unknown format", e);
+        }
+    }
+
+    private static Segment validate(byte[] segmentBytes, SegmentFormat format) throws InvalidRangeException {
+        Segment segment = Segment.fromByteArray(segmentBytes, format);
+
+        // Validate CRC
+        if (!segment.isSegmentValid()) {
+            throw new InvalidRangeException("Segment is invalid");
+        }
+
+        return segment;
     }
 
     public void close() throws IOException {
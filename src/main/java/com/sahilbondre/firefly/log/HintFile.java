@@ -0,0 +1,171 @@
+package com.sahilbondre.firefly.log;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact index of a sealed log, stored next to it as N.hint.
+ * <p>
+ * Loading a hint file rebuilds the file-table entries of a log without reading any values.
+ * <p>
+ * 4 bytes: Magic
+ * 1 byte: Version
+ * 4 bytes: Log id
+ * Entries:
+ * 2 bytes: Key Size
+ * 4 bytes: Segment Size
+ * 8 bytes: Segment Offset
+ * 1 byte: Entry Type (0 for a value, 1 for a tombstone, 2 for a value that expires), since version 2
+ * 8 bytes: Expiry in epoch milliseconds, only for values that expire
+ * n bytes: Key
+ * Trailer:
+ * 2 bytes: Zero (end of entries)
+ * 4 bytes: Entry count
+ * 8 bytes: CRC32 of everything before the trailer checksum
+ */
+public class HintFile {
+    private static final int MAGIC = 0x46464849;
+    private static final byte VERSION = 2;
+    // Version 1 has no entry type, it was written before deletes existed
+    private static final byte VERSION_WITHOUT_TYPE = 1;
+    private static final byte VALUE_ENTRY = 0;
+    private static final byte TOMBSTONE_ENTRY = 1;
+    private static final byte EXPIRING_ENTRY = 2;
+    private static final String HINT_EXTENSION = ".hint";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private HintFile() {
+    }
+
+    public static String getHintFilePath(String logFilePath) {
+        return logFilePath.substring(0, logFilePath.length() - 4) + HINT_EXTENSION;
+    }
+
+    public static Writer create(String hintFilePath, int logId) throws IOException {
+        return new Writer(hintFilePath, logId);
+    }
+
+    public static void read(String hintFilePath, int logId, EntryConsumer consumer)
+        throws IOException, InvalidHintFileException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream input = new DataInputStream(new CheckedInputStream(
+            new BufferedInputStream(new FileInputStream(hintFilePath)), crc))) {
+            if (input.readInt() != MAGIC) {
+                throw new InvalidHintFileException("Unknown hint file format: " + hintFilePath);
+            }
+            byte version = input.readByte();
+            if (version != VERSION && version != VERSION_WITHOUT_TYPE) {
+                throw new InvalidHintFileException("Unknown hint file format: " + hintFilePath);
+            }
+            if (input.readInt() != logId) {
+                throw new InvalidHintFileException("Hint file belongs to another log: " + hintFilePath);
+            }
+
+            int count = 0;
+            int keySize;
+            while ((keySize = input.readUnsignedShort()) != 0) {
+                int size = input.readInt();
+                long offset = input.readLong();
+                byte type = version == VERSION_WITHOUT_TYPE ? VALUE_ENTRY : input.readByte();
+                long expiresAt = type == EXPIRING_ENTRY ? input.readLong() : 0;
+                byte[] key = new byte[keySize];
+                input.readFully(key);
+                consumer.accept(key, offset, size, type == TOMBSTONE_ENTRY, expiresAt);
+                count++;
+            }
+
+            if (input.readInt() != count) {
+                throw new InvalidHintFileException("Hint file is truncated: " + hintFilePath);
+            }
+            long expectedCrc = crc.getValue();
+            if (input.readLong() != expectedCrc) {
+                throw new InvalidHintFileException("Hint file checksum mismatch: " + hintFilePath);
+            }
+        } catch (EOFException e) {
+            throw new InvalidHintFileException("Hint file is truncated: " + hintFilePath);
+        }
+    }
+
+    public interface EntryConsumer {
+        /**
+         * @param expiresAt expiry of the value in epoch milliseconds, or 0 if it does not expire
+         */
+        void accept(byte[] key, long offset, int size, boolean tombstone, long expiresAt);
+    }
+
+    /**
+     * Writes a hint file to a temporary path and moves it in place on commit, so a partially written hint file is
+     * never picked up.
+     */
+    public static class Writer implements Closeable {
+        private final Path hintFilePath;
+        private final Path tempFilePath;
+        private final FileOutputStream fileOutputStream;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream output;
+        private int count = 0;
+        private boolean committed = false;
+
+        private Writer(String hintFilePath, int logId) throws IOException {
+            this.hintFilePath = Paths.get(hintFilePath);
+            this.tempFilePath = Paths.get(hintFilePath + TEMP_EXTENSION);
+            this.fileOutputStream = new FileOutputStream(tempFilePath.toFile());
+            this.output = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(fileOutputStream, crc)));
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(logId);
+        }
+
+        public void append(byte[] key, long offset, int size) throws IOException {
+            append(key, offset, size, VALUE_ENTRY, 0);
+        }
+
+        public void appendTombstone(byte[] key, long offset, int size) throws IOException {
+            append(key, offset, size, TOMBSTONE_ENTRY, 0);
+        }
+
+        public void appendExpiring(byte[] key, long offset, int size, long expiresAt) throws IOException {
+            append(key, offset, size, EXPIRING_ENTRY, expiresAt);
+        }
+
+        private void append(byte[] key, long offset, int size, byte type, long expiresAt) throws IOException {
+            output.writeShort(key.length);
+            output.writeInt(size);
+            output.writeLong(offset);
+            output.writeByte(type);
+            if (type == EXPIRING_ENTRY) {
+                output.writeLong(expiresAt);
+            }
+            output.write(key);
+            count++;
+        }
+
+        public void commit() throws IOException {
+            output.writeShort(0);
+            output.writeInt(count);
+            output.flush();
+            output.writeLong(crc.getValue());
+            output.flush();
+            fileOutputStream.getFD().sync();
+            output.close();
+            Files.move(tempFilePath, hintFilePath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                output.close();
+                Files.deleteIfExists(tempFilePath);
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.sahilbondre.firefly.log;
+
+public class InvalidHintFileException extends RuntimeException {
+    public InvalidHintFileException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.sahilbondre.firefly.log;
+
+/**
+ * Implementation of the logs opened by a FireflyDB.
+ * <p>
+ * FILE_CHANNEL: Reads are positional reads on the file channel.
+ * MAPPED: Reads are copies out of memory-mapped chunks of the file, best when the logs fit in the page cache.
+ */
+public enum LogType {
+    FILE_CHANNEL,
+    MAPPED
+}
@@ -0,0 +1,240 @@
+package com.sahilbondre.firefly.log;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Log that serves reads from memory-mapped chunks of the file.
+ * <p>
+ * Appends go through a {@link FileChannelRandomAccessLog}. The file is mapped read-only in chunks of
+ * {@link #DEFAULT_CHUNK_SIZE} bytes once they are complete, so a mapping never needs to grow. Reading a mapped range
+ * is a bounds check and a copy, without a syscall, reads of the tail after the last complete chunk go to the file
+ * channel.
+ */
+public class MappedRandomAccessLog implements RandomAccessLog {
+    // Small enough that most of a log is mapped, a single MappedByteBuffer is limited to 2 GB
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannelRandomAccessLog log;
+    private final int chunkSize;
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private volatile long mappedSize = 0;
+
+    public MappedRandomAccessLog(String filePath) throws IOException {
+        this(new FileChannelRandomAccessLog(filePath), DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedRandomAccessLog(String filePath, int logId) throws IOException {
+        this(new FileChannelRandomAccessLog(filePath, logId), DEFAULT_CHUNK_SIZE);
+    }
+
+    MappedRandomAccessLog(FileChannelRandomAccessLog log, int chunkSize) {
+        this.log = log;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return log.size();
+    }
+
+    @Override
+    public String getFilePath() {
+        return log.getFilePath();
+    }
+
+    @Override
+    public SegmentFormat getFormat() {
+        return log.getFormat();
+    }
+
+    @Override
+    public void writeHeader(SegmentFormat format) throws IOException {
+        log.writeHeader(format);
+    }
+
+    @Override
+    public FilePointer append(byte[] message) throws IOException {
+        return log.append(message);
+    }
+
+    @Override
+    public List<FilePointer> append(List<byte[]> messages) throws IOException {
+        return log.append(messages);
+    }
+
+    @Override
+    public void force() throws IOException {
+        log.force();
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        // Accessing a mapping beyond the end of the file crashes the JVM, map again on the next read
+        synchronized (this) {
+            chunks = new MappedByteBuffer[0];
+            mappedSize = 0;
+            log.truncate(size);
+        }
+    }
+
+    @Override
+    public byte[] read(long offset, long length) throws IOException, InvalidRangeException {
+        if (offset < 0 || length <= 0 || length > Integer.MAX_VALUE) {
+            throw new InvalidRangeException("Invalid offset or length");
+        }
+        if (!ensureMapped(offset + length)) {
+            return log.read(offset, length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        copy(offset, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException, InvalidRangeException {
+        if (offset < 0) {
+            throw new InvalidRangeException("Invalid offset or length");
+        }
+        if (!ensureMapped(offset + destination.remaining())) {
+            log.read(offset, destination);
+            return;
+        }
+
+        MappedByteBuffer[] current = chunks;
+        while (destination.hasRemaining()) {
+            MappedByteBuffer chunk = current[(int) (offset / chunkSize)];
+            int position = (int) (offset % chunkSize);
+            int count = Math.min(destination.remaining(), chunk.capacity() - position);
+            destination.put(destination.position(), chunk, position, count);
+            destination.position(destination.position() + count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void transferTo(long offset, long length, WritableByteChannel target)
+        throws IOException, InvalidRangeException {
+        // The file channel can hand the range to the kernel, the mapping cannot
+        log.transferTo(offset, length, target);
+    }
+
+    @Override
+    public Segment readSegment(long offset) throws IOException, InvalidRangeException {
+        SegmentFormat format = log.getFormat();
+        int headerLength = format.getHeaderLength();
+        if (offset < 0) {
+            throw new InvalidRangeException("Invalid offset");
+        }
+        if (!ensureMapped(offset + headerLength)) {
+            return log.readSegment(offset);
+        }
+
+        byte[] header = new byte[headerLength];
+        copy(offset, header, 0, headerLength);
+        Segment headerOnly = Segment.fromByteArray(header, format);
+        long totalSize = (long) headerLength + headerOnly.getKeySize() + headerOnly.getValueSize();
+        if (headerOnly.getValueSize() < 0) {
+            throw new InvalidRangeException("Segment is invalid");
+        }
+        if (!ensureMapped(offset + totalSize)) {
+            return log.readSegment(offset);
+        }
+
+        byte[] segmentBytes = Arrays.copyOf(header, (int) totalSize);
+        copy(offset + headerLength, segmentBytes, headerLength, segmentBytes.length - headerLength);
+        return validate(segmentBytes, format);
+    }
+
+    @Override
+    public Segment readSegment(long offset, int length) throws IOException, InvalidRangeException {
+        SegmentFormat format = log.getFormat();
+        if (offset < 0 || length < format.getHeaderLength()) {
+            throw new InvalidRangeException("Invalid offset or length");
+        }
+        if (!ensureMapped(offset + length)) {
+            return log.readSegment(offset, length);
+        }
+
+        byte[] segmentBytes = new byte[length];
+        copy(offset, segmentBytes, 0, length);
+        return validate(segmentBytes, format);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mappings are released by the GC, they stay valid after the channel is closed
+        chunks = new MappedByteBuffer[0];
+        mappedSize = 0;
+        log.close();
+    }
+
+    @Override
+    public Integer getLogId() {
+        return log.getLogId();
+    }
+
+    /**
+     * Maps the chunks that were completed since the last call if {@code end} is not mapped yet.
+     *
+     * @return whether {@code end} is mapped, otherwise the range is read from the file channel
+     */
+    private boolean ensureMapped(long end) throws IOException {
+        if (end <= mappedSize) {
+            return true;
+        }
+        if (log.size() - mappedSize < chunkSize) {
+            return false;
+        }
+        synchronized (this) {
+            // Complete chunks never change, they are mapped once
+            long fileSize = log.size();
+            int chunkCount = (int) (fileSize / chunkSize);
+            MappedByteBuffer[] current = chunks;
+            if (chunkCount > current.length) {
+                FileChannel fileChannel = log.getFileChannel();
+                MappedByteBuffer[] grown = Arrays.copyOf(current, chunkCount);
+                for (int i = current.length; i < chunkCount; i++) {
+                    grown[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, (long) i * chunkSize, chunkSize);
+                }
+                chunks = grown;
+                mappedSize = (long) chunkCount * chunkSize;
+            }
+            return end <= mappedSize;
+        }
+    }
+
+    private static Segment validate(byte[] segmentBytes, SegmentFormat format) throws InvalidRangeException {
+        Segment segment = Segment.fromByteArray(segmentBytes, format);
+
+        // Validate CRC
+        if (!segment.isSegmentValid()) {
+            throw new InvalidRangeException("Segment is invalid");
+        }
+
+        return segment;
+    }
+
+    private void copy(long offset, byte[] destination, int destinationOffset, int length) {
+        MappedByteBuffer[] current = chunks;
+        while (length > 0) {
+            MappedByteBuffer chunk = current[(int) (offset / chunkSize)];
+            int position = (int) (offset % chunkSize);
+            int count = Math.min(length, chunk.capacity() - position);
+            chunk.get(position, destination, destinationOffset, count);
+            offset += count;
+            destinationOffset += count;
+            length -= count;
+        }
+    }
+}
@@ -2,20 +2,58 @@ package com.sahilbondre.firefly.log;
 
 import com.sahilbondre.firefly.filetable.FilePointer;
 import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 
 public interface RandomAccessLog {
     long size() throws IOException;
 
     String getFilePath();
 
+    /**
+     * Format of the segments of the log, as dictated by its header. A log without a header is in V1.
+     */
+    SegmentFormat getFormat();
+
+    /**
+     * Writes the header of {@code format} to an empty log, its segments are in {@code format} from then on.
+     */
+    void writeHeader(SegmentFormat format) throws IOException;
+
     FilePointer append(byte[] message) throws IOException;
 
+    List<FilePointer> append(List<byte[]> messages) throws IOException;
+
+    void force() throws IOException;
+
+    /**
+     * Drops everything after the first {@code size} bytes, e.g. a record that was not completely written.
+     */
+    void truncate(long size) throws IOException;
+
     byte[] read(long offset, long length) throws IOException, InvalidRangeException;
 
+    /**
+     * Fills the remaining bytes of {@code destination} from {@code offset} on.
+     */
+    void read(long offset, ByteBuffer destination) throws IOException, InvalidRangeException;
+
+    /**
+     * Writes {@code length} bytes from {@code offset} on to {@code target}, without copying them through the heap.
+     */
+    void transferTo(long offset, long length, WritableByteChannel target) throws IOException, InvalidRangeException;
+
     Segment readSegment(long offset) throws IOException, InvalidRangeException;
 
+    /**
+     * Reads a segment whose length is already known, e.g. from its file-pointer, without reading its header first.
+     */
+    Segment readSegment(long offset, int length) throws IOException, InvalidRangeException;
+
     void close() throws IOException;
 
     Integer getLogId();
@@ -0,0 +1,138 @@
+package com.sahilbondre.firefly.log;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a log open until the last reader is done with it.
+ * <p>
+ * Readers {@link #retain()} the log before and {@link #release()} it after reading. {@link #close()} gives up the
+ * owner's reference, so a log that is replaced by compaction is only closed once no reader is using it. A replaced log
+ * that was moved out of the way is deleted at the same time, see {@link #deleteOnRelease(Path)}.
+ */
+public class ReferenceCountedLog implements RandomAccessLog {
+    private final RandomAccessLog log;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile Path orphanedPath;
+
+    public ReferenceCountedLog(RandomAccessLog log) {
+        this.log = log;
+    }
+
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    public void release() throws IOException {
+        if (references.decrementAndGet() == 0) {
+            log.close();
+            Path path = orphanedPath;
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Deletes the file at the path once the last reference is released, e.g. after the log's file was renamed.
+     */
+    public void deleteOnRelease(Path path) {
+        orphanedPath = path;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return log.size();
+    }
+
+    @Override
+    public String getFilePath() {
+        return log.getFilePath();
+    }
+
+    @Override
+    public SegmentFormat getFormat() {
+        return log.getFormat();
+    }
+
+    @Override
+    public void writeHeader(SegmentFormat format) throws IOException {
+        log.writeHeader(format);
+    }
+
+    @Override
+    public FilePointer append(byte[] message) throws IOException {
+        return log.append(message);
+    }
+
+    @Override
+    public List<FilePointer> append(List<byte[]> messages) throws IOException {
+        return log.append(messages);
+    }
+
+    @Override
+    public void force() throws IOException {
+        log.force();
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        log.truncate(size);
+    }
+
+    @Override
+    public byte[] read(long offset, long length) throws IOException, InvalidRangeException {
+        return log.read(offset, length);
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException, InvalidRangeException {
+        log.read(offset, destination);
+    }
+
+    @Override
+    public void transferTo(long offset, long length, WritableByteChannel target)
+        throws IOException, InvalidRangeException {
+        log.transferTo(offset, length, target);
+    }
+
+    @Override
+    public Segment readSegment(long offset) throws IOException, InvalidRangeException {
+        return log.readSegment(offset);
+    }
+
+    @Override
+    public Segment readSegment(long offset, int length) throws IOException, InvalidRangeException {
+        return log.readSegment(offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    @Override
+    public Integer getLogId() {
+        return log.getLogId();
+    }
+}
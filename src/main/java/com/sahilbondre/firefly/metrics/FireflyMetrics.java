@@ -0,0 +1,128 @@
+package com.sahilbondre.firefly.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics of a database at one point in time. Latencies and byte counts are totals since it was started.
+ */
+public class FireflyMetrics {
+    private final LatencySnapshot setLatency;
+    private final LatencySnapshot getLatency;
+    private final LatencySnapshot compactionLatency;
+    private final long bytesAppended;
+    private final long compactedBytes;
+    private final long reclaimedBytes;
+    private final int keyCount;
+    private final long fileTableMemoryUsage;
+    private final Map<Integer, Long> liveBytesByLog;
+    private final Map<Integer, Long> deadBytesByLog;
+
+    public FireflyMetrics(LatencySnapshot setLatency, LatencySnapshot getLatency, LatencySnapshot compactionLatency,
+        long bytesAppended, long compactedBytes, long reclaimedBytes, int keyCount, long fileTableMemoryUsage,
+        Map<Integer, Long> liveBytesByLog, Map<Integer, Long> deadBytesByLog) {
+        this.setLatency = setLatency;
+        this.getLatency = getLatency;
+        this.compactionLatency = compactionLatency;
+        this.bytesAppended = bytesAppended;
+        this.compactedBytes = compactedBytes;
+        this.reclaimedBytes = reclaimedBytes;
+        this.keyCount = keyCount;
+        this.fileTableMemoryUsage = fileTableMemoryUsage;
+        this.liveBytesByLog = Collections.unmodifiableMap(new TreeMap<>(liveBytesByLog));
+        this.deadBytesByLog = Collections.unmodifiableMap(new TreeMap<>(deadBytesByLog));
+    }
+
+    /**
+     * From submitting a set, a delete or a write batch until it is committed.
+     */
+    public LatencySnapshot getSetLatency() {
+        return setLatency;
+    }
+
+    /**
+     * Of reads of a single key, cache hits included.
+     */
+    public LatencySnapshot getGetLatency() {
+        return getLatency;
+    }
+
+    /**
+     * Of compacting all sealed logs once.
+     */
+    public LatencySnapshot getCompactionLatency() {
+        return compactionLatency;
+    }
+
+    /**
+     * Bytes of records appended to active logs.
+     */
+    public long getBytesAppended() {
+        return bytesAppended;
+    }
+
+    /**
+     * Bytes of sealed logs that were compacted.
+     */
+    public long getCompactedBytes() {
+        return compactedBytes;
+    }
+
+    /**
+     * Bytes by which compaction shrank the compacted logs.
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    /**
+     * Compacted bytes per second spent compacting, 0 before the first compaction.
+     */
+    public long getCompactionThroughput() {
+        long nanos = compactionLatency.getTotalNanos();
+        return nanos == 0 ? 0 : (long) (compactedBytes * 1e9 / nanos);
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Rough estimate of the memory taken by the file-table, in bytes.
+     */
+    public long getFileTableMemoryUsage() {
+        return fileTableMemoryUsage;
+    }
+
+    /**
+     * Bytes of the segments the file-table points to, by log id.
+     */
+    public Map<Integer, Long> getLiveBytesByLog() {
+        return liveBytesByLog;
+    }
+
+    /**
+     * Bytes of logs that compaction would drop, by log id: overwritten, deleted and expired values, tombstones and
+     * headers.
+     */
+    public Map<Integer, Long> getDeadBytesByLog() {
+        return deadBytesByLog;
+    }
+
+    public long getLiveBytes() {
+        return sum(liveBytesByLog);
+    }
+
+    public long getDeadBytes() {
+        return sum(deadBytesByLog);
+    }
+
+    private static long sum(Map<Integer, Long> bytesByLog) {
+        long total = 0;
+        for (long bytes : bytesByLog.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+}
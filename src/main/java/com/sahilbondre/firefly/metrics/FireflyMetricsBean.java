@@ -0,0 +1,80 @@
+package com.sahilbondre.firefly.metrics;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Registered with the platform MBean server while a database is started.
+ */
+public class FireflyMetricsBean implements FireflyMetricsMXBean {
+    private final Supplier<FireflyMetrics> metrics;
+
+    public FireflyMetricsBean(Supplier<FireflyMetrics> metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public LatencySnapshot getSetLatency() {
+        return metrics.get().getSetLatency();
+    }
+
+    @Override
+    public LatencySnapshot getGetLatency() {
+        return metrics.get().getGetLatency();
+    }
+
+    @Override
+    public LatencySnapshot getCompactionLatency() {
+        return metrics.get().getCompactionLatency();
+    }
+
+    @Override
+    public long getBytesAppended() {
+        return metrics.get().getBytesAppended();
+    }
+
+    @Override
+    public long getCompactedBytes() {
+        return metrics.get().getCompactedBytes();
+    }
+
+    @Override
+    public long getReclaimedBytes() {
+        return metrics.get().getReclaimedBytes();
+    }
+
+    @Override
+    public long getCompactionThroughput() {
+        return metrics.get().getCompactionThroughput();
+    }
+
+    @Override
+    public int getKeyCount() {
+        return metrics.get().getKeyCount();
+    }
+
+    @Override
+    public long getFileTableMemoryUsage() {
+        return metrics.get().getFileTableMemoryUsage();
+    }
+
+    @Override
+    public long getLiveBytes() {
+        return metrics.get().getLiveBytes();
+    }
+
+    @Override
+    public long getDeadBytes() {
+        return metrics.get().getDeadBytes();
+    }
+
+    @Override
+    public Map<Integer, Long> getLiveBytesByLog() {
+        return metrics.get().getLiveBytesByLog();
+    }
+
+    @Override
+    public Map<Integer, Long> getDeadBytesByLog() {
+        return metrics.get().getDeadBytesByLog();
+    }
+}
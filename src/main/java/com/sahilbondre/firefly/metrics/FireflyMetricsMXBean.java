@@ -0,0 +1,34 @@
+package com.sahilbondre.firefly.metrics;
+
+import java.util.Map;
+
+/**
+ * {@link FireflyMetrics} of a database exposed over JMX, every attribute is read from a new snapshot.
+ */
+public interface FireflyMetricsMXBean {
+    LatencySnapshot getSetLatency();
+
+    LatencySnapshot getGetLatency();
+
+    LatencySnapshot getCompactionLatency();
+
+    long getBytesAppended();
+
+    long getCompactedBytes();
+
+    long getReclaimedBytes();
+
+    long getCompactionThroughput();
+
+    int getKeyCount();
+
+    long getFileTableMemoryUsage();
+
+    long getLiveBytes();
+
+    long getDeadBytes();
+
+    Map<Integer, Long> getLiveBytesByLog();
+
+    Map<Integer, Long> getDeadBytesByLog();
+}
@@ -0,0 +1,67 @@
+package com.sahilbondre.firefly.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, recorded without locks.
+ * <p>
+ * Buckets are log-linear like in an HDR histogram: values below 128 have a bucket each, and every power of two above
+ * is split into 64 buckets. A recorded value is reported at most 1/64 above what it was, over the whole range of
+ * longs, with 3712 counters.
+ * <p>
+ * Recording increments one counter and adds to the sum. Snapshots read the counters while recording continues, so a
+ * value recorded meanwhile may be part of the counters but not of the sum or maximum.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        // A clock that went backwards counts as 0
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public LatencySnapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new LatencySnapshot(snapshotCounts, count, sum.sum(), max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < (1 << SUB_BUCKET_BITS)) {
+            return (int) value;
+        }
+        // Keep the highest SUB_BUCKET_BITS bits of the value
+        int shift = Long.SIZE - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value that is counted in a bucket.
+     */
+    static long highestValue(int bucketIndex) {
+        if (bucketIndex < (1 << SUB_BUCKET_BITS)) {
+            return bucketIndex;
+        }
+        int shift = (bucketIndex >>> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = (bucketIndex & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sahilbondre.firefly.metrics;
+
+/**
+ * Latencies recorded by a {@link LatencyHistogram} up to one point in time, in nanoseconds.
+ */
+public class LatencySnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    LatencySnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return sum;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMaxNanos() {
+        return max;
+    }
+
+    public long getP50Nanos() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP90Nanos() {
+        return getValueAtPercentile(90);
+    }
+
+    public long getP99Nanos() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999Nanos() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Latency that the given percentage of recorded latencies does not exceed, 0 if none were recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,45 @@
+package com.sahilbondre.firefly.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies and byte counts of a database, from its start on.
+ */
+public class MetricsRecorder {
+    private final LatencyHistogram setLatency = new LatencyHistogram();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram compactionLatency = new LatencyHistogram();
+    private final LongAdder bytesAppended = new LongAdder();
+    private final LongAdder compactedBytes = new LongAdder();
+    private final LongAdder reclaimedBytes = new LongAdder();
+
+    public void recordSet(long nanos) {
+        setLatency.record(nanos);
+    }
+
+    public void recordGet(long nanos) {
+        getLatency.record(nanos);
+    }
+
+    public void recordAppend(long bytes) {
+        bytesAppended.add(bytes);
+    }
+
+    /**
+     * @param compactedBytes size of the compacted logs
+     * @param reclaimedBytes bytes by which compaction shrank them
+     */
+    public void recordCompaction(long nanos, long compactedBytes, long reclaimedBytes) {
+        compactionLatency.record(nanos);
+        this.compactedBytes.add(compactedBytes);
+        this.reclaimedBytes.add(reclaimedBytes);
+    }
+
+    public FireflyMetrics snapshot(int keyCount, long fileTableMemoryUsage, Map<Integer, Long> liveBytesByLog,
+        Map<Integer, Long> deadBytesByLog) {
+        return new FireflyMetrics(setLatency.snapshot(), getLatency.snapshot(), compactionLatency.snapshot(),
+            bytesAppended.sum(), compactedBytes.sum(), reclaimedBytes.sum(), keyCount, fileTableMemoryUsage,
+            liveBytesByLog, deadBytesByLog);
+    }
+}
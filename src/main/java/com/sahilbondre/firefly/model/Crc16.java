@@ -0,0 +1,44 @@
+package com.sahilbondre.firefly.model;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-16/CCITT-FALSE, the checksum of V1 segments.
+ */
+class Crc16 implements Checksum {
+    private static final int INITIAL = 0xFFFF;
+    private static final int POLYNOMIAL = 0x1021;
+
+    private int crc = INITIAL;
+
+    @Override
+    public void update(int b) {
+        crc ^= (b & 0xFF) << 8;
+
+        for (int i = 0; i < 8; i++) {
+            if ((crc & 0x8000) != 0) {
+                crc = (crc << 1) ^ POLYNOMIAL;
+            } else {
+                crc <<= 1;
+            }
+        }
+        crc &= 0xFFFF;
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        for (int index = off; index < off + len; index++) {
+            update(b[index]);
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = INITIAL;
+    }
+}
@@ -1,10 +1,31 @@
 package com.sahilbondre.firefly.model;
 
+import com.sahilbondre.firefly.compression.Codec;
+import com.sahilbondre.firefly.compression.Codecs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Checksum;
+
 public class Segment {
 
+    // Lengths in V1 segments, see SegmentFormat for other formats
     public static final int CRC_LENGTH = 2;
+    public static final int HEADER_LENGTH = CRC_LENGTH + Segment.KEY_SIZE_LENGTH + Segment.VALUE_SIZE_LENGTH;
+    public static final int EXTENDED_HEADER_LENGTH = HEADER_LENGTH + Segment.ATTRIBUTES_LENGTH;
     public static final int KEY_SIZE_LENGTH = 2;
     public static final int VALUE_SIZE_LENGTH = 4;
+    public static final int ATTRIBUTES_LENGTH = 1;
+    // Attributes of extended segments
+    public static final byte BATCH = 0x01;
+    public static final byte TOMBSTONE = 0x02;
+    public static final byte EXPIRES = 0x04;
+    public static final byte COMPRESSED = 0x08;
+    public static final int EXPIRES_AT_LENGTH = 8;
+    public static final int CODEC_ID_LENGTH = 1;
+    public static final int COMPRESSION_HEADER_LENGTH = CODEC_ID_LENGTH + VALUE_SIZE_LENGTH;
+    public static final int MAX_KEY_SIZE = 0xFFFF;
     /**
      * Class representing a segment of the log file.
      * <p>
@@ -13,7 +34,7 @@ public class Segment {
      * 2. We're trusting that the byte[] is immutable and hence avoiding copying it.
      * <p>
      * <p>
-     * 2 bytes: CRC
+     * 2 or 4 bytes: CRC, as dictated by the {@link SegmentFormat}
      * 2 bytes: Key Size
      * 4 bytes: Value Size
      * n bytes: Key
@@ -22,110 +43,386 @@ public class Segment {
      * Note: Value size is four bytes because we're using a 32-bit integer to store the size.
      * Int is 32-bit signed, so we can only store 2^31 - 1 bytes in the value.
      * Hence, the maximum size of the value is 2,147,483,647 bytes or 2.14 GB.
+     * <p>
+     * Keys are never empty, see {@link #checkKey(byte[])}, so a key size of 0 marks an extended segment:
+     * 2 or 4 bytes: CRC
+     * 2 bytes: 0
+     * 4 bytes: Body Size
+     * 1 byte: Attributes
+     * n bytes: Body
+     * <p>
+     * BATCH: The body is a sequence of complete segments that are written and recovered together.
+     * <p>
+     * Otherwise the body holds a key-value pair:
+     * 8 bytes: Expiry in epoch milliseconds, only with EXPIRES
+     * 1 byte: Codec id, only with COMPRESSED
+     * 4 bytes: Uncompressed value size, only with COMPRESSED
+     * 2 bytes: Key Size
+     * n bytes: Key
+     * m bytes: Value
+     * <p>
+     * TOMBSTONE: The key was deleted, the value is empty.
+     * EXPIRES: The key is absent from the expiry on.
+     * COMPRESSED: The value is compressed with the codec, it is decompressed by {@link #getValue()} only. Everything
+     * else, e.g. copying the segment, works on the compressed bytes.
+     * <p>
+     * Factories without a format build V1 segments.
      */
     private final byte[] bytes;
+    private final SegmentFormat format;
 
-    private Segment(byte[] bytes) {
+    private Segment(byte[] bytes, SegmentFormat format) {
         this.bytes = bytes;
+        this.format = format;
+    }
+
+    /**
+     * Rejects keys that segments cannot hold: empty keys, whose key size marks an extended segment, and keys whose
+     * size does not fit into the key size.
+     */
+    public static void checkKey(byte[] key) {
+        if (key.length == 0) {
+            throw new IllegalArgumentException("Key must not be empty.");
+        }
+        if (key.length > MAX_KEY_SIZE) {
+            throw new IllegalArgumentException("Key is too large.");
+        }
     }
 
     public static Segment fromByteArray(byte[] data) {
-        return new Segment(data);
+        return fromByteArray(data, SegmentFormat.V1);
+    }
+
+    public static Segment fromByteArray(byte[] data, SegmentFormat format) {
+        return new Segment(data, format);
     }
 
     public static Segment fromKeyValuePair(byte[] key, byte[] value) {
+        return fromKeyValuePair(key, value, SegmentFormat.V1);
+    }
+
+    public static Segment fromKeyValuePair(byte[] key, byte[] value, SegmentFormat format) {
         int keySize = key.length;
         int valueSize = value.length;
-        int totalSize = CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH + keySize + valueSize;
+        int headerLength = format.getHeaderLength();
+        int totalSize = headerLength + keySize + valueSize;
 
         byte[] segment = new byte[totalSize];
+        ByteBuffer buffer = ByteBuffer.wrap(segment);
+
+        // Set key size and value size
+        buffer.putShort(format.getCrcLength(), (short) keySize);
+        buffer.putInt(format.getCrcLength() + KEY_SIZE_LENGTH, valueSize);
+
+        System.arraycopy(key, 0, segment, headerLength, keySize);
+
+        System.arraycopy(value, 0, segment, headerLength + keySize, valueSize);
+
+        return withCrc(segment, format);
+    }
+
+    /**
+     * Builds a batch segment, so that one checksum covers all segments of the batch. The segments must be in the
+     * format of the batch.
+     */
+    public static Segment fromBatch(List<Segment> segments) {
+        return fromBatch(segments, SegmentFormat.V1);
+    }
+
+    public static Segment fromBatch(List<Segment> segments, SegmentFormat format) {
+        long bodySize = ATTRIBUTES_LENGTH;
+        for (Segment segment : segments) {
+            if (segment.format != format) {
+                throw new IllegalArgumentException("Segments of a batch must be in the format of the batch.");
+            }
+            bodySize += segment.bytes.length;
+        }
+        int headerLength = format.getHeaderLength();
+        if (headerLength + bodySize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch is too large.");
+        }
+
+        byte[] batch = new byte[(int) (headerLength + bodySize)];
+        ByteBuffer.wrap(batch).putInt(format.getCrcLength() + KEY_SIZE_LENGTH, (int) bodySize);
+        batch[headerLength] = BATCH;
+
+        int position = format.getExtendedHeaderLength();
+        for (Segment segment : segments) {
+            System.arraycopy(segment.bytes, 0, batch, position, segment.bytes.length);
+            position += segment.bytes.length;
+        }
+
+        return withCrc(batch, format);
+    }
+
+    /**
+     * Builds a tombstone, which marks the key as deleted.
+     */
+    public static Segment fromDeletedKey(byte[] key) {
+        return fromDeletedKey(key, SegmentFormat.V1);
+    }
+
+    public static Segment fromDeletedKey(byte[] key, SegmentFormat format) {
+        return fromExtendedKeyValuePair(TOMBSTONE, 0, null, key, new byte[0], format);
+    }
+
+    /**
+     * Builds a key-value pair that is absent from {@code expiresAt}, in epoch milliseconds, on.
+     */
+    public static Segment fromExpiringKeyValuePair(byte[] key, byte[] value, long expiresAt) {
+        return fromExpiringKeyValuePair(key, value, expiresAt, SegmentFormat.V1);
+    }
+
+    public static Segment fromExpiringKeyValuePair(byte[] key, byte[] value, long expiresAt, SegmentFormat format) {
+        return fromExtendedKeyValuePair(EXPIRES, expiresAt, null, key, value, format);
+    }
+
+    /**
+     * Builds a key-value pair whose value is compressed with {@code codec}.
+     *
+     * @param expiresAt expiry in epoch milliseconds, or 0 if the value does not expire
+     */
+    public static Segment fromCompressedKeyValuePair(byte[] key, byte[] value, long expiresAt, Codec codec,
+                                                     SegmentFormat format) {
+        byte attributes = expiresAt != 0 ? (byte) (COMPRESSED | EXPIRES) : COMPRESSED;
+        return fromExtendedKeyValuePair(attributes, expiresAt, codec, key, value, format);
+    }
+
+    private static Segment fromExtendedKeyValuePair(byte attributes, long expiresAt, Codec codec, byte[] key,
+                                                    byte[] value, SegmentFormat format) {
+        int keySize = key.length;
+        int expiresAtLength = (attributes & EXPIRES) != 0 ? EXPIRES_AT_LENGTH : 0;
+        int compressionHeaderLength = codec != null ? COMPRESSION_HEADER_LENGTH : 0;
+        byte[] storedValue = codec != null ? codec.compress(value) : value;
+        long bodySize = (long) ATTRIBUTES_LENGTH + expiresAtLength + compressionHeaderLength + KEY_SIZE_LENGTH
+            + keySize + storedValue.length;
+        if (format.getHeaderLength() + bodySize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value is too large.");
+        }
+        int headerLength = format.getHeaderLength();
+
+        byte[] segment = new byte[headerLength + (int) bodySize];
+        ByteBuffer buffer = ByteBuffer.wrap(segment);
+
+        // Set body size
+        buffer.putInt(format.getCrcLength() + KEY_SIZE_LENGTH, (int) bodySize);
+        segment[headerLength] = attributes;
+        if (expiresAtLength > 0) {
+            buffer.putLong(format.getExtendedHeaderLength(), expiresAt);
+        }
+        int compressionHeaderOffset = format.getExtendedHeaderLength() + expiresAtLength;
+        if (codec != null) {
+            segment[compressionHeaderOffset] = codec.getId();
+            buffer.putInt(compressionHeaderOffset + CODEC_ID_LENGTH, value.length);
+        }
 
         // Set key size
-        segment[2] = (byte) ((keySize >> 8) & 0xFF);
-        segment[3] = (byte) (keySize & 0xFF);
+        int keySizeOffset = compressionHeaderOffset + compressionHeaderLength;
+        buffer.putShort(keySizeOffset, (short) keySize);
 
-        // Set value size
-        segment[4] = (byte) ((valueSize >> 24) & 0xFF);
-        segment[5] = (byte) ((valueSize >> 16) & 0xFF);
-        segment[6] = (byte) ((valueSize >> 8) & 0xFF);
-        segment[7] = (byte) (valueSize & 0xFF);
+        System.arraycopy(key, 0, segment, keySizeOffset + KEY_SIZE_LENGTH, keySize);
 
-        System.arraycopy(key, 0, segment, CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH, keySize);
+        System.arraycopy(storedValue, 0, segment, keySizeOffset + KEY_SIZE_LENGTH + keySize, storedValue.length);
 
-        System.arraycopy(value, 0, segment, CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH + keySize, valueSize);
+        return withCrc(segment, format);
+    }
 
-        byte[] crc = new Segment(segment).crc16();
-        segment[0] = crc[0];
-        segment[1] = crc[1];
+    private static Segment withCrc(byte[] segment, SegmentFormat format) {
+        Segment result = new Segment(segment, format);
+        format.putCrc(segment, result.computeCrc());
+        return result;
+    }
 
-        return new Segment(segment);
+    /**
+     * The same segment in another format, e.g. to upgrade it while compacting. The segments of a batch are converted
+     * as well.
+     */
+    public Segment toFormat(SegmentFormat target) {
+        if (target == format) {
+            return this;
+        }
+        if (isBatch()) {
+            List<Segment> converted = new ArrayList<>();
+            for (Segment segment : getBatchSegments()) {
+                converted.add(segment.toFormat(target));
+            }
+            return fromBatch(converted, target);
+        }
+
+        byte[] converted = new byte[bytes.length - format.getCrcLength() + target.getCrcLength()];
+        System.arraycopy(bytes, format.getCrcLength(), converted, target.getCrcLength(),
+            bytes.length - format.getCrcLength());
+        return withCrc(converted, target);
     }
 
     public byte[] getBytes() {
         return bytes;
     }
 
+    public SegmentFormat getFormat() {
+        return format;
+    }
+
     public byte[] getKey() {
+        if (isExtended()) {
+            if (isBatch()) {
+                return new byte[0];
+            }
+            int keySizeOffset = getExtendedKeySizeOffset();
+            return extractBytes(keySizeOffset + KEY_SIZE_LENGTH, getExtendedKeySize(keySizeOffset));
+        }
         int keySize = getKeySize();
-        return extractBytes(CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH, keySize);
+        return extractBytes(format.getHeaderLength(), keySize);
     }
 
     public byte[] getValue() {
+        if (isExtended()) {
+            if (isBatch()) {
+                return new byte[0];
+            }
+            int keySizeOffset = getExtendedKeySizeOffset();
+            int valueOffset = keySizeOffset + KEY_SIZE_LENGTH + getExtendedKeySize(keySizeOffset);
+            if (isCompressed()) {
+                int compressionHeaderOffset = keySizeOffset - COMPRESSION_HEADER_LENGTH;
+                Codec codec = Codecs.forId(bytes[compressionHeaderOffset]);
+                int uncompressedSize = ByteBuffer.wrap(bytes).getInt(compressionHeaderOffset + CODEC_ID_LENGTH);
+                return codec.decompress(bytes, valueOffset, bytes.length - valueOffset, uncompressedSize);
+            }
+            return extractBytes(valueOffset, bytes.length - valueOffset);
+        }
         int keySize = getKeySize();
         int valueSize = getValueSize();
-        return extractBytes(CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH + keySize, valueSize);
+        return extractBytes(format.getHeaderLength() + keySize, valueSize);
     }
 
     public int getKeySize() {
-        return ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        int offset = format.getCrcLength();
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
     }
 
     public int getValueSize() {
-        return ((bytes[4] & 0xff) << 24) | ((bytes[5] & 0xff) << 16) |
-            ((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff);
+        int offset = format.getCrcLength() + KEY_SIZE_LENGTH;
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) |
+            ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Length of the segment up to the end of its key, e.g. to read keys without their values. The bytes up to the key
+     * size must be present, the rest of the segment may be cut off.
+     */
+    public int getKeyEnd() {
+        if (isExtended()) {
+            int keySizeOffset = getExtendedKeySizeOffset();
+            return keySizeOffset + KEY_SIZE_LENGTH + getExtendedKeySize(keySizeOffset);
+        }
+        return format.getHeaderLength() + getKeySize();
+    }
+
+    public boolean isExtended() {
+        return getKeySize() == 0;
+    }
+
+    public boolean isTombstone() {
+        return hasAttribute(TOMBSTONE);
+    }
+
+    public boolean hasExpiry() {
+        return hasAttribute(EXPIRES);
+    }
+
+    public boolean isCompressed() {
+        return hasAttribute(COMPRESSED);
+    }
+
+    /**
+     * @return the expiry in epoch milliseconds, or 0 if the segment does not expire
+     */
+    public long getExpiresAt() {
+        return hasExpiry() ? ByteBuffer.wrap(bytes).getLong(format.getExtendedHeaderLength()) : 0;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return hasExpiry() && getExpiresAt() <= nowMillis;
+    }
+
+    public boolean isBatch() {
+        return hasAttribute(BATCH);
+    }
+
+    /**
+     * Segments of a batch, in the order they were written. They start {@link SegmentFormat#getExtendedHeaderLength()}
+     * bytes into the batch and follow each other without gaps.
+     */
+    public List<Segment> getBatchSegments() {
+        List<Segment> segments = new ArrayList<>();
+        int headerLength = format.getHeaderLength();
+        int position = format.getExtendedHeaderLength();
+        while (position < bytes.length) {
+            if (position + headerLength > bytes.length) {
+                throw new IllegalStateException("Batch is malformed.");
+            }
+            Segment header = new Segment(extractBytes(position, headerLength), format);
+            long length = (long) headerLength + header.getKeySize() + header.getValueSize();
+            if (header.getValueSize() < 0 || position + length > bytes.length) {
+                throw new IllegalStateException("Batch is malformed.");
+            }
+            segments.add(new Segment(extractBytes(position, (int) length), format));
+            position += (int) length;
+        }
+        return segments;
     }
 
     public byte[] getCrc() {
-        return extractBytes(0, CRC_LENGTH);
+        return extractBytes(0, format.getCrcLength());
     }
 
     public boolean isChecksumValid() {
-        byte[] crc = crc16();
-        return crc[0] == bytes[0] && crc[1] == bytes[1];
+        return computeCrc() == format.getCrc(ByteBuffer.wrap(bytes), 0);
     }
 
     public boolean isSegmentValid() {
-        return isChecksumValid() && getKeySize() > 0 && getValueSize() >= 0
-            && bytes.length == CRC_LENGTH + KEY_SIZE_LENGTH + VALUE_SIZE_LENGTH + getKeySize() + getValueSize();
+        int headerLength = format.getHeaderLength();
+        return bytes.length >= headerLength && getValueSize() >= 0
+            && (getKeySize() > 0 || getValueSize() >= ATTRIBUTES_LENGTH)
+            && bytes.length == headerLength + getKeySize() + getValueSize()
+            && isChecksumValid() && (!isExtended() || isBatch() || isExtendedKeyValid());
     }
 
-    private byte[] extractBytes(int offset, int length) {
-        byte[] result = new byte[length];
-        System.arraycopy(bytes, offset, result, 0, length);
-        return result;
+    private boolean hasAttribute(byte attribute) {
+        int headerLength = format.getHeaderLength();
+        return isExtended() && bytes.length > headerLength && (bytes[headerLength] & attribute) != 0;
     }
 
-    private byte[] crc16(byte[] segment) {
-        int crc = 0xFFFF; // Initial CRC value
-        int polynomial = 0x1021; // CRC-16 polynomial
-
-        for (int index = CRC_LENGTH; index < segment.length; index++) {
-            byte b = segment[index];
-            crc ^= (b & 0xFF) << 8;
+    private boolean isExtendedKeyValid() {
+        int keySizeOffset = getExtendedKeySizeOffset();
+        return keySizeOffset + KEY_SIZE_LENGTH <= bytes.length && getExtendedKeySize(keySizeOffset) > 0
+            && keySizeOffset + KEY_SIZE_LENGTH + getExtendedKeySize(keySizeOffset) <= bytes.length;
+    }
 
-            for (int i = 0; i < 8; i++) {
-                if ((crc & 0x8000) != 0) {
-                    crc = (crc << 1) ^ polynomial;
-                } else {
-                    crc <<= 1;
-                }
-            }
+    private int getExtendedKeySizeOffset() {
+        int offset = format.getExtendedHeaderLength();
+        if (hasExpiry()) {
+            offset += EXPIRES_AT_LENGTH;
+        }
+        if (isCompressed()) {
+            offset += COMPRESSION_HEADER_LENGTH;
         }
+        return offset;
+    }
+
+    private int getExtendedKeySize(int keySizeOffset) {
+        return ((bytes[keySizeOffset] & 0xff) << 8) | (bytes[keySizeOffset + 1] & 0xff);
+    }
 
-        return new byte[]{(byte) ((crc >> 8) & 0xFF), (byte) (crc & 0xFF)};
+    private byte[] extractBytes(int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, offset, result, 0, length);
+        return result;
     }
 
-    private byte[] crc16() {
-        return crc16(bytes);
+    private long computeCrc() {
+        Checksum checksum = format.newChecksum();
+        checksum.update(bytes, format.getCrcLength(), bytes.length - format.getCrcLength());
+        return checksum.getValue();
     }
 }
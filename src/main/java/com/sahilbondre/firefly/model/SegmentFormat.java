@@ -0,0 +1,109 @@
+package com.sahilbondre.firefly.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * On-disk format of the segments of a log, selected by the header of the log file.
+ * <p>
+ * V1: 2 byte CRC-16 per segment, the log has no header.
+ * V2: 4 byte CRC32C per segment, which the JVM computes with hardware instructions where available. The log starts
+ * with a header:
+ * 2 bytes: Magic "FF"
+ * 2 bytes: 0
+ * 3 bytes: 0xFFFFFF
+ * 1 byte: Version
+ * <p>
+ * Read as a V1 segment the header has a negative value size, so no V1 log starts with it.
+ */
+public enum SegmentFormat {
+    V1(2, 0),
+    V2(4, 8);
+
+    public static final SegmentFormat LATEST = V2;
+    private static final byte[] LOG_HEADER_PREFIX = {'F', 'F', 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    private final int crcLength;
+    private final int logHeaderLength;
+
+    SegmentFormat(int crcLength, int logHeaderLength) {
+        this.crcLength = crcLength;
+        this.logHeaderLength = logHeaderLength;
+    }
+
+    /**
+     * Detects the format of a log from its first bytes, a log without a header is in V1.
+     *
+     * @throws IllegalArgumentException if the header belongs to an unknown version
+     */
+    public static SegmentFormat fromLogHeader(byte[] header) {
+        if (header.length < V2.logHeaderLength
+            || !Arrays.equals(header, 0, LOG_HEADER_PREFIX.length, LOG_HEADER_PREFIX, 0, LOG_HEADER_PREFIX.length)) {
+            return V1;
+        }
+        byte version = header[LOG_HEADER_PREFIX.length];
+        for (SegmentFormat format : values()) {
+            if (format.logHeaderLength > 0 && format.getVersion() == version) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log format version " + version);
+    }
+
+    public int getVersion() {
+        return ordinal() + 1;
+    }
+
+    public int getCrcLength() {
+        return crcLength;
+    }
+
+    /**
+     * Length of CRC, key size and value size.
+     */
+    public int getHeaderLength() {
+        return crcLength + Segment.KEY_SIZE_LENGTH + Segment.VALUE_SIZE_LENGTH;
+    }
+
+    public int getExtendedHeaderLength() {
+        return getHeaderLength() + Segment.ATTRIBUTES_LENGTH;
+    }
+
+    /**
+     * Length of the header at the start of a log, the first segment follows it.
+     */
+    public int getLogHeaderLength() {
+        return logHeaderLength;
+    }
+
+    public byte[] getLogHeader() {
+        if (logHeaderLength == 0) {
+            return new byte[0];
+        }
+        byte[] header = Arrays.copyOf(LOG_HEADER_PREFIX, logHeaderLength);
+        header[LOG_HEADER_PREFIX.length] = (byte) getVersion();
+        return header;
+    }
+
+    /**
+     * A new checksum, to be updated with everything after the CRC of a segment.
+     */
+    public Checksum newChecksum() {
+        return this == V1 ? new Crc16() : new CRC32C();
+    }
+
+    /**
+     * Reads the CRC stored at {@code index} of {@code buffer}.
+     */
+    public long getCrc(ByteBuffer buffer, int index) {
+        return crcLength == 2 ? buffer.getShort(index) & 0xFFFFL : buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    void putCrc(byte[] segment, long crc) {
+        for (int i = 0; i < crcLength; i++) {
+            segment[i] = (byte) (crc >>> (8 * (crcLength - 1 - i)));
+        }
+    }
+}
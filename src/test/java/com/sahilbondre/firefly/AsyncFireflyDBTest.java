@@ -0,0 +1,146 @@
+package com.sahilbondre.firefly;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.sahilbondre.firefly.TestUtils.deleteFolderContentsIfExists;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFireflyDBTest {
+
+    private static final String TEST_FOLDER = "src/test/resources/test_folder_async";
+
+    private FireflyDB fireflyDB;
+    private AsyncFireflyDB asyncFireflyDB;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteFolderContentsIfExists(TEST_FOLDER);
+        Files.createDirectories(Paths.get(TEST_FOLDER));
+        fireflyDB = FireflyDB.getInstance(TEST_FOLDER, new FireflyConfig());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (asyncFireflyDB != null) {
+            asyncFireflyDB.close();
+        }
+        fireflyDB.stop();
+        deleteFolderContentsIfExists(TEST_FOLDER);
+    }
+
+    @Test
+    void givenManyConcurrentSets_whenGet_thenAllValuesAreFound() throws IOException {
+        // Given
+        fireflyDB.start();
+        asyncFireflyDB = new AsyncFireflyDB(fireflyDB);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            writes.add(asyncFireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes()));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        // When
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            reads.add(asyncFireflyDB.get(("key" + i).getBytes()));
+        }
+
+        // Then
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(("value" + i).getBytes(), reads.get(i).join());
+        }
+        assertEquals(0, asyncFireflyDB.getInFlightRequests());
+    }
+
+    @Test
+    void givenBatchAndDelete_whenMultiGet_thenOnlyRemainingKeysAreFound() throws IOException {
+        // Given
+        fireflyDB.start();
+        asyncFireflyDB = new AsyncFireflyDB(fireflyDB);
+        WriteBatch batch = new WriteBatch();
+        batch.put("key1".getBytes(), "value1".getBytes());
+        batch.put("key2".getBytes(), "value2".getBytes());
+        CompletableFuture<Void> write = asyncFireflyDB.write(batch);
+        batch.clear();
+        write.join();
+
+        // When
+        asyncFireflyDB.delete("key1".getBytes()).join();
+        List<Optional<byte[]>> values = asyncFireflyDB.multiGet(
+            List.of("key1".getBytes(), "key2".getBytes())).join();
+
+        // Then
+        assertEquals(Optional.empty(), values.get(0));
+        assertArrayEquals("value2".getBytes(), values.get(1).orElseThrow());
+    }
+
+    @Test
+    void givenMissingKey_whenGet_thenFutureFailsWithIllegalArgumentException() throws IOException {
+        // Given
+        fireflyDB.start();
+        asyncFireflyDB = new AsyncFireflyDB(fireflyDB);
+
+        // When
+        CompletableFuture<byte[]> future = asyncFireflyDB.get("missing".getBytes());
+
+        // Then
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+    }
+
+    @Test
+    void givenRejectPolicyAndFullSlots_whenGet_thenRequestIsRejected() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxInFlightRequests(1);
+        config.setOverloadPolicy(OverloadPolicy.REJECT);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        asyncFireflyDB = new AsyncFireflyDB(fireflyDB);
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocked = asyncFireflyDB.read(() -> {
+            latch.await();
+            return true;
+        });
+
+        // When
+        CompletableFuture<Void> rejected = asyncFireflyDB.set("key".getBytes(), "value".getBytes());
+        int inFlight = asyncFireflyDB.getInFlightRequests();
+        latch.countDown();
+
+        // Then
+        CompletionException exception = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+        assertEquals(1, inFlight);
+        assertTrue(blocked.join());
+        asyncFireflyDB.set("key".getBytes(), "value".getBytes()).join();
+    }
+
+    @Test
+    void givenClosedFacade_whenSet_thenFutureFailsWithIllegalStateException() throws IOException {
+        // Given
+        fireflyDB.start();
+        asyncFireflyDB = new AsyncFireflyDB(fireflyDB);
+        asyncFireflyDB.close();
+
+        // When
+        CompletableFuture<Void> future = asyncFireflyDB.set("key".getBytes(), "value".getBytes());
+
+        // Then
+        CompletionException exception = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+}
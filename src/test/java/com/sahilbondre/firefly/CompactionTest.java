@@ -3,6 +3,7 @@ package com.sahilbondre.firefly;
 import com.sahilbondre.firefly.log.FileChannelRandomAccessLog;
 import com.sahilbondre.firefly.log.RandomAccessLog;
 import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,10 +11,18 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.sahilbondre.firefly.TestUtils.deleteFolderContentsIfExists;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 class CompactionTest {
 
@@ -37,23 +46,26 @@ class CompactionTest {
         RandomAccessLog log2 = new FileChannelRandomAccessLog(TEST_FOLDER + "/" + TEST_LOG_FILE_2);
         RandomAccessLog log3 = new FileChannelRandomAccessLog(TEST_FOLDER + "/" + TEST_LOG_FILE_3);
 
-        log1.append(Segment.fromKeyValuePair("key1".getBytes(), "value1".getBytes()).getBytes());
-        log1.append(Segment.fromKeyValuePair("key2".getBytes(), "value2".getBytes()).getBytes());
-        log1.append(Segment.fromKeyValuePair("key3".getBytes(), "value3".getBytes()).getBytes());
+        log1.writeHeader(SegmentFormat.LATEST);
+        log1.append(segment("key1", "value1"));
+        log1.append(segment("key2", "value2"));
+        log1.append(segment("key3", "value3"));
 
-        log2.append(Segment.fromKeyValuePair("key4".getBytes(), "value4".getBytes()).getBytes());
-        log2.append(Segment.fromKeyValuePair("key1".getBytes(), "value5".getBytes()).getBytes());
-        log2.append(Segment.fromKeyValuePair("key2".getBytes(), "value6".getBytes()).getBytes());
+        log2.writeHeader(SegmentFormat.LATEST);
+        log2.append(segment("key4", "value4"));
+        log2.append(segment("key1", "value5"));
+        log2.append(segment("key2", "value6"));
 
-        log3.append(Segment.fromKeyValuePair("key7".getBytes(), "value7".getBytes()).getBytes());
-        log3.append(Segment.fromKeyValuePair("key8".getBytes(), "value8".getBytes()).getBytes());
-        log3.append(Segment.fromKeyValuePair("key1".getBytes(), "value9".getBytes()).getBytes());
+        log3.writeHeader(SegmentFormat.LATEST);
+        log3.append(segment("key7", "value7"));
+        log3.append(segment("key8", "value8"));
+        log3.append(segment("key1", "value9"));
 
         log1.close();
         log2.close();
         log3.close();
 
-        fireflyDB = FireflyDB.getInstance(TEST_FOLDER);
+        fireflyDB = FireflyDB.getInstance(TEST_FOLDER, new FireflyConfig());
     }
 
     @AfterEach
@@ -62,8 +74,23 @@ class CompactionTest {
         deleteFolderContentsIfExists(TEST_FOLDER);
     }
 
+    private static byte[] segment(String key, String value) {
+        return Segment.fromKeyValuePair(key.getBytes(), value.getBytes(), SegmentFormat.LATEST).getBytes();
+    }
+
+    /**
+     * Size of the segments of the given logs, without their headers.
+     */
+    private static long segmentsSize(String... fileNames) throws IOException {
+        long size = 0;
+        for (String fileName : fileNames) {
+            size += Files.size(Paths.get(TEST_FOLDER, fileName)) - SegmentFormat.LATEST.getLogHeaderLength();
+        }
+        return size;
+    }
+
     @Test
-    void givenMultipleLogFiles_whenCompaction_thenAllFilesRenamedCorrectly() throws IOException {
+    void givenMultipleLogFiles_whenCompaction_thenReplacedFilesAreDeleted() throws IOException {
         // Given
         // A FireflyDB instance with a folder path
         fireflyDB.start();
@@ -73,10 +100,10 @@ class CompactionTest {
         fireflyDB.compaction();
 
         // Then
-        // All log files are processed correctly
-        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
-        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "_2.log")));
-        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "_3.log")));
+        // The replaced log files are deleted
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_2.log")));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_3.log")));
         assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
         assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
         assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
@@ -84,4 +111,348 @@ class CompactionTest {
         assertEquals("value7", new String(fireflyDB.get("key7".getBytes())));
         assertEquals("value8", new String(fireflyDB.get("key8".getBytes())));
     }
+
+    @Test
+    void givenSealedLogs_whenCompaction_thenNewestSealedLogIsReplacedWithLiveSegments() throws IOException {
+        // Given
+        fireflyDB.start();
+        long sizeBefore = segmentsSize(TEST_LOG_FILE_1, TEST_LOG_FILE_2, TEST_LOG_FILE_3);
+
+        // When
+        fireflyDB.compaction();
+
+        // Then
+        // 6 live keys out of 9 segments, merged into the place of the newest log
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2)));
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "3.hint")));
+        assertEquals(SegmentFormat.LATEST.getLogHeaderLength() + sizeBefore * 6 / 9, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)));
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "4.log")));
+    }
+
+    @Test
+    void givenCompactedLogs_whenRestartWithoutFileTable_thenValuesAreCorrect() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.compaction();
+        fireflyDB.set("key1".getBytes(), "value10".getBytes());
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertEquals("value10", new String(fireflyDB.get("key1".getBytes())));
+        assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+        assertEquals("value8", new String(fireflyDB.get("key8".getBytes())));
+    }
+
+    @Test
+    void givenConcurrentReadsAndWrites_whenCompaction_thenNoOperationFails() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(1024);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        for (int i = 0; i < 100; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        // When
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> reader = executor.submit(() -> {
+            while (running.get()) {
+                for (int i = 0; i < 100; i++) {
+                    assertEquals("value" + i, new String(fireflyDB.get(("key" + i).getBytes())));
+                }
+            }
+            return null;
+        });
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 100; i < 1000; i++) {
+                fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+            }
+            return null;
+        });
+        for (int i = 0; i < 5; i++) {
+            fireflyDB.compaction();
+        }
+        writer.get();
+        running.set(false);
+        reader.get();
+        executor.shutdown();
+
+        // Then
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (!("value" + i).equals(new String(fireflyDB.get(("key" + i).getBytes())))) {
+                missing.add("key" + i);
+            }
+        }
+        assertEquals(List.of(), missing);
+    }
+
+    @Test
+    void givenCachedValues_whenCompaction_thenCachedValuesAreRelocated() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setValueCacheSize(1024 * 1024);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.get("key1".getBytes());
+        fireflyDB.get("key4".getBytes());
+
+        // When
+        fireflyDB.compaction();
+
+        // Then
+        assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
+        assertEquals("value4", new String(fireflyDB.get("key4".getBytes())));
+        assertEquals(2, fireflyDB.getValueCacheStats().getHitCount());
+    }
+
+    @Test
+    void givenConcurrentMultiGets_whenCompaction_thenAllValuesAreFound() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(1024);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+            keys.add(("key" + i).getBytes());
+        }
+
+        // When
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> reader = executor.submit(() -> {
+            while (running.get()) {
+                List<Optional<byte[]>> values = fireflyDB.multiGet(keys);
+                for (int i = 0; i < 200; i++) {
+                    assertEquals("value" + i, new String(values.get(i).orElseThrow()));
+                }
+            }
+            return null;
+        });
+        for (int i = 0; i < 5; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+            fireflyDB.compaction();
+        }
+        running.set(false);
+
+        // Then
+        reader.get();
+        executor.shutdown();
+    }
+
+    @Test
+    void givenDeletedKeys_whenCompaction_thenTombstonesAndShadowedValuesAreDropped() throws IOException {
+        // Given
+        fireflyDB.start();
+        long sizeBefore = segmentsSize(TEST_LOG_FILE_1, TEST_LOG_FILE_2, TEST_LOG_FILE_3);
+        fireflyDB.delete("key1".getBytes());
+        fireflyDB.delete("key4".getBytes());
+
+        // When
+        fireflyDB.compaction();
+
+        // Then
+        // 4 live keys out of 9 segments, no tombstones since no older log is left
+        assertEquals(SegmentFormat.LATEST.getLogHeaderLength() + sizeBefore * 4 / 9, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key1".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key4".getBytes()));
+        assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
+    }
+
+    @Test
+    void givenTombstoneShadowingOlderLog_whenCompactionAndRestart_thenKeyStaysDeleted() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(80);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        // Sealed logs do not fit into one log and are compacted one by one
+        long liveSize = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3));
+        int tombstoneSize = Segment.fromDeletedKey("key2".getBytes(), SegmentFormat.LATEST).getBytes().length;
+        fireflyDB.delete("key2".getBytes());
+        fireflyDB.delete("key2".getBytes());
+
+        // When
+        fireflyDB.compaction();
+        long compactedSize = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3));
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        fireflyDB.start();
+
+        // Then
+        // Log 3 keeps a single tombstone since older logs are left
+        assertEquals(liveSize + tombstoneSize, compactedSize);
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+    }
+
+    @Test
+    void givenCompactionCrashedAfterReplacingNewestLog_whenStart_thenDeletedKeyStaysDeleted() throws IOException {
+        // Given
+        // key2 is deleted in log 3, the compacted output of logs 1 to 3 dropped the tombstone
+        RandomAccessLog log3 = new FileChannelRandomAccessLog(TEST_FOLDER + "/" + TEST_LOG_FILE_3);
+        log3.append(Segment.fromDeletedKey("key2".getBytes(), SegmentFormat.LATEST).getBytes());
+        log3.close();
+        RandomAccessLog compactedLog = new FileChannelRandomAccessLog(TEST_FOLDER + "/1-3.compact", 3);
+        compactedLog.writeHeader(SegmentFormat.LATEST);
+        compactedLog.append(segment("key3", "value3"));
+        compactedLog.append(segment("key4", "value4"));
+        compactedLog.append(segment("key7", "value7"));
+        compactedLog.append(segment("key8", "value8"));
+        compactedLog.append(segment("key1", "value9"));
+        compactedLog.close();
+        // The crash left the older logs of the group behind
+        Files.move(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3), Paths.get(TEST_FOLDER, "_3.log"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2)));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "1-3.compact")));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+        assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
+        assertEquals("value4", new String(fireflyDB.get("key4".getBytes())));
+    }
+
+    @Test
+    void givenCompactionCrashedBeforeReplacingNewestLog_whenStart_thenCompactedOutputIsDropped() throws IOException {
+        // Given
+        RandomAccessLog compactedLog = new FileChannelRandomAccessLog(TEST_FOLDER + "/1-3.compact", 3);
+        compactedLog.writeHeader(SegmentFormat.LATEST);
+        compactedLog.append(segment("key1", "value9"));
+        compactedLog.close();
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "1-3.compact")));
+        assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
+        assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+    }
+
+    @Test
+    void givenExpiredKey_whenCompaction_thenExpiredValueIsDropped() throws Exception {
+        // Given
+        fireflyDB.start();
+        long sizeBefore = segmentsSize(TEST_LOG_FILE_1, TEST_LOG_FILE_2, TEST_LOG_FILE_3);
+        fireflyDB.set("key9".getBytes(), "value10".getBytes(), Duration.ofMillis(100));
+        fireflyDB.set("key10".getBytes(), "value11".getBytes(), Duration.ofHours(1));
+        int expiringSize = Segment.fromExpiringKeyValuePair("key10".getBytes(), "value11".getBytes(), 0,
+            SegmentFormat.LATEST).getBytes().length;
+        Thread.sleep(200);
+
+        // When
+        fireflyDB.compaction();
+
+        // Then
+        // Only the value that did not expire is copied besides 6 live keys, no older log is left
+        assertEquals(SegmentFormat.LATEST.getLogHeaderLength() + sizeBefore * 6 / 9 + expiringSize,
+            Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key9".getBytes()));
+        assertEquals("value11", new String(fireflyDB.get("key10".getBytes())));
+    }
+
+    @Test
+    void givenV1Logs_whenStartAndCompaction_thenLogsAreUpgradedToLatestFormat() throws IOException {
+        // Given
+        fireflyDB.stop();
+        deleteFolderContentsIfExists(TEST_FOLDER);
+        Files.createDirectories(Paths.get(TEST_FOLDER));
+        RandomAccessLog log1 = new FileChannelRandomAccessLog(TEST_FOLDER + "/" + TEST_LOG_FILE_1);
+        log1.append(Segment.fromKeyValuePair("key1".getBytes(), "value1".getBytes()).getBytes());
+        log1.append(Segment.fromDeletedKey("key2".getBytes()).getBytes());
+        log1.close();
+        RandomAccessLog log2 = new FileChannelRandomAccessLog(TEST_FOLDER + "/" + TEST_LOG_FILE_2);
+        log2.append(Segment.fromBatch(List.of(Segment.fromKeyValuePair("key3".getBytes(), "value3".getBytes()),
+            Segment.fromKeyValuePair("key4".getBytes(), "value4".getBytes()))).getBytes());
+        log2.close();
+
+        // When
+        // The V1 active log is sealed instead of appended to
+        fireflyDB.start();
+        fireflyDB.set("key5".getBytes(), "value5".getBytes());
+        fireflyDB.compaction();
+
+        // Then
+        // Logs 1 to 3 are compacted into log 3, log 4 is the new active log
+        for (String fileName : List.of(TEST_LOG_FILE_3, "4.log")) {
+            byte[] header = Arrays.copyOf(Files.readAllBytes(Paths.get(TEST_FOLDER, fileName)),
+                SegmentFormat.LATEST.getLogHeaderLength());
+            assertEquals(SegmentFormat.LATEST, SegmentFormat.fromLogHeader(header));
+        }
+        assertEquals("value1", new String(fireflyDB.get("key1".getBytes())));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+        assertEquals("value4", new String(fireflyDB.get("key4".getBytes())));
+        assertEquals("value5", new String(fireflyDB.get("key5".getBytes())));
+    }
+
+    @Test
+    void givenGarbageRatio_whenCompactedAutomatically_thenOnlyLogsAboveRatioAreCompacted() throws Exception {
+        // Given
+        // Log 1 holds one live segment of three, log 2 two of three
+        FireflyConfig config = new FireflyConfig();
+        config.setCompactionGarbageRatio(0.5);
+        config.setCompactionIntervalMillis(20);
+        fireflyDB.configure(config);
+        long log2Size = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2));
+        long compactedSize = SegmentFormat.LATEST.getLogHeaderLength() + segment("key3", "value3").length;
+
+        // When
+        fireflyDB.start();
+        for (int i = 0; i < 250 && Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)) != compactedSize; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+
+        // Then
+        assertEquals(compactedSize, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_2.log")));
+        assertEquals(log2Size, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2)));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+        assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
+        assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
+    }
+
+    @Test
+    void givenMaxLogs_whenCompactGarbage_thenLogWithMostReclaimableBytesIsCompacted() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCompactionGarbageRatio(0);
+        config.setCompactionMaxLogs(1);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        long log2Size = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2));
+
+        // When
+        fireflyDB.compactGarbage();
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        fireflyDB.start();
+
+        // Then
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
+        assertEquals(log2Size, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2)));
+        assertEquals(segment("key4", "value4").length + segment("key2", "value6").length,
+            fireflyDB.getMetrics().getLiveBytesByLog().get(2));
+        assertEquals("value9", new String(fireflyDB.get("key1".getBytes())));
+        assertEquals("value6", new String(fireflyDB.get("key2".getBytes())));
+        assertEquals("value3", new String(fireflyDB.get("key3".getBytes())));
+        assertEquals("value4", new String(fireflyDB.get("key4".getBytes())));
+    }
 }
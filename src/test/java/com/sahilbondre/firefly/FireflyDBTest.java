@@ -1,12 +1,44 @@
 package com.sahilbondre.firefly;
 
+import com.sahilbondre.firefly.cache.CacheStats;
+import com.sahilbondre.firefly.compression.Codecs;
+import com.sahilbondre.firefly.filetable.FileTableType;
+import com.sahilbondre.firefly.log.LogType;
+import com.sahilbondre.firefly.metrics.FireflyMetrics;
+import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import static com.sahilbondre.firefly.TestUtils.deleteFolderContentsIfExists;
 import static org.junit.jupiter.api.Assertions.*;
@@ -29,7 +61,7 @@ class FireflyDBTest {
         Files.createFile(Paths.get(TEST_FOLDER, TEST_LOG_FILE_2));
         Files.createFile(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3));
 
-        fireflyDB = FireflyDB.getInstance(TEST_FOLDER);
+        fireflyDB = FireflyDB.getInstance(TEST_FOLDER, new FireflyConfig());
     }
 
     @AfterEach
@@ -179,4 +211,886 @@ class FireflyDBTest {
         byte[] retrievedValue = fireflyDB.get(key);
         assertArrayEquals(value, retrievedValue);
     }
+
+    @Test
+    void givenBatchDurability_whenConcurrentSets_thenAllValuesAreCorrect() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setDurability(Durability.BATCH);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                fireflyDB.set(("key" + index).getBytes(), ("value" + index).getBytes());
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Then
+        for (int i = 0; i < 200; i++) {
+            assertArrayEquals(("value" + i).getBytes(), fireflyDB.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void givenStartedInstance_whenConfigure_thenExceptionThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+
+        // When/Then
+        FireflyConfig config = new FireflyConfig();
+        assertThrows(IllegalStateException.class, () -> fireflyDB.configure(config));
+    }
+
+    @Test
+    void givenExistingLogs_whenStarted_thenLogsAreNotRewritten() throws IOException {
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)));
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "4.log")));
+    }
+
+    @Test
+    void givenLeftoverReplacedLog_whenStarted_thenItIsDeleted() throws IOException {
+        // Given
+        Files.createFile(Paths.get(TEST_FOLDER, "_1.log"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "_1.log")));
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, TEST_LOG_FILE_1)));
+    }
+
+    @Test
+    void givenUncleanShutdown_whenRestart_thenValuesAreRecoveredFromLogs() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        fireflyDB.set("testKey".getBytes(), "testValue2".getBytes());
+        fireflyDB.stop();
+        // Lose the saved file-table
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertArrayEquals("testValue2".getBytes(), fireflyDB.get("testKey".getBytes()));
+    }
+
+    @Test
+    void givenCheckpointedDelta_whenRestartAfterCrash_thenDeltaAndLaterWritesAreRecovered() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCheckpointIntervalMillis(20);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("key1".getBytes(), "value1".getBytes());
+        fireflyDB.set("key2".getBytes(), "value2".getBytes());
+        fireflyDB.stop();
+        fireflyDB.start();
+        fireflyDB.set("key3".getBytes(), "value3".getBytes());
+        fireflyDB.delete("key2".getBytes());
+        // Wait for a checkpoint to append the changes to the delta
+        long emptyDeltaSize = 17;
+        for (int i = 0; i < 500 && Files.size(Paths.get(TEST_FOLDER, "map.delta")) == emptyDeltaSize; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.size(Paths.get(TEST_FOLDER, "map.delta")) > emptyDeltaSize);
+        fireflyDB.set("key1".getBytes(), "value1b".getBytes());
+        // Crash with the checkpoint as it is now, stopping would save the whole file-table
+        byte[] base = Files.readAllBytes(Paths.get(TEST_FOLDER, "map.snapshot"));
+        byte[] delta = Files.readAllBytes(Paths.get(TEST_FOLDER, "map.delta"));
+        fireflyDB.stop();
+        Files.write(Paths.get(TEST_FOLDER, "map.snapshot"), base);
+        Files.write(Paths.get(TEST_FOLDER, "map.delta"), delta);
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertArrayEquals("value1b".getBytes(), fireflyDB.get("key1".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+        assertArrayEquals("value3".getBytes(), fireflyDB.get("key3".getBytes()));
+    }
+
+    @Test
+    void givenSealedLogs_whenRestartWithoutFileTable_thenValuesAreLoadedFromHintFiles() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(32);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        for (int i = 0; i < 10; i++) {
+            fireflyDB.set(("key" + i % 4).getBytes(), ("value" + i).getBytes());
+        }
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "4.hint")));
+        assertArrayEquals("value8".getBytes(), fireflyDB.get("key0".getBytes()));
+        assertArrayEquals("value9".getBytes(), fireflyDB.get("key1".getBytes()));
+        assertArrayEquals("value6".getBytes(), fireflyDB.get("key2".getBytes()));
+        assertArrayEquals("value7".getBytes(), fireflyDB.get("key3".getBytes()));
+    }
+
+    @Test
+    void givenSealedLogsWithoutHintFiles_whenRestartWithoutFileTable_thenNewestValuesAreRecovered()
+        throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(64);
+        config.setReadThreads(4);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        for (int i = 0; i < 40; i++) {
+            fireflyDB.set(("key" + i % 7).getBytes(), ("value" + i).getBytes());
+        }
+        fireflyDB.delete("key6".getBytes());
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        try (DirectoryStream<Path> hintFiles = Files.newDirectoryStream(Paths.get(TEST_FOLDER), "*.hint")) {
+            for (Path hintFile : hintFiles) {
+                Files.delete(hintFile);
+            }
+        }
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        // The last value of each key but the deleted key6
+        for (int i = 33; i < 40; i++) {
+            if (i % 7 == 6) {
+                continue;
+            }
+            assertArrayEquals(("value" + i).getBytes(), fireflyDB.get(("key" + i % 7).getBytes()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key6".getBytes()));
+        assertTrue(Files.exists(Paths.get(TEST_FOLDER, "4.hint")));
+    }
+
+    @Test
+    void givenOffHeapFileTable_whenSetAndRestart_thenValuesAreCorrect() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setFileTableType(FileTableType.OFF_HEAP);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        fireflyDB.set("testKey2".getBytes(), "testValue2".getBytes());
+        fireflyDB.stop();
+
+        // When
+        fireflyDB.start();
+        fireflyDB.set("testKey2".getBytes(), "testValue3".getBytes());
+
+        // Then
+        assertArrayEquals("testValue".getBytes(), fireflyDB.get("testKey".getBytes()));
+        assertArrayEquals("testValue3".getBytes(), fireflyDB.get("testKey2".getBytes()));
+    }
+
+    @Test
+    void givenMappedLogs_whenSetGetAndRestart_thenValuesAreCorrect() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setLogType(LogType.MAPPED);
+        config.setMaxLogSize(64);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        assertArrayEquals("testValue".getBytes(), fireflyDB.get("testKey".getBytes()));
+        for (int i = 0; i < 10; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        fireflyDB.stop();
+
+        // When
+        fireflyDB.start();
+        fireflyDB.set("key3".getBytes(), "newValue".getBytes());
+
+        // Then
+        assertArrayEquals("testValue".getBytes(), fireflyDB.get("testKey".getBytes()));
+        assertArrayEquals("value9".getBytes(), fireflyDB.get("key9".getBytes()));
+        assertArrayEquals("newValue".getBytes(), fireflyDB.get("key3".getBytes()));
+    }
+
+    @Test
+    void givenKeyValue_whenGetIntoBuffer_thenValueIsCopiedAtPosition() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put((byte) '>');
+
+        // When
+        int valueSize = fireflyDB.get("testKey".getBytes(), buffer);
+
+        // Then
+        assertEquals(9, valueSize);
+        assertEquals(10, buffer.position());
+        assertEquals(">testValue", new String(buffer.array(), 0, buffer.position()));
+    }
+
+    @Test
+    void givenSmallBuffer_whenGetIntoBuffer_thenBufferOverflowExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        // When/Then
+        assertThrows(BufferOverflowException.class, () -> fireflyDB.get("testKey".getBytes(), buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void givenKeyValue_whenGetIntoChannel_thenValueIsWritten() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        fireflyDB.set("testKey2".getBytes(), "testValue2".getBytes());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        int valueSize = fireflyDB.get("testKey2".getBytes(), Channels.newChannel(outputStream));
+
+        // Then
+        assertEquals(10, valueSize);
+        assertArrayEquals("testValue2".getBytes(), outputStream.toByteArray());
+    }
+
+    @Test
+    void givenMappedLogs_whenGetIntoBuffer_thenValueIsCopied() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setLogType(LogType.MAPPED);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(9);
+
+        // When
+        fireflyDB.get("testKey".getBytes(), buffer);
+
+        // Then
+        buffer.flip();
+        assertEquals("testValue", StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    void givenMissingKey_whenGetIntoBuffer_thenExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+
+        // When/Then
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("missingKey".getBytes(), buffer));
+    }
+
+    @Test
+    void givenValueCache_whenGetTwiceAndSet_thenCacheHitsUntilOverwritten() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setValueCacheSize(1024 * 1024);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+
+        // When
+        byte[] first = fireflyDB.get("testKey".getBytes());
+        byte[] second = fireflyDB.get("testKey".getBytes());
+        second[0] = 'X';
+        fireflyDB.set("testKey".getBytes(), "newValue".getBytes());
+        byte[] third = fireflyDB.get("testKey".getBytes());
+
+        // Then
+        assertArrayEquals("testValue".getBytes(), first);
+        assertArrayEquals("newValue".getBytes(), third);
+        CacheStats stats = fireflyDB.getValueCacheStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+    }
+
+    @Test
+    void givenWriteBatch_whenWrite_thenAllValuesAreVisible() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key1".getBytes(), "oldValue".getBytes());
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 50; i++) {
+            batch.put(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        // When
+        fireflyDB.write(batch);
+
+        // Then
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(("value" + i).getBytes(), fireflyDB.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void givenWriteBatch_whenRestartWithoutFileTable_thenBatchIsRecovered() throws IOException {
+        // Given
+        fireflyDB.start();
+        WriteBatch batch = new WriteBatch();
+        batch.put("key1".getBytes(), "value1".getBytes());
+        batch.put("key2".getBytes(), "value2".getBytes());
+        batch.put("key1".getBytes(), "value3".getBytes());
+        fireflyDB.write(batch);
+        fireflyDB.set("key4".getBytes(), "value4".getBytes());
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertArrayEquals("value3".getBytes(), fireflyDB.get("key1".getBytes()));
+        assertArrayEquals("value2".getBytes(), fireflyDB.get("key2".getBytes()));
+        assertArrayEquals("value4".getBytes(), fireflyDB.get("key4".getBytes()));
+    }
+
+    @Test
+    void givenTornWriteBatch_whenRestart_thenNoneOfTheBatchIsRecovered() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key0".getBytes(), "value0".getBytes());
+        WriteBatch batch = new WriteBatch();
+        batch.put("key1".getBytes(), "value1".getBytes());
+        batch.put("key2".getBytes(), "value2".getBytes());
+        fireflyDB.write(batch);
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        // Crash in the middle of appending the batch, after its first segment
+        try (RandomAccessFile logFile = new RandomAccessFile(TEST_FOLDER + "/" + TEST_LOG_FILE_3, "rw")) {
+            logFile.setLength(logFile.length() - 5);
+        }
+
+        // When
+        fireflyDB.start();
+        fireflyDB.set("key3".getBytes(), "value3".getBytes());
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        fireflyDB.start();
+
+        // Then
+        assertArrayEquals("value0".getBytes(), fireflyDB.get("key0".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key1".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+        assertArrayEquals("value3".getBytes(), fireflyDB.get("key3".getBytes()));
+    }
+
+    @Test
+    void givenTornWriteAfterCheckpoint_whenRestart_thenDroppedBytesAreReportedAndLogIsAppendedTo()
+        throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key0".getBytes(), "value0".getBytes());
+        fireflyDB.stop();
+        // Crash in the middle of appending a segment
+        byte[] segment = Segment.fromKeyValuePair("key1".getBytes(), "value1".getBytes(), SegmentFormat.LATEST)
+            .getBytes();
+        try (RandomAccessFile logFile = new RandomAccessFile(TEST_FOLDER + "/" + TEST_LOG_FILE_3, "rw")) {
+            logFile.seek(logFile.length());
+            logFile.write(segment, 0, 10);
+        }
+
+        // When
+        fireflyDB.start();
+        RecoveryReport report = fireflyDB.getRecoveryReport();
+        fireflyDB.set("key2".getBytes(), "value2".getBytes());
+
+        // Then
+        assertTrue(report.isFromCheckpoint());
+        assertEquals(1, report.getReplayedLogCount());
+        assertEquals(10, report.getDroppedBytes());
+        assertEquals(10L, report.getDroppedBytesByLog().get(3));
+        assertFalse(Files.exists(Paths.get(TEST_FOLDER, "4.log")));
+        assertArrayEquals("value0".getBytes(), fireflyDB.get("key0".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key1".getBytes()));
+        assertArrayEquals("value2".getBytes(), fireflyDB.get("key2".getBytes()));
+    }
+
+    @Test
+    void givenKeysInSeveralLogs_whenMultiGet_thenValuesAreReturnedInInputOrder() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(64);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        for (int i = 0; i < 20; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        fireflyDB.set("key3".getBytes(), "newValue".getBytes());
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 19; i >= 0; i--) {
+            keys.add(("key" + i).getBytes());
+        }
+
+        // When
+        List<Optional<byte[]>> values = fireflyDB.multiGet(keys);
+
+        // Then
+        assertEquals(20, values.size());
+        for (int i = 0; i < 20; i++) {
+            int keyIndex = 19 - i;
+            byte[] expected = keyIndex == 3 ? "newValue".getBytes() : ("value" + keyIndex).getBytes();
+            assertArrayEquals(expected, values.get(i).orElseThrow());
+        }
+    }
+
+    @Test
+    void givenMissingKeys_whenMultiGet_thenMissingKeysAreAbsent() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key1".getBytes(), "value1".getBytes());
+        fireflyDB.set("key2".getBytes(), "value2".getBytes());
+
+        // When
+        List<Optional<byte[]>> values = fireflyDB.multiGet(
+            List.of("key2".getBytes(), "missingKey".getBytes(), "key1".getBytes(), "key2".getBytes()));
+
+        // Then
+        assertArrayEquals("value2".getBytes(), values.get(0).orElseThrow());
+        assertTrue(values.get(1).isEmpty());
+        assertArrayEquals("value1".getBytes(), values.get(2).orElseThrow());
+        assertArrayEquals("value2".getBytes(), values.get(3).orElseThrow());
+    }
+
+    @Test
+    void givenDeletedKey_whenGet_thenExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("testKey".getBytes(), "testValue".getBytes());
+        fireflyDB.set("testKey2".getBytes(), "testValue2".getBytes());
+
+        // When
+        fireflyDB.delete("testKey".getBytes());
+
+        // Then
+        byte[] key = "testKey".getBytes();
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get(key));
+        assertEquals(Optional.empty(), fireflyDB.multiGet(List.of(key)).get(0));
+        assertArrayEquals("testValue2".getBytes(), fireflyDB.get("testKey2".getBytes()));
+    }
+
+    @Test
+    void givenDeletedKeys_whenRestartWithoutFileTable_thenKeysStayDeleted() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(64);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        for (int i = 0; i < 4; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        // Sealed with a hint file
+        fireflyDB.delete("key0".getBytes());
+        WriteBatch batch = new WriteBatch();
+        batch.delete("key1".getBytes());
+        batch.put("key2".getBytes(), "value4".getBytes());
+        fireflyDB.write(batch);
+        // Scanned from the active log
+        fireflyDB.delete("key3".getBytes());
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key0".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key1".getBytes()));
+        assertArrayEquals("value4".getBytes(), fireflyDB.get("key2".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key3".getBytes()));
+    }
+
+    @Test
+    void givenKeyWithTtl_whenTtlPasses_thenKeyIsAbsent() throws Exception {
+        // Given
+        fireflyDB.start();
+        byte[] key = "testKey".getBytes();
+        fireflyDB.set(key, "testValue".getBytes(), Duration.ofMillis(200));
+        fireflyDB.set("testKey2".getBytes(), "testValue2".getBytes(), Duration.ofHours(1));
+
+        // When
+        byte[] before = fireflyDB.get(key);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        fireflyDB.get(key, buffer);
+        Optional<byte[]> multiGetBefore = fireflyDB.multiGet(List.of(key)).get(0);
+        Thread.sleep(300);
+
+        // Then
+        assertArrayEquals("testValue".getBytes(), before);
+        assertEquals("testValue", new String(buffer.array(), 0, buffer.position()));
+        assertArrayEquals("testValue".getBytes(), multiGetBefore.orElseThrow());
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get(key));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get(key, ByteBuffer.allocate(16)));
+        assertEquals(Optional.empty(), fireflyDB.multiGet(List.of(key)).get(0));
+        assertArrayEquals("testValue2".getBytes(), fireflyDB.get("testKey2".getBytes()));
+    }
+
+    @Test
+    void givenExpiredKeyShadowingOlderValue_whenRestartWithoutFileTable_thenKeyIsAbsent() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setMaxLogSize(64);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("key0".getBytes(), "value0".getBytes());
+        fireflyDB.set("key1".getBytes(), "value1".getBytes());
+        fireflyDB.set("key0".getBytes(), "value2".getBytes(), Duration.ofMillis(200));
+        fireflyDB.set("key1".getBytes(), "value3".getBytes(), Duration.ofHours(1));
+        fireflyDB.set("key2".getBytes(), "value4".getBytes(), Duration.ofMillis(200));
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        Thread.sleep(300);
+
+        // When
+        fireflyDB.start();
+
+        // Then
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key0".getBytes()));
+        assertArrayEquals("value3".getBytes(), fireflyDB.get("key1".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.get("key2".getBytes()));
+    }
+
+    @Test
+    void givenKeyWithTtl_whenRestartFromSnapshotBeforeItExpires_thenKeyIsStillEvicted() throws Exception {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key0".getBytes(), "value0".getBytes(), Duration.ofMillis(1000));
+        fireflyDB.set("key1".getBytes(), "value1".getBytes());
+        fireflyDB.stop();
+
+        // When
+        fireflyDB.start();
+        int keyCountAfterRestart = fireflyDB.getMetrics().getKeyCount();
+        Thread.sleep(1300);
+
+        // Then
+        assertTrue(fireflyDB.getRecoveryReport().isFromCheckpoint());
+        assertEquals(2, keyCountAfterRestart);
+        assertEquals(1, fireflyDB.getMetrics().getKeyCount());
+        assertArrayEquals("value1".getBytes(), fireflyDB.get("key1".getBytes()));
+    }
+
+    @Test
+    void givenKeyWithTtl_whenRestartFromDeltaBeforeItExpires_thenKeyIsStillEvicted() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCheckpointIntervalMillis(20);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        fireflyDB.set("key1".getBytes(), "value1".getBytes());
+        fireflyDB.stop();
+        fireflyDB.start();
+        fireflyDB.set("key0".getBytes(), "value0".getBytes(), Duration.ofMillis(1000));
+        // Wait for a checkpoint to append the key to the delta
+        long emptyDeltaSize = 17;
+        for (int i = 0; i < 500 && Files.size(Paths.get(TEST_FOLDER, "map.delta")) == emptyDeltaSize; i++) {
+            Thread.sleep(10);
+        }
+        // Crash with the checkpoint as it is now, stopping would save the whole file-table
+        byte[] base = Files.readAllBytes(Paths.get(TEST_FOLDER, "map.snapshot"));
+        byte[] delta = Files.readAllBytes(Paths.get(TEST_FOLDER, "map.delta"));
+        fireflyDB.stop();
+        Files.write(Paths.get(TEST_FOLDER, "map.snapshot"), base);
+        Files.write(Paths.get(TEST_FOLDER, "map.delta"), delta);
+
+        // When
+        fireflyDB.start();
+        int keyCountAfterRestart = fireflyDB.getMetrics().getKeyCount();
+        Thread.sleep(1300);
+
+        // Then
+        assertTrue(delta.length > emptyDeltaSize);
+        assertEquals(2, keyCountAfterRestart);
+        assertEquals(1, fireflyDB.getMetrics().getKeyCount());
+        assertArrayEquals("value1".getBytes(), fireflyDB.get("key1".getBytes()));
+    }
+
+    @Test
+    void givenNonPositiveTtl_whenSet_thenExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class,
+            () -> fireflyDB.set("testKey".getBytes(), "testValue".getBytes(), Duration.ZERO));
+    }
+
+    @Test
+    void givenEmptyKey_whenWriting_thenExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+        byte[] key = new byte[0];
+        WriteBatch batch = new WriteBatch();
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.set(key, "testValue".getBytes()));
+        assertThrows(IllegalArgumentException.class,
+            () -> fireflyDB.set(key, "testValue".getBytes(), Duration.ofHours(1)));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.delete(key));
+        assertThrows(IllegalArgumentException.class, () -> batch.put(key, "testValue".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> batch.delete(key));
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    void givenKeyLargerThanKeySize_whenWriting_thenExceptionIsThrown() throws IOException {
+        // Given
+        fireflyDB.start();
+        byte[] key = new byte[0x10000];
+        WriteBatch batch = new WriteBatch();
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.set(key, "testValue".getBytes()));
+        assertThrows(IllegalArgumentException.class,
+            () -> fireflyDB.set(key, "testValue".getBytes(), Duration.ofHours(1)));
+        assertThrows(IllegalArgumentException.class, () -> fireflyDB.delete(key));
+        assertThrows(IllegalArgumentException.class, () -> batch.put(key, "testValue".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> batch.delete(key));
+        assertEquals(0, batch.size());
+    }
+
+    @Test
+    void givenKeyOfMaxSize_whenSetAndRestart_thenValueIsCorrect() throws IOException {
+        // Given
+        fireflyDB.start();
+        byte[] key = new byte[0xFFFF];
+        Arrays.fill(key, (byte) 'k');
+
+        // When
+        fireflyDB.set(key, "testValue".getBytes());
+        fireflyDB.stop();
+        fireflyDB.start();
+
+        // Then
+        assertEquals("testValue", new String(fireflyDB.get(key)));
+    }
+
+    @Test
+    void givenCompressionCodec_whenSetAndGet_thenValuesAreStoredCompressed() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCompressionCodec(Codecs.LZ);
+        config.setCompressionThreshold(64);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        byte[] largeValue = "{\"name\": \"firefly\"}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        WriteBatch batch = new WriteBatch();
+        batch.put("batchKey".getBytes(), largeValue);
+
+        // When
+        fireflyDB.set("largeKey".getBytes(), largeValue);
+        fireflyDB.set("smallKey".getBytes(), "smallValue".getBytes());
+        fireflyDB.set("expiringKey".getBytes(), largeValue, Duration.ofHours(1));
+        fireflyDB.write(batch);
+
+        // Then
+        assertTrue(Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)) < 2 * largeValue.length);
+        assertArrayEquals(largeValue, fireflyDB.get("largeKey".getBytes()));
+        assertArrayEquals(largeValue, fireflyDB.get("expiringKey".getBytes()));
+        assertArrayEquals(largeValue, fireflyDB.get("batchKey".getBytes()));
+        assertEquals("smallValue", new String(fireflyDB.get("smallKey".getBytes())));
+        ByteBuffer buffer = ByteBuffer.allocate(largeValue.length);
+        assertEquals(largeValue.length, fireflyDB.get("largeKey".getBytes(), buffer));
+        assertArrayEquals(largeValue, buffer.array());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        fireflyDB.get("expiringKey".getBytes(), Channels.newChannel(outputStream));
+        assertArrayEquals(largeValue, outputStream.toByteArray());
+        assertEquals(Optional.of("smallValue"), fireflyDB.multiGet(List.of("largeKey".getBytes(),
+            "smallKey".getBytes())).get(1).map(String::new));
+    }
+
+    @Test
+    void givenCompressedValues_whenCompactionAndRestart_thenValuesAreCopiedCompressed() throws IOException {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCompressionCodec(Codecs.DEFLATE);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        byte[] largeValue = "{\"name\": \"firefly\"}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        fireflyDB.set("largeKey".getBytes(), largeValue);
+        long compressedSize = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3));
+
+        // When
+        fireflyDB.compaction();
+        fireflyDB.stop();
+        Files.delete(Paths.get(TEST_FOLDER, "map.snapshot"));
+        fireflyDB.start();
+
+        // Then
+        assertEquals(compressedSize, Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3)));
+        assertArrayEquals(largeValue, fireflyDB.get("largeKey".getBytes()));
+    }
+
+    @Test
+    void givenOverwrittenAndDeletedKeys_whenGetMetrics_thenLiveAndDeadBytesAreAccounted() throws IOException {
+        // Given
+        fireflyDB.start();
+        long liveBytes = 0;
+        for (int i = 0; i < 10; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        for (int i = 0; i < 10; i++) {
+            if (i < 5) {
+                fireflyDB.set(("key" + i).getBytes(), ("newValue" + i).getBytes());
+                liveBytes += Segment.fromKeyValuePair(("key" + i).getBytes(), ("newValue" + i).getBytes(),
+                    SegmentFormat.LATEST).getBytes().length;
+            } else if (i < 9) {
+                liveBytes += Segment.fromKeyValuePair(("key" + i).getBytes(), ("value" + i).getBytes(),
+                    SegmentFormat.LATEST).getBytes().length;
+            }
+        }
+        fireflyDB.delete("key9".getBytes());
+        fireflyDB.get("key0".getBytes());
+        long logSize = Files.size(Paths.get(TEST_FOLDER, TEST_LOG_FILE_3));
+
+        // When
+        FireflyMetrics metrics = fireflyDB.getMetrics();
+
+        // Then
+        assertEquals(9, metrics.getKeyCount());
+        assertTrue(metrics.getFileTableMemoryUsage() > 0);
+        assertEquals(16, metrics.getSetLatency().getCount());
+        assertEquals(1, metrics.getGetLatency().getCount());
+        assertEquals(logSize - SegmentFormat.LATEST.getLogHeaderLength(), metrics.getBytesAppended());
+        assertEquals(liveBytes, metrics.getLiveBytesByLog().get(3));
+        assertEquals(logSize - liveBytes, metrics.getDeadBytesByLog().get(3));
+
+        // When
+        fireflyDB.compaction();
+        metrics = fireflyDB.getMetrics();
+
+        // Then
+        assertEquals(1, metrics.getCompactionLatency().getCount());
+        assertEquals(logSize, metrics.getCompactedBytes());
+        assertEquals(logSize - liveBytes - SegmentFormat.LATEST.getLogHeaderLength(), metrics.getReclaimedBytes());
+        assertEquals(liveBytes, metrics.getLiveBytesByLog().get(3));
+        assertEquals(SegmentFormat.LATEST.getLogHeaderLength(), metrics.getDeadBytesByLog().get(3));
+        assertFalse(metrics.getLiveBytesByLog().containsKey(1));
+
+        // When
+        fireflyDB.stop();
+        fireflyDB.start();
+
+        // Then
+        assertEquals(liveBytes, fireflyDB.getMetrics().getLiveBytesByLog().get(3));
+    }
+
+    @Test
+    void givenStartedInstance_whenReadMetricsOverJmx_thenAttributesMatchSnapshot() throws Exception {
+        // Given
+        fireflyDB.start();
+        fireflyDB.set("key".getBytes(), "value".getBytes());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(
+            "com.sahilbondre.firefly:type=FireflyDB,path=" + ObjectName.quote(TEST_FOLDER));
+
+        // When
+        Object keyCount = server.getAttribute(name, "KeyCount");
+        CompositeData setLatency = (CompositeData) server.getAttribute(name, "SetLatency");
+        fireflyDB.stop();
+
+        // Then
+        assertEquals(1, keyCount);
+        assertEquals(1L, setLatency.get("count"));
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    void givenKeysInSeveralLogs_whenStreamEntriesInParallel_thenEveryLiveKeyIsReadOnce() throws Exception {
+        // Given
+        FireflyConfig config = new FireflyConfig();
+        config.setCompressionCodec(Codecs.DEFLATE);
+        fireflyDB.configure(config);
+        fireflyDB.start();
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+            expected.put("key" + i, "value" + i);
+            if (i == 1000) {
+                fireflyDB.compaction();
+            }
+        }
+        String longKey = "k".repeat(300);
+        String largeValue = "v".repeat(10_000);
+        WriteBatch batch = new WriteBatch();
+        batch.put(longKey.getBytes(), largeValue.getBytes());
+        batch.put("key5".getBytes(), "newValue5".getBytes());
+        fireflyDB.write(batch);
+        expected.put(longKey, largeValue);
+        expected.put("key5", "newValue5");
+        fireflyDB.delete("key6".getBytes());
+        expected.remove("key6");
+        fireflyDB.set("expiringKey".getBytes(), "value".getBytes(), Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        // When
+        Map<String, String> entries;
+        Set<String> keys;
+        try (Stream<Map.Entry<byte[], byte[]>> stream = fireflyDB.entries().parallel()) {
+            entries = stream.collect(Collectors.toMap(entry -> new String(entry.getKey()),
+                entry -> new String(entry.getValue())));
+        }
+        try (Stream<byte[]> stream = fireflyDB.keys()) {
+            keys = stream.map(String::new).collect(Collectors.toSet());
+        }
+
+        // Then
+        assertEquals(expected, entries);
+        assertEquals(expected.keySet(), keys);
+    }
+
+    @Test
+    void givenOpenStream_whenKeysAreOverwrittenAndCompacted_thenStreamReadsSnapshot() throws IOException {
+        // Given
+        fireflyDB.start();
+        for (int i = 0; i < 100; i++) {
+            fireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        Map<String, String> entries;
+        try (Stream<Map.Entry<byte[], byte[]>> stream = fireflyDB.entries()) {
+
+            // When
+            for (int i = 0; i < 100; i++) {
+                fireflyDB.set(("key" + i).getBytes(), ("newValue" + i).getBytes());
+            }
+            fireflyDB.set("newKey".getBytes(), "value".getBytes());
+            fireflyDB.compaction();
+            entries = stream.collect(Collectors.toMap(entry -> new String(entry.getKey()),
+                entry -> new String(entry.getValue())));
+        }
+
+        // Then
+        assertEquals(100, entries.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, entries.get("key" + i));
+        }
+        assertEquals("newValue0", new String(fireflyDB.get("key0".getBytes())));
+    }
 }
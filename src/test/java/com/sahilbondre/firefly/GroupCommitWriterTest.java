@@ -0,0 +1,235 @@
+package com.sahilbondre.firefly;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitWriterTest {
+
+    private GroupCommitWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Test
+    void givenQueuedWrites_whenCommitterIsBusy_thenWritesAreCoalescedIntoOneBatch() throws Exception {
+        // Given
+        // A committer that blocks on its first batch
+        CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        writer = new GroupCommitWriter(new RecordingCommitter(batchSizes, firstBatchStarted, releaseFirstBatch),
+            Durability.NONE, 1000);
+
+        CompletableFuture<Void> first = writer.submit("first".getBytes(), pointer -> {
+        });
+        assertTrue(firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+        // When
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(writer.submit(("record" + i).getBytes(), pointer -> {
+            }));
+        }
+        releaseFirstBatch.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        // Then
+        assertEquals(List.of(1, 10), batchSizes);
+    }
+
+    @Test
+    void givenBatchDurability_whenSubmit_thenEveryBatchIsForced() throws IOException {
+        // Given
+        AtomicInteger forcedCommits = new AtomicInteger();
+        writer = new GroupCommitWriter(new GroupCommitWriter.Committer() {
+            @Override
+            public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) {
+                if (force) {
+                    forcedCommits.incrementAndGet();
+                }
+                for (GroupCommitWriter.PendingWrite pendingWrite : batch) {
+                    pendingWrite.appended(new FilePointer(1, 0, 0));
+                }
+            }
+
+            @Override
+            public void force() {
+                fail("Idle force is not expected with batch durability");
+            }
+        }, Durability.BATCH, 1000);
+
+        // When
+        GroupCommitWriter.await(writer.submit("first".getBytes(), pointer -> {
+        }));
+        GroupCommitWriter.await(writer.submit("second".getBytes(), pointer -> {
+        }));
+
+        // Then
+        assertEquals(2, forcedCommits.get());
+    }
+
+    @Test
+    void givenIntervalDurability_whenIdle_thenPendingWritesAreForced() throws Exception {
+        // Given
+        CountDownLatch forced = new CountDownLatch(1);
+        writer = new GroupCommitWriter(new GroupCommitWriter.Committer() {
+            @Override
+            public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) {
+                // No-op
+            }
+
+            @Override
+            public void force() {
+                forced.countDown();
+            }
+        }, Durability.INTERVAL, 10);
+
+        // When
+        Thread.sleep(20);
+        GroupCommitWriter.await(writer.submit("record".getBytes(), pointer -> {
+        }));
+        GroupCommitWriter.await(writer.submit("record".getBytes(), pointer -> {
+        }));
+
+        // Then
+        assertTrue(forced.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void givenFailingCommitter_whenAwait_thenIOExceptionIsThrown() {
+        // Given
+        writer = new GroupCommitWriter(new GroupCommitWriter.Committer() {
+            @Override
+            public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) throws IOException {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void force() {
+                // No-op
+            }
+        }, Durability.NONE, 1000);
+
+        // When/Then
+        IOException exception = assertThrows(IOException.class,
+            () -> GroupCommitWriter.await(writer.submit("record".getBytes(), pointer -> {
+            })));
+        assertEquals("Disk full", exception.getMessage());
+    }
+
+    @Test
+    void givenCommitterThatCannotUndoFailedBatch_whenWritingAgain_thenWriteFailsWithoutCommit() {
+        // Given
+        AtomicInteger commits = new AtomicInteger();
+        writer = new GroupCommitWriter(new GroupCommitWriter.Committer() {
+            @Override
+            public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) throws IOException {
+                commits.incrementAndGet();
+                throw new GroupCommitWriter.UndoFailedException(new IOException("Disk failed"));
+            }
+
+            @Override
+            public void force() {
+                // No-op
+            }
+        }, Durability.NONE, 1000);
+        assertThrows(GroupCommitWriter.UndoFailedException.class,
+            () -> GroupCommitWriter.await(writer.submit("record1".getBytes(), pointer -> {
+            })));
+
+        // When/Then
+        IOException exception = assertThrows(IOException.class,
+            () -> GroupCommitWriter.await(writer.submit("record2".getBytes(), pointer -> {
+            })));
+        assertInstanceOf(GroupCommitWriter.UndoFailedException.class, exception.getCause());
+        assertEquals(1, commits.get());
+    }
+
+    @Test
+    void givenClosedWriter_whenSubmit_thenExceptionThrown() {
+        // Given
+        writer = new GroupCommitWriter(new RecordingCommitter(new ArrayList<>(), new CountDownLatch(1),
+            new CountDownLatch(0)), Durability.NONE, 1000);
+
+        // When
+        writer.close();
+
+        // Then
+        assertThrows(IllegalStateException.class, () -> writer.submit("record".getBytes(), pointer -> {
+        }));
+    }
+
+    @Test
+    void givenPendingWrites_whenClose_thenAllWritesAreCommitted() throws ExecutionException, InterruptedException {
+        // Given
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        writer = new GroupCommitWriter(new RecordingCommitter(batchSizes, new CountDownLatch(1),
+            new CountDownLatch(0)), Durability.NONE, 1000);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(writer.submit(("record" + i).getBytes(), pointer -> {
+            }));
+        }
+
+        // When
+        writer.close();
+
+        // Then
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+        assertEquals(100, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private static class RecordingCommitter implements GroupCommitWriter.Committer {
+        private final List<Integer> batchSizes;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        RecordingCommitter(List<Integer> batchSizes, CountDownLatch started, CountDownLatch release) {
+            this.batchSizes = batchSizes;
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public void commit(List<GroupCommitWriter.PendingWrite> batch, boolean force) {
+            batchSizes.add(batch.size());
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (GroupCommitWriter.PendingWrite pendingWrite : batch) {
+                pendingWrite.appended(new FilePointer(1, 0, 0));
+            }
+        }
+
+        @Override
+        public void force() {
+            // No-op
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.sahilbondre.firefly;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.sahilbondre.firefly.TestUtils.deleteFolderContentsIfExists;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedFireflyDBTest {
+
+    private static final String TEST_FOLDER = "src/test/resources/test_folder_sharded";
+
+    private ShardedFireflyDB shardedFireflyDB;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteFolderContentsIfExists(TEST_FOLDER);
+        shardedFireflyDB = new ShardedFireflyDB(TEST_FOLDER, 4);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        shardedFireflyDB.stop();
+        deleteFolderContentsIfExists(TEST_FOLDER);
+    }
+
+    @Test
+    void givenConcurrentSets_whenGetAfterRestart_thenValuesAreSpreadAcrossShards() throws Exception {
+        // Given
+        shardedFireflyDB.start();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < 200; i += 4) {
+                    shardedFireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Set<Integer> usedShards = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            usedShards.add(shardedFireflyDB.shardIndex(("key" + i).getBytes()));
+        }
+
+        // When
+        shardedFireflyDB.stop();
+        shardedFireflyDB.start();
+
+        // Then
+        assertEquals(4, usedShards.size());
+        for (int i = 0; i < 200; i++) {
+            assertArrayEquals(("value" + i).getBytes(), shardedFireflyDB.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void givenKeysInSeveralShards_whenMultiGet_thenValuesAreReturnedInInputOrder() throws IOException {
+        // Given
+        shardedFireflyDB.start();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(("key" + i).getBytes());
+            if (i % 3 != 0) {
+                shardedFireflyDB.set(("key" + i).getBytes(), ("value" + i).getBytes());
+            }
+        }
+
+        // When
+        List<Optional<byte[]>> values = shardedFireflyDB.multiGet(keys);
+
+        // Then
+        for (int i = 0; i < 20; i++) {
+            if (i % 3 == 0) {
+                assertFalse(values.get(i).isPresent());
+            } else {
+                assertArrayEquals(("value" + i).getBytes(), values.get(i).orElseThrow());
+            }
+        }
+    }
+
+    @Test
+    void givenOverwrittenKeys_whenCompaction_thenEveryShardIsCompacted() throws IOException {
+        // Given
+        shardedFireflyDB.start();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) {
+                shardedFireflyDB.set(("key" + i).getBytes(), ("value" + round).getBytes());
+            }
+        }
+        shardedFireflyDB.delete("key0".getBytes());
+        long[] sizesBefore = new long[shardedFireflyDB.getShardCount()];
+        for (int i = 0; i < sizesBefore.length; i++) {
+            sizesBefore[i] = Files.size(Paths.get(shardedFireflyDB.getShard(i).getFolderPath(), "1.log"));
+        }
+
+        // When
+        shardedFireflyDB.compaction();
+
+        // Then
+        for (int i = 0; i < sizesBefore.length; i++) {
+            assertTrue(Files.size(Paths.get(shardedFireflyDB.getShard(i).getFolderPath(), "1.log")) < sizesBefore[i]);
+        }
+        assertThrows(IllegalArgumentException.class, () -> shardedFireflyDB.get("key0".getBytes()));
+        for (int i = 1; i < 50; i++) {
+            assertArrayEquals("value2".getBytes(), shardedFireflyDB.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void givenWriteBatchAcrossShards_whenWrite_thenExceptionIsThrown() throws IOException {
+        // Given
+        shardedFireflyDB.start();
+        byte[] firstKey = "key0".getBytes();
+        int i = 1;
+        while (shardedFireflyDB.shardIndex(("key" + i).getBytes()) == shardedFireflyDB.shardIndex(firstKey)) {
+            i++;
+        }
+        WriteBatch batch = new WriteBatch();
+        batch.put(firstKey, "value0".getBytes());
+        batch.put(("key" + i).getBytes(), "value1".getBytes());
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> shardedFireflyDB.write(batch));
+    }
+
+    @Test
+    void givenStartedWithFourShards_whenStartWithTwoShards_thenExceptionIsThrown() throws IOException {
+        // Given
+        shardedFireflyDB.start();
+        shardedFireflyDB.stop();
+        ShardedFireflyDB twoShards = new ShardedFireflyDB(TEST_FOLDER, 2);
+
+        // When/Then
+        assertThrows(IllegalStateException.class, twoShards::start);
+    }
+}
@@ -0,0 +1,56 @@
+package com.sahilbondre.firefly.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrequencySketchTest {
+
+    @Test
+    void givenIncrements_whenFrequency_thenReturnsCount() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch();
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(42);
+        }
+
+        // Then
+        assertEquals(5, sketch.frequency(42));
+        assertEquals(0, sketch.frequency(43));
+    }
+
+    @Test
+    void givenManyIncrements_whenFrequency_thenCountIsCappedAtFifteen() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch();
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(42);
+        }
+
+        // Then
+        assertEquals(15, sketch.frequency(42));
+    }
+
+    @Test
+    void givenSampleSizeReached_whenFrequency_thenCountsAreHalved() {
+        // Given
+        FrequencySketch sketch = new FrequencySketch();
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(42);
+        }
+
+        // When
+        // Ten increments per counter of the table trigger the reset
+        for (int i = 0; i < 10 * sketch.capacity(); i++) {
+            sketch.increment(1000 + i);
+        }
+
+        // Then
+        assertTrue(sketch.frequency(42) <= 4);
+    }
+}
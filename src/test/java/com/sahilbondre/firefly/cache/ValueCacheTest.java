@@ -0,0 +1,130 @@
+package com.sahilbondre.firefly.cache;
+
+import com.sahilbondre.firefly.filetable.FilePointer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCacheTest {
+
+    private static final int ENTRY_WEIGHT = 4 + 10 + ValueCache.ENTRY_OVERHEAD;
+
+    @Test
+    void givenCachedValue_whenGetWithSameFilePointer_thenValueIsReturned() {
+        // Given
+        ValueCache cache = new ValueCache(1024);
+        cache.put("key1".getBytes(), new FilePointer(1, 0, 24), "value12345".getBytes());
+
+        // When
+        byte[] value = cache.get("key1".getBytes(), new FilePointer(1, 0, 24));
+
+        // Then
+        assertArrayEquals("value12345".getBytes(), value);
+        assertEquals(1, cache.stats().getHitCount());
+        assertEquals(0, cache.stats().getMissCount());
+        assertEquals(ENTRY_WEIGHT, cache.stats().getWeightedSize());
+    }
+
+    @Test
+    void givenCachedValue_whenGetWithOtherFilePointer_thenMiss() {
+        // Given
+        ValueCache cache = new ValueCache(1024);
+        cache.put("key1".getBytes(), new FilePointer(1, 0, 24), "value12345".getBytes());
+
+        // When
+        byte[] value = cache.get("key1".getBytes(), new FilePointer(2, 0, 24));
+
+        // Then
+        assertNull(value);
+        assertEquals(0, cache.stats().getHitCount());
+        assertEquals(1, cache.stats().getMissCount());
+    }
+
+    @Test
+    void givenCachedValue_whenInvalidate_thenMiss() {
+        // Given
+        ValueCache cache = new ValueCache(1024);
+        FilePointer filePointer = new FilePointer(1, 0, 24);
+        cache.put("key1".getBytes(), filePointer, "value12345".getBytes());
+
+        // When
+        cache.invalidate("key1".getBytes());
+
+        // Then
+        assertNull(cache.get("key1".getBytes(), filePointer));
+        assertEquals(0, cache.stats().getWeightedSize());
+    }
+
+    @Test
+    void givenCachedValue_whenRelocate_thenHitsWithNewFilePointer() {
+        // Given
+        ValueCache cache = new ValueCache(1024);
+        FilePointer oldFilePointer = new FilePointer(1, 0, 24);
+        FilePointer newFilePointer = new FilePointer(3, 48, 24);
+        cache.put("key1".getBytes(), oldFilePointer, "value12345".getBytes());
+
+        // When
+        cache.relocate("key1".getBytes(), oldFilePointer, newFilePointer);
+
+        // Then
+        assertNull(cache.get("key1".getBytes(), oldFilePointer));
+        assertArrayEquals("value12345".getBytes(), cache.get("key1".getBytes(), newFilePointer));
+    }
+
+    @Test
+    void givenFullCache_whenPut_thenWeightStaysBoundedAndEntriesAreEvicted() {
+        // Given
+        ValueCache cache = new ValueCache(10L * ENTRY_WEIGHT);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            cache.put(String.format("k%03d", i).getBytes(), new FilePointer(1, i, 24), "value12345".getBytes());
+        }
+
+        // Then
+        CacheStats stats = cache.stats();
+        assertTrue(stats.getWeightedSize() <= 10L * ENTRY_WEIGHT);
+        assertEquals(90, stats.getEvictionCount());
+    }
+
+    @Test
+    void givenFrequentlyReadKeys_whenScanningColdKeys_thenFrequentKeysStayCached() {
+        // Given
+        ValueCache cache = new ValueCache(10L * ENTRY_WEIGHT);
+        for (int i = 0; i < 5; i++) {
+            byte[] key = String.format("h%03d", i).getBytes();
+            FilePointer filePointer = new FilePointer(1, i, 24);
+            cache.get(key, filePointer);
+            cache.put(key, filePointer, "value12345".getBytes());
+            for (int j = 0; j < 5; j++) {
+                cache.get(key, filePointer);
+            }
+        }
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = String.format("c%03d", i).getBytes();
+            FilePointer filePointer = new FilePointer(2, i, 24);
+            cache.get(key, filePointer);
+            cache.put(key, filePointer, "value12345".getBytes());
+        }
+
+        // Then
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get(String.format("h%03d", i).getBytes(), new FilePointer(1, i, 24)));
+        }
+    }
+
+    @Test
+    void givenValueLargerThanCache_whenPut_thenValueIsNotCached() {
+        // Given
+        ValueCache cache = new ValueCache(ENTRY_WEIGHT - 1);
+
+        // When
+        cache.put("key1".getBytes(), new FilePointer(1, 0, 24), "value12345".getBytes());
+
+        // Then
+        assertNull(cache.get("key1".getBytes(), new FilePointer(1, 0, 24)));
+        assertEquals(0, cache.stats().getWeightedSize());
+    }
+}
@@ -0,0 +1,72 @@
+package com.sahilbondre.firefly.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LzCodecTest {
+
+    private final Codec codec = new LzCodec();
+
+    @Test
+    void givenRepetitiveData_whenCompressAndDecompress_thenDataIsRestoredAndSmaller() {
+        // Given
+        byte[] data = "{\"id\": 42, \"name\": \"firefly\", \"tags\": [\"kv\", \"log\"]}, ".repeat(100)
+            .getBytes(StandardCharsets.UTF_8);
+
+        // When
+        byte[] compressed = codec.compress(data);
+        byte[] decompressed = codec.decompress(compressed, 0, compressed.length, data.length);
+
+        // Then
+        assertTrue(compressed.length * 4 < data.length);
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    void givenRandomAndEmptyData_whenCompressAndDecompress_thenDataIsRestored() {
+        // Given
+        Random random = new Random(42);
+        for (int length : new int[]{0, 1, 5, 13, 100, 70_000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            // When
+            byte[] compressed = codec.compress(data);
+
+            // Then
+            assertArrayEquals(data, codec.decompress(compressed, 0, compressed.length, length));
+        }
+    }
+
+    @Test
+    void givenDataAtOffset_whenDecompress_thenOnlyTheRangeIsRead() {
+        // Given
+        byte[] data = "abcabcabcabcabcabcabcabc".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = codec.compress(data);
+        byte[] padded = new byte[compressed.length + 10];
+        System.arraycopy(compressed, 0, padded, 3, compressed.length);
+
+        // When
+        byte[] decompressed = codec.decompress(padded, 3, compressed.length, data.length);
+
+        // Then
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    void givenTruncatedData_whenDecompress_thenIllegalStateExceptionIsThrown() {
+        // Given
+        byte[] data = "abcdefghijabcdefghijabcdefghijabcdefghij".repeat(10).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = codec.compress(data);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        // When/Then
+        assertThrows(IllegalStateException.class,
+            () -> codec.decompress(truncated, 0, truncated.length, data.length));
+    }
+}
@@ -0,0 +1,70 @@
+package com.sahilbondre.firefly.expiry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @Test
+    void givenElements_whenAdvancePastExpiry_thenOnlyExpiredElementsAreReturned() {
+        // Given
+        TimingWheel<String> wheel = new TimingWheel<>(10, 4, 1000);
+        wheel.add("first", 1015);
+        wheel.add("second", 1035);
+
+        // When
+        List<String> expired = wheel.advance(1020);
+
+        // Then
+        assertEquals(List.of("first"), expired);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void givenElementsOnHigherLevels_whenAdvance_thenEachExpiresWithinOneTick() {
+        // Given
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 4, 0);
+        List<Long> expiries = List.of(5L, 39L, 40L, 161L, 655L, 2_000L, 100_003L);
+        for (long expiresAt : expiries) {
+            wheel.add(expiresAt, expiresAt);
+        }
+
+        // When
+        List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= 100_020; now += 10) {
+            for (long expiresAt : wheel.advance(now)) {
+                // Then
+                assertTrue(expiresAt < now && now <= expiresAt + 20, expiresAt + " expired at " + now);
+                expired.add(expiresAt);
+            }
+        }
+
+        // Then
+        assertEquals(expiries, expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void givenPastExpiry_whenAdd_thenElementExpiresOnNextTick() {
+        // Given
+        TimingWheel<String> wheel = new TimingWheel<>(10, 4, 1000);
+        wheel.advance(1100);
+
+        // When
+        wheel.add("late", 500);
+
+        // Then
+        assertEquals(List.of("late"), wheel.advance(1110));
+    }
+
+    @Test
+    void givenInvalidTick_whenCreate_thenIllegalArgumentExceptionIsThrown() {
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(0, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(10, 1, 0));
+    }
+}
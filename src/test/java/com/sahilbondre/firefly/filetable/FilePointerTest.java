@@ -0,0 +1,23 @@
+package com.sahilbondre.firefly.filetable;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FilePointerTest {
+
+    @Test
+    void givenFilePointer_whenPackAndUnpack_thenFilePointerIsEqual() {
+        // Given
+        FilePointer filePointer = new FilePointer(Integer.MAX_VALUE, 5_000_000_000L, Integer.MAX_VALUE);
+
+        // When
+        FilePointer unpacked = FilePointer.unpack(filePointer.packLogIdAndLength(), filePointer.getOffset());
+
+        // Then
+        assertEquals(filePointer, unpacked);
+        assertEquals(Integer.MAX_VALUE, unpacked.getLogId());
+        assertEquals(5_000_000_000L, unpacked.getOffset());
+        assertEquals(Integer.MAX_VALUE, unpacked.getLength());
+    }
+}
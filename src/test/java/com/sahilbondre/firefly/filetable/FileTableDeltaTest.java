@@ -0,0 +1,122 @@
+package com.sahilbondre.firefly.filetable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTableDeltaTest {
+
+    private static final String TEST_FILE_PATH = "src/test/resources/map.delta";
+    private static final LogPosition BASE_POSITION = new LogPosition(2, 100);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH + ".tmp"));
+    }
+
+    private static Map<String, FilePointer> replay(FileTableDelta.Replay[] replay) throws IOException {
+        Map<String, FilePointer> changes = new HashMap<>();
+        replay[0] = FileTableDelta.read(TEST_FILE_PATH, BASE_POSITION,
+            (key, filePointer, expiresAt) -> changes.put(new String(key), filePointer));
+        return changes;
+    }
+
+    @Test
+    void givenBatches_whenRead_thenChangesAndLastPositionAreReturned() throws IOException {
+        // Given
+        try (FileTableDelta.Writer writer = FileTableDelta.create(TEST_FILE_PATH, BASE_POSITION)) {
+            writer.put("key1".getBytes(), new FilePointer(2, 120, 18));
+            writer.endBatch(new LogPosition(2, 140));
+            writer.remove("key1".getBytes());
+            writer.put("key2".getBytes(), new FilePointer(3, 8, 18));
+            writer.endBatch(new LogPosition(3, 26));
+        }
+        FileTableDelta.Replay[] replay = new FileTableDelta.Replay[1];
+
+        // When
+        Map<String, FilePointer> changes = replay(replay);
+
+        // Then
+        assertTrue(changes.containsKey("key1"));
+        assertNull(changes.get("key1"));
+        assertEquals(new FilePointer(3, 8, 18), changes.get("key2"));
+        assertEquals(new LogPosition(3, 26), replay[0].getPosition());
+        assertEquals(Files.size(Paths.get(TEST_FILE_PATH)), replay[0].getValidLength());
+    }
+
+    @Test
+    void givenTornBatch_whenRead_thenOnlyCompleteBatchesAreReplayedAndAppendingContinuesAfterThem()
+        throws IOException {
+        // Given
+        try (FileTableDelta.Writer writer = FileTableDelta.create(TEST_FILE_PATH, BASE_POSITION)) {
+            writer.put("key1".getBytes(), new FilePointer(2, 120, 18));
+            writer.endBatch(new LogPosition(2, 140));
+            writer.put("key2".getBytes(), new FilePointer(2, 140, 18));
+            writer.endBatch(new LogPosition(2, 160));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(TEST_FILE_PATH, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        FileTableDelta.Replay[] replay = new FileTableDelta.Replay[1];
+
+        // When
+        Map<String, FilePointer> changes = replay(replay);
+        try (FileTableDelta.Writer writer = FileTableDelta.append(TEST_FILE_PATH, replay[0])) {
+            writer.put("key3".getBytes(), new FilePointer(2, 160, 18));
+            writer.endBatch(new LogPosition(2, 180));
+        }
+
+        // Then
+        assertEquals(1, changes.size());
+        assertEquals(new LogPosition(2, 140), replay[0].getPosition());
+        changes = replay(replay);
+        assertEquals(2, changes.size());
+        assertEquals(new FilePointer(2, 160, 18), changes.get("key3"));
+        assertEquals(new LogPosition(2, 180), replay[0].getPosition());
+    }
+
+    @Test
+    void givenPutOfValueThatExpires_whenRead_thenExpiryIsReplayed() throws IOException {
+        // Given
+        try (FileTableDelta.Writer writer = FileTableDelta.create(TEST_FILE_PATH, BASE_POSITION)) {
+            writer.put("key1".getBytes(), new FilePointer(2, 120, 26), 1000);
+            writer.put("key2".getBytes(), new FilePointer(2, 146, 18));
+            writer.endBatch(new LogPosition(2, 164));
+        }
+        Map<String, Long> expiries = new HashMap<>();
+
+        // When
+        FileTableDelta.read(TEST_FILE_PATH, BASE_POSITION,
+            (key, filePointer, expiresAt) -> expiries.put(new String(key), expiresAt));
+
+        // Then
+        assertEquals(Map.of("key1", 1000L, "key2", 0L), expiries);
+    }
+
+    @Test
+    void givenDeltaOfAnotherBase_whenRead_thenInvalidFileTableExceptionIsThrown() throws IOException {
+        // Given
+        try (FileTableDelta.Writer writer = FileTableDelta.create(TEST_FILE_PATH, new LogPosition(1, 50))) {
+            writer.put("key1".getBytes(), new FilePointer(1, 50, 18));
+            writer.endBatch(new LogPosition(1, 68));
+        }
+
+        // When/Then
+        assertThrows(InvalidFileTableException.class, () -> replay(new FileTableDelta.Replay[1]));
+    }
+}
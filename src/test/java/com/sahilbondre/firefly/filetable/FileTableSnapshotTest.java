@@ -0,0 +1,164 @@
+package com.sahilbondre.firefly.filetable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTableSnapshotTest {
+
+    private static final String TEST_FILE_PATH = "src/test/resources/map.snapshot";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH + ".tmp"));
+    }
+
+    private static void writeEntries(int count) throws IOException {
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(TEST_FILE_PATH)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(("key" + i).getBytes(), new FilePointer(i % 5, i, 18));
+            }
+            writer.commit();
+        }
+    }
+
+    @Test
+    void givenManyEntries_whenWriteAndRead_thenChunksAreLoadedInParallel() throws IOException {
+        // Given
+        // Enough entries for several chunks
+        writeEntries(150_000);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+
+        // When
+        FileTableSnapshot.read(TEST_FILE_PATH, 4, chunk -> {
+            threads.add(Thread.currentThread().getName());
+            for (int i = 0; i < chunk.size(); i++) {
+                String key = new String(chunk.getKey(i));
+                int index = Integer.parseInt(key.substring(3));
+                assertEquals(new FilePointer(index % 5, index, 18),
+                    FilePointer.unpack(chunk.getLogIdAndLength(i), chunk.getOffset(i)));
+                keys.add(key);
+            }
+        });
+
+        // Then
+        assertEquals(150_000, FileTableSnapshot.readEntryCount(TEST_FILE_PATH));
+        assertEquals(150_000, keys.size());
+        assertFalse(threads.isEmpty());
+    }
+
+    @Test
+    void givenEntriesThatExpire_whenRead_thenExpiriesAreLoaded() throws IOException {
+        // Given
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(TEST_FILE_PATH)) {
+            writer.append("key1".getBytes(), new FilePointer(1, 0, 18).packLogIdAndLength(), 0, 1000);
+            writer.append("key2".getBytes(), new FilePointer(1, 18, 18));
+            writer.commit();
+        }
+        Map<String, Long> expiries = new ConcurrentHashMap<>();
+
+        // When
+        OffHeapPersistableFileTable fileTable = OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH, 1,
+            (key, filePointer, expiresAt) -> expiries.put(new String(key), expiresAt));
+
+        // Then
+        assertEquals(2, fileTable.size());
+        assertEquals(Map.of("key1", 1000L), expiries);
+    }
+
+    @Test
+    void givenCorruptedChunk_whenRead_thenInvalidFileTableExceptionIsThrown() throws IOException {
+        // Given
+        writeEntries(100);
+        try (RandomAccessFile file = new RandomAccessFile(TEST_FILE_PATH, "rw")) {
+            file.seek(30);
+            file.write(file.read() ^ 0xFF);
+        }
+
+        // When/Then
+        assertThrows(InvalidFileTableException.class, () -> FileTableSnapshot.read(TEST_FILE_PATH, 2, chunk -> {
+        }));
+    }
+
+    @Test
+    void givenTruncatedSnapshot_whenRead_thenInvalidFileTableExceptionIsThrown() throws IOException {
+        // Given
+        writeEntries(100);
+        try (RandomAccessFile file = new RandomAccessFile(TEST_FILE_PATH, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        // When/Then
+        assertThrows(InvalidFileTableException.class, () -> FileTableSnapshot.read(TEST_FILE_PATH, 2, chunk -> {
+        }));
+    }
+
+    @Test
+    void givenUncommittedWriter_whenClose_thenNoSnapshotIsLeft() throws IOException {
+        // Given
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(TEST_FILE_PATH)) {
+            writer.append("key".getBytes(), new FilePointer(1, 0, 18));
+        }
+
+        // Then
+        assertFalse(Files.exists(Paths.get(TEST_FILE_PATH)));
+        assertFalse(Files.exists(Paths.get(TEST_FILE_PATH + ".tmp")));
+    }
+
+    @Test
+    void givenSnapshotOfSerializedTable_whenLoadIntoOffHeapTable_thenValuesMatch() throws IOException {
+        // Given
+        SerializedPersistableFileTable serialized = SerializedPersistableFileTable.fromEmpty();
+        byte[] binaryKey = {(byte) 0xC3, (byte) 0xFF, 0x00, 0x7F};
+        serialized.put(binaryKey, new FilePointer(2, 42, 18));
+        serialized.saveToDisk(TEST_FILE_PATH);
+
+        // When
+        OffHeapPersistableFileTable offHeap = OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH);
+
+        // Then
+        assertEquals(new FilePointer(2, 42, 18), offHeap.get(binaryKey));
+        assertEquals(1, offHeap.size());
+    }
+
+    @Test
+    void givenPosition_whenCommit_thenPositionIsRead() throws IOException {
+        // Given
+        try (FileTableSnapshot.Writer writer = FileTableSnapshot.create(TEST_FILE_PATH)) {
+            writer.append("key".getBytes(), new FilePointer(1, 0, 18));
+            writer.commit(new LogPosition(3, 1024));
+        }
+
+        // When
+        LogPosition position = FileTableSnapshot.readPosition(TEST_FILE_PATH);
+
+        // Then
+        assertEquals(new LogPosition(3, 1024), position);
+    }
+
+    @Test
+    void givenNoPosition_whenCommit_thenPositionIsNull() throws IOException {
+        // Given
+        writeEntries(10);
+
+        // When/Then
+        assertNull(FileTableSnapshot.readPosition(TEST_FILE_PATH));
+    }
+}
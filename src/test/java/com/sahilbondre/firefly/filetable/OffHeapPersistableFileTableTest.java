@@ -0,0 +1,271 @@
+package com.sahilbondre.firefly.filetable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapPersistableFileTableTest {
+
+    private static final String TEST_FILE_PATH = "src/test/resources/off_heap_map";
+    private OffHeapPersistableFileTable fileTable;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+        fileTable = OffHeapPersistableFileTable.fromEmpty();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(TEST_FILE_PATH));
+    }
+
+    @Test
+    void given_KeyValue_When_PuttingAndGet_Then_RetrievedValueMatches() {
+        // Given
+        byte[] key = "testKey".getBytes();
+
+        // When
+        fileTable.put(key, new FilePointer(1, 42, 18));
+        FilePointer retrievedValue = fileTable.get("testKey".getBytes());
+
+        // Then
+        assertEquals(new FilePointer(1, 42, 18), retrievedValue);
+        assertEquals(1, fileTable.size());
+    }
+
+    @Test
+    void given_ExistingKey_When_Putting_Then_ValueIsOverwritten() {
+        // Given
+        byte[] key = "testKey".getBytes();
+        fileTable.put(key, new FilePointer(1, 42, 18));
+
+        // When
+        fileTable.put(key, new FilePointer(2, 7, 18));
+
+        // Then
+        assertEquals(new FilePointer(2, 7, 18), fileTable.get(key));
+        assertEquals(1, fileTable.size());
+    }
+
+    @Test
+    void given_NullKeyOrValue_When_PuttingAndGet_Then_RetrievedValueIsNull() {
+        // When
+        fileTable.put(null, new FilePointer(1, 42, 18));
+        fileTable.put("testKey".getBytes(), null);
+
+        // Then
+        assertNull(fileTable.get(null));
+        assertNull(fileTable.get("testKey".getBytes()));
+        assertEquals(0, fileTable.size());
+    }
+
+    @Test
+    void given_ManyKeys_When_TableGrows_Then_AllValuesAreRetained() {
+        // When
+        for (int i = 0; i < 200_000; i++) {
+            fileTable.put(("key" + i).getBytes(), new FilePointer(i % 7, i, 18));
+        }
+
+        // Then
+        assertEquals(200_000, fileTable.size());
+        for (int i = 0; i < 200_000; i++) {
+            assertEquals(new FilePointer(i % 7, i, 18), fileTable.get(("key" + i).getBytes()));
+        }
+        assertNull(fileTable.get("key200000".getBytes()));
+    }
+
+    @Test
+    void given_ExpectedValue_When_Replacing_Then_OnlyMatchingValueIsReplaced() {
+        // Given
+        byte[] key = "testKey".getBytes();
+        fileTable.put(key, new FilePointer(1, 42, 18));
+
+        // When
+        boolean staleReplaced = fileTable.replace(key, new FilePointer(1, 0, 18), new FilePointer(2, 0, 18));
+        boolean replaced = fileTable.replace(key, new FilePointer(1, 42, 18), new FilePointer(2, 7, 18));
+
+        // Then
+        assertFalse(staleReplaced);
+        assertTrue(replaced);
+        assertEquals(new FilePointer(2, 7, 18), fileTable.get(key));
+        assertFalse(fileTable.replace("missing".getBytes(), new FilePointer(2, 7, 18),
+            new FilePointer(3, 0, 18)));
+    }
+
+    @Test
+    void given_OpenView_When_ChangingKeys_Then_ViewVisitsFilePointersAsTheyWere() {
+        // Given
+        fileTable.put("replaced".getBytes(), new FilePointer(1, 0, 18));
+        fileTable.put("removed".getBytes(), new FilePointer(1, 18, 18));
+        fileTable.put("overwritten".getBytes(), new FilePointer(1, 36, 18));
+
+        // When
+        Set<FilePointer> visited = new HashSet<>();
+        try (FileTableView view = fileTable.view()) {
+            fileTable.replace("replaced".getBytes(), new FilePointer(1, 0, 18), new FilePointer(2, 0, 18));
+            fileTable.remove("removed".getBytes());
+            fileTable.put("overwritten".getBytes(), new FilePointer(2, 18, 18));
+            fileTable.put("added".getBytes(), new FilePointer(2, 36, 18));
+            view.forEach(visited::add);
+        }
+
+        // Then
+        assertEquals(Set.of(new FilePointer(1, 0, 18), new FilePointer(1, 18, 18), new FilePointer(1, 36, 18)),
+            visited);
+        assertEquals(new FilePointer(2, 0, 18), fileTable.get("replaced".getBytes()));
+        assertNull(fileTable.get("removed".getBytes()));
+    }
+
+    @Test
+    void given_KeyValue_When_SavingToDiskAndLoadingFromFile_Then_RetrievedValueMatches()
+        throws FileNotFoundException {
+        // Given
+        for (int i = 0; i < 5000; i++) {
+            fileTable.put(("key" + i).getBytes(), new FilePointer(i % 3, i, 18));
+        }
+
+        // When
+        fileTable.saveToDisk(TEST_FILE_PATH);
+        OffHeapPersistableFileTable loadedFileTable = OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH);
+
+        // Then
+        assertEquals(5000, loadedFileTable.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(new FilePointer(i % 3, i, 18), loadedFileTable.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void given_NonexistentFile_When_LoadingFromFile_Then_FileNotFoundExceptionIsThrown() {
+        // When
+        // Then
+        assertThrows(FileNotFoundException.class, () -> OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH));
+    }
+
+    @Test
+    void given_CorruptedFile_When_LoadingFromFile_Then_InvalidFileTableExceptionIsThrown() throws IOException {
+        // Given
+        Path filePath = Paths.get(TEST_FILE_PATH);
+        Files.write(filePath, List.of("Invalid Data"));
+
+        // Then
+        assertThrows(InvalidFileTableException.class, () -> OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH));
+    }
+
+    @Test
+    void given_ManyKeys_When_RemovingHalf_Then_OtherKeysAreRetained() {
+        // Given
+        for (int i = 0; i < 10_000; i++) {
+            fileTable.put(("key" + i).getBytes(), new FilePointer(1, i, 18));
+        }
+
+        // When
+        for (int i = 0; i < 10_000; i += 2) {
+            fileTable.remove(("key" + i).getBytes());
+        }
+        fileTable.remove("missing".getBytes());
+
+        // Then
+        assertEquals(5_000, fileTable.size());
+        for (int i = 0; i < 10_000; i++) {
+            FilePointer expected = i % 2 == 0 ? null : new FilePointer(1, i, 18);
+            assertEquals(expected, fileTable.get(("key" + i).getBytes()));
+        }
+    }
+
+    @Test
+    void given_ChurningKeys_When_SettingAndRemoving_Then_MemoryUsageStaysBounded() {
+        // Given
+        String padding = "x".repeat(100);
+        for (int i = 0; i < 1_000; i++) {
+            fileTable.put(("live" + i).getBytes(), new FilePointer(1, i, 18));
+        }
+
+        // When
+        // About 100 MB of keys go through the table, 1 000 of them at a time
+        for (int i = 0; i < 1_000_000; i++) {
+            fileTable.put((padding + i).getBytes(), new FilePointer(2, i, 18));
+            if (i >= 1_000) {
+                fileTable.remove((padding + (i - 1_000)).getBytes());
+            }
+        }
+
+        // Then
+        // Removed keys are dropped from the arena of 16 MB chunks once they fill a chunk
+        assertTrue(fileTable.memoryUsage() <= 2 * 16 * 1024 * 1024 + 4096 * 24);
+        assertEquals(2_000, fileTable.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(new FilePointer(1, i, 18), fileTable.get(("live" + i).getBytes()));
+            assertEquals(new FilePointer(2, 999_000 + i, 18), fileTable.get((padding + (999_000 + i)).getBytes()));
+        }
+    }
+
+    @Test
+    void given_ExpectedValue_When_Removing_Then_OnlyMatchingValueIsRemoved() {
+        // Given
+        byte[] key = "testKey".getBytes();
+        fileTable.put(key, new FilePointer(1, 42, 18));
+
+        // When
+        boolean staleRemoved = fileTable.remove(key, new FilePointer(1, 0, 18));
+        FilePointer afterStaleRemove = fileTable.get(key);
+        boolean removed = fileTable.remove(key, new FilePointer(1, 42, 18));
+
+        // Then
+        assertFalse(staleRemoved);
+        assertEquals(new FilePointer(1, 42, 18), afterStaleRemove);
+        assertTrue(removed);
+        assertNull(fileTable.get(key));
+        assertEquals(0, fileTable.size());
+    }
+
+    @Test
+    void given_ConcurrentWriter_When_SavingToDisk_Then_SnapshotHoldsTableAsItWasWhenSaveStarted() throws Exception {
+        // Given
+        for (int i = 0; i < 200_000; i++) {
+            fileTable.put(("key" + i).getBytes(), new FilePointer(1, i, 18));
+        }
+        AtomicBoolean saving = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            // Overwrite and remove existing keys while the snapshot is written
+            for (int round = 2; saving.get(); round++) {
+                for (int i = 0; i < 200_000; i += 7) {
+                    fileTable.put(("key" + i).getBytes(), new FilePointer(round, i, 18));
+                    fileTable.remove(("key" + (i + 1)).getBytes());
+                }
+            }
+        });
+
+        // When
+        FilePointer before = fileTable.get("key0".getBytes());
+        writer.start();
+        fileTable.saveToDisk(TEST_FILE_PATH);
+        saving.set(false);
+        writer.join();
+        OffHeapPersistableFileTable loadedFileTable = OffHeapPersistableFileTable.fromFile(TEST_FILE_PATH, 4);
+
+        // Then
+        // Keys that no writer touched are all there, the others are there at most once
+        assertEquals(new FilePointer(1, 0, 18), before);
+        for (int i = 0; i < 200_000; i++) {
+            FilePointer filePointer = loadedFileTable.get(("key" + i).getBytes());
+            if (i % 7 > 1) {
+                assertEquals(new FilePointer(1, i, 18), filePointer);
+            }
+        }
+        assertTrue(loadedFileTable.size() <= 200_000);
+    }
+}
@@ -9,7 +9,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -33,10 +35,10 @@ class SerializedPersistableFileTableTest {
     void given_KeyValue_When_PuttingAndGet_Then_RetrievedValueMatches() {
         // Given
         byte[] key = "testKey".getBytes();
-        FilePointer expectedValue = new FilePointer("test.txt", 42);
+        FilePointer expectedValue = new FilePointer(1, 42, 18);
 
         // When
-        fileTable.put(key, new FilePointer("test.txt", 42));
+        fileTable.put(key, new FilePointer(1, 42, 18));
         FilePointer retrievedValue = fileTable.get(key);
 
         // Then
@@ -46,7 +48,7 @@ class SerializedPersistableFileTableTest {
     @Test
     void given_NullKey_When_PuttingAndGet_Then_RetrievedValueIsNull() {
         // Given
-        FilePointer value = new FilePointer("test.txt", 42);
+        FilePointer value = new FilePointer(1, 42, 18);
 
         // When
         fileTable.put(null, value);
@@ -69,11 +71,35 @@ class SerializedPersistableFileTableTest {
         assertNull(retrievedValue);
     }
 
+    @Test
+    void given_OpenView_When_ChangingKeys_Then_ViewVisitsFilePointersAsTheyWere() {
+        // Given
+        fileTable.put("replaced".getBytes(), new FilePointer(1, 0, 18));
+        fileTable.put("removed".getBytes(), new FilePointer(1, 18, 18));
+        fileTable.put("overwritten".getBytes(), new FilePointer(1, 36, 18));
+
+        // When
+        Set<FilePointer> visited = new HashSet<>();
+        try (FileTableView view = fileTable.view()) {
+            fileTable.replace("replaced".getBytes(), new FilePointer(1, 0, 18), new FilePointer(2, 0, 18));
+            fileTable.remove("removed".getBytes());
+            fileTable.put("overwritten".getBytes(), new FilePointer(2, 18, 18));
+            fileTable.put("added".getBytes(), new FilePointer(2, 36, 18));
+            view.forEach(visited::add);
+        }
+
+        // Then
+        assertEquals(Set.of(new FilePointer(1, 0, 18), new FilePointer(1, 18, 18), new FilePointer(1, 36, 18)),
+            visited);
+        assertEquals(new FilePointer(2, 0, 18), fileTable.get("replaced".getBytes()));
+        assertNull(fileTable.get("removed".getBytes()));
+    }
+
     @Test
     void given_KeyValue_When_SavingToDiskAndLoadingFromFile_Then_RetrievedValueMatches() throws FileNotFoundException {
         // Given
         byte[] key = "testKey".getBytes();
-        FilePointer value = new FilePointer("test.txt", 42);
+        FilePointer value = new FilePointer(1, 42, 18);
 
         // When
         fileTable.put(key, value);
@@ -2,21 +2,26 @@ package com.sahilbondre.firefly.log;
 
 import com.sahilbondre.firefly.filetable.FilePointer;
 import com.sahilbondre.firefly.model.Segment;
+import com.sahilbondre.firefly.model.SegmentFormat;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class FileChannelRandomAccessLogTest {
 
-    private static final String TEST_FILE_NAME = "src/test/resources/test.log";
+    private static final String TEST_FILE_NAME = "src/test/resources/42.log";
     private static final Path TEST_FILE_PATH = Paths.get(TEST_FILE_NAME);
     private FileChannelRandomAccessLog randomAccessLog;
 
@@ -184,9 +189,143 @@ class FileChannelRandomAccessLogTest {
         FilePointer fp2 = randomAccessLog.append("World".getBytes());
 
         // Then
-        assertEquals(TEST_FILE_NAME, fp1.getFileName());
-        assertEquals(0, fp1.getOffset());
-        assertEquals(TEST_FILE_NAME, fp2.getFileName());
-        assertEquals(5, fp2.getOffset());
+        assertEquals(new FilePointer(42, 0, 5), fp1);
+        assertEquals(new FilePointer(42, 5, 5), fp2);
+    }
+
+    @Test
+    void givenMultipleMessages_whenAppendBatch_thenWrittenContiguouslyWithCorrectFilePointers() throws IOException {
+        // Given
+        randomAccessLog.append("Head".getBytes());
+
+        // When
+        List<FilePointer> filePointers = randomAccessLog.append(List.of("Hello".getBytes(), "World".getBytes()));
+        randomAccessLog.force();
+
+        // Then
+        assertEquals(2, filePointers.size());
+        assertEquals(new FilePointer(42, 4, 5), filePointers.get(0));
+        assertEquals(new FilePointer(42, 9, 5), filePointers.get(1));
+        assertArrayEquals("HeadHelloWorld".getBytes(), randomAccessLog.read(0, randomAccessLog.size()));
+    }
+
+    @Test
+    void givenLogIdOverride_whenAppend_thenFilePointerCarriesLogId() throws IOException {
+        // Given
+        randomAccessLog.close();
+        randomAccessLog = new FileChannelRandomAccessLog(TEST_FILE_NAME, 7);
+
+        // When
+        FilePointer filePointer = randomAccessLog.append("Hello".getBytes());
+
+        // Then
+        assertEquals(7, randomAccessLog.getLogId());
+        assertEquals(new FilePointer(7, 0, 5), filePointer);
+    }
+
+    @Test
+    void givenLargeValue_whenReadSegment_thenValueSizeIsReadFromHeader() throws IOException, InvalidRangeException {
+        // Given
+        // Value size does not fit in two bytes
+        byte[] value = new byte[70_000];
+        value[value.length - 1] = 42;
+        Segment segment = Segment.fromKeyValuePair("LargeKey".getBytes(), value);
+        randomAccessLog.append("Hello".getBytes());
+        FilePointer filePointer = randomAccessLog.append(segment.getBytes());
+
+        // When
+        Segment readSegment = randomAccessLog.readSegment(filePointer.getOffset());
+
+        // Then
+        assertArrayEquals(segment.getBytes(), readSegment.getBytes());
+    }
+
+    @Test
+    void givenFilePointer_whenReadSegmentWithLength_thenReturnsCorrectSegment()
+        throws IOException, InvalidRangeException {
+        // Given
+        Segment firstSegment = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes());
+        Segment secondSegment = Segment.fromKeyValuePair("Foo".getBytes(), "Bar".getBytes());
+        randomAccessLog.append(firstSegment.getBytes());
+        FilePointer filePointer = randomAccessLog.append(secondSegment.getBytes());
+
+        // When
+        Segment readSegment = randomAccessLog.readSegment(filePointer.getOffset(), filePointer.getLength());
+
+        // Then
+        assertArrayEquals(secondSegment.getBytes(), readSegment.getBytes());
+    }
+
+    @Test
+    void givenWrongLength_whenReadSegmentWithLength_thenThrowsInvalidRangeException() throws IOException {
+        // Given
+        Segment segment = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes());
+        FilePointer filePointer = randomAccessLog.append(segment.getBytes());
+
+        // When/Then
+        assertThrows(InvalidRangeException.class,
+            () -> randomAccessLog.readSegment(filePointer.getOffset(), filePointer.getLength() - 1));
+        assertThrows(InvalidRangeException.class,
+            () -> randomAccessLog.readSegment(filePointer.getOffset(), filePointer.getLength() + 1));
+    }
+
+    @Test
+    void givenLogWithContent_whenReadIntoBuffer_thenBufferIsFilled() throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.append("HelloWorld".getBytes());
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+
+        // When
+        randomAccessLog.read(5, buffer);
+
+        // Then
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals("World".getBytes(), buffer.array());
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.read(8, ByteBuffer.allocate(5)));
+    }
+
+    @Test
+    void givenLogWithContent_whenTransferTo_thenRangeIsWrittenToChannel() throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.append("HelloWorld".getBytes());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        randomAccessLog.transferTo(2, 6, Channels.newChannel(outputStream));
+
+        // Then
+        assertEquals("lloWor", outputStream.toString());
+        assertThrows(InvalidRangeException.class,
+            () -> randomAccessLog.transferTo(8, 5, Channels.newChannel(outputStream)));
+    }
+
+    @Test
+    void givenLogWithHeader_whenReopen_thenFormatIsDetectedAndSegmentsAreRead()
+        throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.writeHeader(SegmentFormat.V2);
+        Segment segment = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes(), SegmentFormat.V2);
+        FilePointer filePointer = randomAccessLog.append(segment.getBytes());
+        randomAccessLog.close();
+
+        // When
+        randomAccessLog = new FileChannelRandomAccessLog(TEST_FILE_NAME);
+
+        // Then
+        assertEquals(SegmentFormat.V2, randomAccessLog.getFormat());
+        assertEquals(SegmentFormat.V2.getLogHeaderLength(), filePointer.getOffset());
+        assertEquals("World", new String(randomAccessLog.readSegment(filePointer.getOffset()).getValue()));
+        assertEquals("World", new String(
+            randomAccessLog.readSegment(filePointer.getOffset(), filePointer.getLength()).getValue()));
+    }
+
+    @Test
+    void givenLogWithoutHeader_whenOpen_thenFormatIsV1() throws IOException {
+        // Given
+        randomAccessLog.append(Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()).getBytes());
+
+        // When/Then
+        assertEquals(SegmentFormat.V1, randomAccessLog.getFormat());
+        assertThrows(IllegalStateException.class, () -> randomAccessLog.writeHeader(SegmentFormat.V2));
     }
 }
@@ -0,0 +1,173 @@
+package com.sahilbondre.firefly.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HintFileTest {
+
+    private static final String TEST_LOG_FILE_NAME = "src/test/resources/7.log";
+    private static final String TEST_HINT_FILE_NAME = "src/test/resources/7.hint";
+    private static final Path TEST_HINT_FILE_PATH = Paths.get(TEST_HINT_FILE_NAME);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(TEST_HINT_FILE_PATH);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(TEST_HINT_FILE_PATH);
+        Files.deleteIfExists(Paths.get(TEST_HINT_FILE_NAME + ".tmp"));
+    }
+
+    @Test
+    void givenLogFilePath_whenGetHintFilePath_thenExtensionIsReplaced() {
+        // When
+        String hintFilePath = HintFile.getHintFilePath(TEST_LOG_FILE_NAME);
+
+        // Then
+        assertEquals(TEST_HINT_FILE_NAME, hintFilePath);
+    }
+
+    @Test
+    void givenCommittedHintFile_whenRead_thenEntriesMatch() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.append("key1".getBytes(), 0, 18);
+            writer.append("key2".getBytes(), 18, 20);
+            writer.commit();
+        }
+
+        // When
+        List<String> entries = new ArrayList<>();
+        HintFile.read(TEST_HINT_FILE_NAME, 7,
+            (key, offset, size, tombstone, expiresAt) -> entries.add(new String(key) + ":" + offset + ":" + size));
+
+        // Then
+        assertEquals(List.of("key1:0:18", "key2:18:20"), entries);
+    }
+
+    @Test
+    void givenTombstoneAndExpiringEntries_whenRead_thenTypesAreReturned() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.append("key1".getBytes(), 0, 18);
+            writer.appendTombstone("key1".getBytes(), 18, 15);
+            writer.appendExpiring("key2".getBytes(), 33, 27, 1000);
+            writer.commit();
+        }
+
+        // When
+        List<String> entries = new ArrayList<>();
+        HintFile.read(TEST_HINT_FILE_NAME, 7, (key, offset, size, tombstone, expiresAt) ->
+            entries.add(new String(key) + ":" + offset + ":" + tombstone + ":" + expiresAt));
+
+        // Then
+        assertEquals(List.of("key1:0:false:0", "key1:18:true:0", "key2:33:false:1000"), entries);
+    }
+
+    @Test
+    void givenVersion1HintFile_whenRead_thenEntriesAreValues() throws IOException {
+        // Given
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new CheckedOutputStream(bytes, crc))) {
+            output.writeInt(0x46464849);
+            output.writeByte(1);
+            output.writeInt(7);
+            output.writeShort(4);
+            output.writeInt(18);
+            output.writeLong(0);
+            output.write("key1".getBytes());
+            output.writeShort(0);
+            output.writeInt(1);
+            output.flush();
+            output.writeLong(crc.getValue());
+        }
+        Files.write(TEST_HINT_FILE_PATH, bytes.toByteArray());
+
+        // When
+        List<String> entries = new ArrayList<>();
+        HintFile.read(TEST_HINT_FILE_NAME, 7, (key, offset, size, tombstone, expiresAt) ->
+            entries.add(new String(key) + ":" + offset + ":" + tombstone + ":" + expiresAt));
+
+        // Then
+        assertEquals(List.of("key1:0:false:0"), entries);
+    }
+
+    @Test
+    void givenUncommittedHintFile_whenClose_thenNoHintFileExists() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.append("key1".getBytes(), 0, 18);
+        }
+
+        // Then
+        assertFalse(Files.exists(TEST_HINT_FILE_PATH));
+        assertFalse(Files.exists(Paths.get(TEST_HINT_FILE_NAME + ".tmp")));
+    }
+
+    @Test
+    void givenHintFileOfAnotherLog_whenRead_thenInvalidHintFileExceptionIsThrown() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.commit();
+        }
+
+        // When/Then
+        assertThrows(InvalidHintFileException.class, () -> HintFile.read(TEST_HINT_FILE_NAME, 8,
+            (key, offset, size, tombstone, expiresAt) -> {
+            }));
+    }
+
+    @Test
+    void givenCorruptedHintFile_whenRead_thenInvalidHintFileExceptionIsThrown() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.append("key1".getBytes(), 0, 18);
+            writer.commit();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(TEST_HINT_FILE_NAME, "rw")) {
+            // Flip a bit of the key
+            file.seek(24);
+            file.write(file.read() ^ 1);
+        }
+
+        // When/Then
+        assertThrows(InvalidHintFileException.class, () -> HintFile.read(TEST_HINT_FILE_NAME, 7,
+            (key, offset, size, tombstone, expiresAt) -> {
+            }));
+    }
+
+    @Test
+    void givenTruncatedHintFile_whenRead_thenInvalidHintFileExceptionIsThrown() throws IOException {
+        // Given
+        try (HintFile.Writer writer = HintFile.create(TEST_HINT_FILE_NAME, 7)) {
+            writer.append("key1".getBytes(), 0, 18);
+            writer.commit();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(TEST_HINT_FILE_NAME, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+
+        // When/Then
+        assertThrows(InvalidHintFileException.class, () -> HintFile.read(TEST_HINT_FILE_NAME, 7,
+            (key, offset, size, tombstone, expiresAt) -> {
+            }));
+    }
+}
@@ -0,0 +1,156 @@
+package com.sahilbondre.firefly.log;
+
+import com.sahilbondre.firefly.model.Segment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedRandomAccessLogTest {
+
+    private static final String TEST_FILE_NAME = "src/test/resources/44.log";
+    private static final Path TEST_FILE_PATH = Paths.get(TEST_FILE_NAME);
+    private MappedRandomAccessLog randomAccessLog;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(TEST_FILE_PATH);
+        Files.createFile(TEST_FILE_PATH);
+        randomAccessLog = new MappedRandomAccessLog(TEST_FILE_NAME);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        randomAccessLog.close();
+        Files.deleteIfExists(TEST_FILE_PATH);
+    }
+
+    @Test
+    void givenLogWithContent_whenRead_thenReturnsCorrectContent() throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.append("Hello".getBytes());
+        randomAccessLog.append("World".getBytes());
+
+        // When
+        byte[] result = randomAccessLog.read(5, 5);
+
+        // Then
+        assertArrayEquals("World".getBytes(), result);
+    }
+
+    @Test
+    void givenReadLog_whenAppendAndRead_thenReturnsAppendedContent() throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.append("Hello".getBytes());
+        randomAccessLog.read(0, 5);
+
+        // When
+        randomAccessLog.append("World".getBytes());
+        byte[] result = randomAccessLog.read(0, 10);
+
+        // Then
+        assertArrayEquals("HelloWorld".getBytes(), result);
+    }
+
+    @Test
+    void givenRangeOutsideLog_whenRead_thenThrowsInvalidRangeException() throws IOException {
+        // Given
+        randomAccessLog.append("Hello".getBytes());
+
+        // When/Then
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.read(3, 5));
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.read(-1, 2));
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.read(0, 0));
+    }
+
+    @Test
+    void givenSegments_whenReadSegment_thenReturnsCorrectSegment() throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.append(Segment.fromKeyValuePair("key".getBytes(), "value".getBytes()).getBytes());
+        long offset = randomAccessLog.append(
+            Segment.fromKeyValuePair("anotherKey".getBytes(), "anotherValue".getBytes()).getBytes()).getOffset();
+
+        // When
+        Segment segment = randomAccessLog.readSegment(offset);
+
+        // Then
+        assertArrayEquals("anotherKey".getBytes(), segment.getKey());
+        assertArrayEquals("anotherValue".getBytes(), segment.getValue());
+    }
+
+    @Test
+    void givenCorruptedSegment_whenReadSegment_thenThrowsInvalidRangeException() throws IOException {
+        // Given
+        byte[] segmentBytes = Segment.fromKeyValuePair("key".getBytes(), "value".getBytes()).getBytes();
+        segmentBytes[segmentBytes.length - 1] ^= 1;
+        randomAccessLog.append(segmentBytes);
+
+        // When/Then
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.readSegment(0));
+        assertThrows(InvalidRangeException.class, () -> randomAccessLog.readSegment(segmentBytes.length));
+    }
+
+    @Test
+    void givenSmallChunks_whenReadSegmentAcrossChunks_thenReturnsCorrectSegment()
+        throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.close();
+        randomAccessLog = new MappedRandomAccessLog(new FileChannelRandomAccessLog(TEST_FILE_NAME), 7);
+        randomAccessLog.append(Segment.fromKeyValuePair("key".getBytes(), "value".getBytes()).getBytes());
+        randomAccessLog.readSegment(0);
+        long offset = randomAccessLog.append(
+            Segment.fromKeyValuePair("anotherKey".getBytes(), "anotherValue".getBytes()).getBytes()).getOffset();
+
+        // When
+        Segment first = randomAccessLog.readSegment(0);
+        Segment second = randomAccessLog.readSegment(offset);
+
+        // Then
+        assertArrayEquals("value".getBytes(), first.getValue());
+        assertArrayEquals("anotherKey".getBytes(), second.getKey());
+        assertArrayEquals("anotherValue".getBytes(), second.getValue());
+    }
+
+    @Test
+    void givenSmallChunks_whenReadIntoBufferAcrossChunks_thenBufferIsFilled()
+        throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.close();
+        randomAccessLog = new MappedRandomAccessLog(new FileChannelRandomAccessLog(TEST_FILE_NAME), 4);
+        randomAccessLog.append("HelloWorld".getBytes());
+        ByteBuffer buffer = ByteBuffer.allocate(7);
+
+        // When
+        randomAccessLog.read(2, buffer);
+
+        // Then
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals("lloWorl".getBytes(), buffer.array());
+    }
+
+    @Test
+    void givenSmallChunks_whenReadTailAfterAppends_thenReturnsAppendedContent()
+        throws IOException, InvalidRangeException {
+        // Given
+        randomAccessLog.close();
+        randomAccessLog = new MappedRandomAccessLog(new FileChannelRandomAccessLog(TEST_FILE_NAME), 4);
+        randomAccessLog.append("Hello".getBytes());
+        byte[] tail = randomAccessLog.read(4, 1);
+
+        // When
+        randomAccessLog.append("World".getBytes());
+
+        // Then
+        assertArrayEquals("o".getBytes(), tail);
+        assertArrayEquals("HelloWorld".getBytes(), randomAccessLog.read(0, 10));
+        assertArrayEquals("Wo".getBytes(), randomAccessLog.read(5, 2));
+        assertArrayEquals("ld".getBytes(), randomAccessLog.read(8, 2));
+    }
+}
@@ -0,0 +1,69 @@
+package com.sahilbondre.firefly.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReferenceCountedLogTest {
+
+    private static final String TEST_FILE_NAME = "src/test/resources/43.log";
+    private static final Path TEST_FILE_PATH = Paths.get(TEST_FILE_NAME);
+    private ReferenceCountedLog log;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.deleteIfExists(TEST_FILE_PATH);
+        log = new ReferenceCountedLog(new FileChannelRandomAccessLog(TEST_FILE_NAME));
+        log.append("Hello".getBytes());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(TEST_FILE_PATH);
+    }
+
+    @Test
+    void givenRetainedLog_whenClose_thenLogStaysReadableUntilReleased() throws IOException {
+        // Given
+        assertTrue(log.retain());
+
+        // When
+        log.close();
+
+        // Then
+        assertArrayEquals("Hello".getBytes(), log.read(0, 5));
+        log.release();
+        assertThrows(IOException.class, () -> log.read(0, 5));
+    }
+
+    @Test
+    void givenClosedLog_whenRetain_thenReturnsFalse() throws IOException {
+        // When
+        log.close();
+
+        // Then
+        assertFalse(log.retain());
+    }
+
+    @Test
+    void givenClosedLog_whenCloseAgain_thenNothingHappens() throws IOException {
+        // Given
+        assertTrue(log.retain());
+        log.close();
+
+        // When
+        log.close();
+
+        // Then
+        assertArrayEquals("Hello".getBytes(), log.read(0, 5));
+        log.release();
+    }
+}
@@ -0,0 +1,80 @@
+package com.sahilbondre.firefly.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void givenValuesOverWholeRange_whenBucketIndex_thenBucketHoldsValueWithinOneSixtyFourth() {
+        // Given
+        long[] values = {0, 1, 127, 128, 129, 255, 256, 1_000, 123_456, 987_654_321, Long.MAX_VALUE / 3,
+            Long.MAX_VALUE};
+
+        for (long value : values) {
+            // When
+            int index = LatencyHistogram.bucketIndex(value);
+
+            // Then
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 64, "value " + value);
+        }
+    }
+
+    @Test
+    void givenUniformLatencies_whenSnapshot_thenPercentilesAreWithinPrecision() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos * 1_000);
+        }
+
+        // When
+        LatencySnapshot snapshot = histogram.snapshot();
+
+        // Then
+        assertEquals(100_000, snapshot.getCount());
+        assertEquals(50_000_500, snapshot.getMeanNanos());
+        assertEquals(100_000_000, snapshot.getMaxNanos());
+        assertEquals(50_000_000, snapshot.getP50Nanos(), 50_000_000 / 64.0);
+        assertEquals(99_000_000, snapshot.getP99Nanos(), 99_000_000 / 64.0);
+        assertEquals(99_900_000, snapshot.getP999Nanos(), 99_900_000 / 64.0);
+        assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    void givenConcurrentRecorders_whenSnapshot_thenNoValueIsLost() throws Exception {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // When
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 1_000);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Then
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(400_000, snapshot.getCount());
+        assertEquals(999, snapshot.getMaxNanos());
+        assertEquals(0, new LatencyHistogram().snapshot().getP99Nanos());
+    }
+}
@@ -0,0 +1,49 @@
+package com.sahilbondre.firefly.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentFormatTest {
+
+    @Test
+    void givenLogHeader_whenFromLogHeader_thenFormatIsDetected() {
+        // When
+        SegmentFormat format = SegmentFormat.fromLogHeader(SegmentFormat.V2.getLogHeader());
+
+        // Then
+        assertEquals(SegmentFormat.V2, format);
+        assertEquals(8, SegmentFormat.V2.getLogHeaderLength());
+        assertEquals(0, SegmentFormat.V1.getLogHeaderLength());
+    }
+
+    @Test
+    void givenV1Segment_whenFromLogHeader_thenV1IsReturned() {
+        // Given
+        byte[] segment = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()).getBytes();
+
+        // When/Then
+        assertEquals(SegmentFormat.V1, SegmentFormat.fromLogHeader(segment));
+        assertEquals(SegmentFormat.V1, SegmentFormat.fromLogHeader(new byte[0]));
+    }
+
+    @Test
+    void givenLogHeader_whenReadAsV1Segment_thenSegmentIsInvalid() {
+        // When
+        Segment segment = Segment.fromByteArray(SegmentFormat.V2.getLogHeader());
+
+        // Then
+        assertTrue(segment.getValueSize() < 0);
+        assertFalse(segment.isSegmentValid());
+    }
+
+    @Test
+    void givenUnknownVersion_whenFromLogHeader_thenIllegalArgumentExceptionIsThrown() {
+        // Given
+        byte[] header = SegmentFormat.V2.getLogHeader();
+        header[header.length - 1] = 42;
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> SegmentFormat.fromLogHeader(header));
+    }
+}
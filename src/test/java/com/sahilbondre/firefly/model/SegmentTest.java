@@ -1,7 +1,12 @@
 package com.sahilbondre.firefly.model;
 
+import com.sahilbondre.firefly.compression.Codecs;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32C;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SegmentTest {
@@ -170,4 +175,146 @@ class SegmentTest {
         assertEquals(key.length, segment.getKeySize());
         assertEquals(value.length, segment.getValueSize());
     }
+
+    @Test
+    void givenSegments_whenCreatingBatch_thenBatchSegmentsAreReturnedInOrder() {
+        // Given
+        Segment first = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes());
+        Segment second = Segment.fromKeyValuePair("Foo".getBytes(), "Bar".getBytes());
+
+        // When
+        Segment batch = Segment.fromBatch(List.of(first, second));
+
+        // Then
+        assertTrue(batch.isSegmentValid());
+        assertTrue(batch.isBatch());
+        assertFalse(first.isBatch());
+        assertEquals(Segment.EXTENDED_HEADER_LENGTH + first.getBytes().length + second.getBytes().length,
+            batch.getBytes().length);
+        List<Segment> segments = batch.getBatchSegments();
+        assertEquals(2, segments.size());
+        assertArrayEquals(first.getBytes(), segments.get(0).getBytes());
+        assertArrayEquals(second.getBytes(), segments.get(1).getBytes());
+    }
+
+    @Test
+    void givenCorruptedBatch_whenCheckingChecksum_thenIsSegmentValidReturnsFalse() {
+        // Given
+        Segment batch = Segment.fromBatch(List.of(
+            Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()),
+            Segment.fromKeyValuePair("Foo".getBytes(), "Bar".getBytes())));
+        byte[] corrupted = batch.getBytes().clone();
+        corrupted[corrupted.length - 1] ^= 1;
+
+        // When
+        Segment corruptedBatch = Segment.fromByteArray(corrupted);
+
+        // Then
+        assertFalse(corruptedBatch.isSegmentValid());
+    }
+
+    @Test
+    void givenDeletedKey_whenCreatingTombstone_thenKeyIsReturnedWithEmptyValue() {
+        // When
+        Segment tombstone = Segment.fromDeletedKey("Hello".getBytes());
+
+        // Then
+        assertTrue(tombstone.isSegmentValid());
+        assertTrue(tombstone.isTombstone());
+        assertFalse(tombstone.isBatch());
+        assertFalse(Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()).isTombstone());
+        assertArrayEquals("Hello".getBytes(), tombstone.getKey());
+        assertArrayEquals(new byte[0], tombstone.getValue());
+    }
+
+    @Test
+    void givenExpiry_whenCreatingExpiringSegment_thenExpiryIsStoredInHeader() {
+        // When
+        Segment segment = Segment.fromExpiringKeyValuePair("Hello".getBytes(), "World".getBytes(), 1000);
+
+        // Then
+        assertTrue(segment.isSegmentValid());
+        assertTrue(segment.hasExpiry());
+        assertEquals(1000, segment.getExpiresAt());
+        assertFalse(segment.isExpired(999));
+        assertTrue(segment.isExpired(1000));
+        assertArrayEquals("Hello".getBytes(), segment.getKey());
+        assertArrayEquals("World".getBytes(), segment.getValue());
+        assertEquals(0, Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()).getExpiresAt());
+    }
+
+    @Test
+    void givenV2Format_whenCreatingSegment_thenCrc32cIsStoredInFourBytes() {
+        // Given
+        CRC32C crc32c = new CRC32C();
+        Segment segment = Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes(), SegmentFormat.V2);
+        byte[] bytes = segment.getBytes();
+        crc32c.update(bytes, 4, bytes.length - 4);
+
+        // When
+        long crc = ByteBuffer.wrap(segment.getCrc()).getInt() & 0xFFFFFFFFL;
+
+        // Then
+        assertEquals(SegmentFormat.V2, segment.getFormat());
+        assertEquals(4 + 6 + 5 + 5, bytes.length);
+        assertEquals(crc32c.getValue(), crc);
+        assertTrue(segment.isSegmentValid());
+        assertArrayEquals("Hello".getBytes(), segment.getKey());
+        assertArrayEquals("World".getBytes(), segment.getValue());
+    }
+
+    @Test
+    void givenV1Batch_whenToFormatV2_thenSegmentsAreConvertedAndValid() {
+        // Given
+        Segment batch = Segment.fromBatch(List.of(
+            Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()),
+            Segment.fromExpiringKeyValuePair("Foo".getBytes(), "Bar".getBytes(), 1000),
+            Segment.fromDeletedKey("Baz".getBytes())));
+
+        // When
+        Segment converted = batch.toFormat(SegmentFormat.V2);
+
+        // Then
+        assertTrue(converted.isSegmentValid());
+        assertTrue(converted.isBatch());
+        List<Segment> segments = converted.getBatchSegments();
+        assertEquals(3, segments.size());
+        for (Segment segment : segments) {
+            assertEquals(SegmentFormat.V2, segment.getFormat());
+            assertTrue(segment.isSegmentValid());
+        }
+        assertArrayEquals("World".getBytes(), segments.get(0).getValue());
+        assertEquals(1000, segments.get(1).getExpiresAt());
+        assertTrue(segments.get(2).isTombstone());
+        assertSame(converted, converted.toFormat(SegmentFormat.V2));
+    }
+
+    @Test
+    void givenSegmentsOfDifferentFormats_whenCreatingBatch_thenIllegalArgumentExceptionIsThrown() {
+        // Given
+        List<Segment> segments = List.of(Segment.fromKeyValuePair("Hello".getBytes(), "World".getBytes()),
+            Segment.fromKeyValuePair("Foo".getBytes(), "Bar".getBytes(), SegmentFormat.V2));
+
+        // When/Then
+        assertThrows(IllegalArgumentException.class, () -> Segment.fromBatch(segments, SegmentFormat.V2));
+    }
+
+    @Test
+    void givenCompressedSegment_whenGetValue_thenValueIsDecompressed() {
+        // Given
+        byte[] value = "World".repeat(100).getBytes();
+
+        // When
+        Segment segment = Segment.fromCompressedKeyValuePair("Hello".getBytes(), value, 1000, Codecs.LZ,
+            SegmentFormat.V2);
+
+        // Then
+        assertTrue(segment.isSegmentValid());
+        assertTrue(segment.isCompressed());
+        assertTrue(segment.getBytes().length < value.length);
+        assertEquals(1000, segment.getExpiresAt());
+        assertArrayEquals("Hello".getBytes(), segment.getKey());
+        assertArrayEquals(value, segment.getValue());
+        assertArrayEquals(value, segment.toFormat(SegmentFormat.V1).getValue());
+    }
 }